@@ -7,6 +7,7 @@ import java.nio.file.InvalidPathException;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Properties;
+import java.util.Random;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -51,6 +52,11 @@ public class Config {
      */
     public final int players;
 
+    /**
+     * The master seed all the random generators of the game (deck, computer players, random spins) are derived from
+     */
+    public final long seed;
+
     /**
      * Whether to print out hints to the console or not
      */
@@ -86,6 +92,151 @@ public class Config {
      */
     public final long endGamePauseMillies;
 
+    /**
+     * The average number of milliseconds a computer player takes to react to the table
+     */
+    public final long computerReactionMillis;
+
+    /**
+     * The spread (in milliseconds) of the computer players reaction time around the average
+     */
+    public final long computerReactionJitterMillis;
+
+    /**
+     * The distribution of the computer players reaction time (normal, uniform, exponential or fixed)
+     */
+    public final String computerReactionDistribution;
+
+    /**
+     * The probability (between 0 and 1) that a computer player spots a legal set when there is one on the table
+     */
+    public final double computerSkill;
+
+    /**
+     * The strategy used by the computer players (skilled or random)
+     */
+    public final String computerStrategy;
+
+    /**
+     * The maximal number of pending key presses per player
+     */
+    public final int keyQueueCapacity;
+
+    /**
+     * What to do with a key press when the player's key queue is full (drop_newest or drop_oldest)
+     */
+    public final String keyQueueOverflowPolicy;
+
+    /**
+     * The latency (in milliseconds) above which a claim stage is reported as slow (0 for no budget)
+     */
+    public final long latencyBudgetMillis;
+
+    /**
+     * The memory mapped file the game statistics are exported to (empty for no export)
+     */
+    public final String statsFile;
+
+    /**
+     * The number of milliseconds between two exports of the latency histograms to the statistics file
+     */
+    public final long statsExportMillis;
+
+    /**
+     * The file a Chrome trace of the game threads is written to at the end of the game (empty for no tracing)
+     */
+    public final String traceFile;
+
+    /**
+     * The maximal number of spans traced per thread
+     */
+    public final int traceMaxSpans;
+
+    /**
+     * The number of milliseconds between two samples of the threads' cpu time and allocations (0 for no accounting)
+     */
+    public final long threadAccountingMillis;
+
+    /**
+     * Whether to profile the waits for and holds of the table monitor or not
+     */
+    public final boolean tableLockProfiling;
+
+    /**
+     * The number of milliseconds between two checks of the watchdog (0 for no watchdog)
+     */
+    public final long watchdogMillis;
+
+    /**
+     * The number of milliseconds after which a busy game thread that did not check in is reported as stalled
+     */
+    public final long watchdogStallMillis;
+
+    /**
+     * Whether the watchdog should re-notify a stalled player that waits for a verdict the dealer already gave or not
+     */
+    public final boolean watchdogRecover;
+
+    /**
+     * The base name of the segment files the binary journal of the game events is written to (empty for no journal)
+     */
+    public final String journalFile;
+
+    /**
+     * The number of milliseconds between two commits of the journal's buffered events to the file
+     */
+    public final long journalCommitMillis;
+
+    /**
+     * The number of milliseconds between two keyframes of the full game state in the journal (0 for no keyframes)
+     */
+    public final long journalKeyframeMillis;
+
+    /**
+     * When the journal is forced to the disk (NEVER, COMMIT or CLOSE)
+     */
+    public final String journalFsync;
+
+    /**
+     * The size (in bytes) at which the journal rolls to a new segment file
+     */
+    public final long journalSegmentBytes;
+
+    /**
+     * The number of journal segments to keep (the oldest ones are deleted, 0 to keep all)
+     */
+    public final int journalRetainSegments;
+
+    /**
+     * Whether finished journal segments are compressed in the background or not
+     */
+    public final boolean journalCompaction;
+
+    /**
+     * The file the checkpoints of the game state are written to (empty for no checkpoints)
+     */
+    public final String checkpointFile;
+
+    /**
+     * The number of milliseconds between two checkpoints of the game state
+     */
+    public final long checkpointMillis;
+
+    /**
+     * The file the results of the games are recorded in for the leaderboard, by player name (empty for none)
+     */
+    public final String leaderboardFile;
+
+    /**
+     * The duration (in milliseconds) of a single tick of the scheduler's timing wheel
+     */
+    public final long schedulerTickMillis;
+
+    /**
+     * The number of buckets in the scheduler's timing wheel
+     */
+    public final int schedulerWheelSize;
+
     /**
      * The names of the players to display on the screen
      * Note: if there are more players than names, the remaining players will be called "Player 3", "Player 4", etc.
@@ -155,7 +306,7 @@ public class Config {
      * @param filename - the name of the configuration file.
      * @return - a properties object with the configuration file contents.
      */
-    private static Properties loadProperties(String filename, Logger logger) {
+    static Properties loadProperties(String filename, Logger logger) {
 
         Properties properties = new Properties();
 
@@ -203,6 +354,9 @@ public class Config {
         computerPlayers = Integer.parseInt(properties.getProperty("ComputerPlayers", "0"));
         players = humanPlayers + computerPlayers;
 
+        String seedString = properties.getProperty("Seed", "").trim();
+        seed = seedString.isEmpty() ? System.nanoTime() ^ new Random().nextLong() : Long.parseLong(seedString);
+
         hints = Boolean.parseBoolean(properties.getProperty("Hints", "False"));
         turnTimeoutMillis = (long) (Double.parseDouble(properties.getProperty("TurnTimeoutSeconds", "60")) * 1000.0);
         turnTimeoutWarningMillis = (long) (Double.parseDouble(properties.getProperty("TurnTimeoutWarningSeconds", "60")) * 1000.0);
@@ -211,6 +365,67 @@ public class Config {
         tableDelayMillis = (long) (Double.parseDouble(properties.getProperty("TableDelaySeconds", "0.1")) * 1000.0);
         endGamePauseMillies = (long) (Double.parseDouble(properties.getProperty("EndGamePauseSeconds", "5")) * 1000.0);
 
+        // computer players settings
+        computerReactionMillis = (long) (Double.parseDouble(properties.getProperty("ComputerReactionSeconds", "1")) * 1000.0);
+        computerReactionJitterMillis = (long) (Double.parseDouble(properties.getProperty("ComputerReactionJitterSeconds", "0.25")) * 1000.0);
+        computerReactionDistribution = properties.getProperty("ComputerReactionDistribution", "normal").trim().toLowerCase();
+        computerSkill = Double.parseDouble(properties.getProperty("ComputerSkill", "0.8"));
+        computerStrategy = properties.getProperty("ComputerStrategy", "skilled").trim().toLowerCase();
+        if (computerSkill < 0 || computerSkill > 1)
+            logger.severe("invalid computer skill: " + computerSkill + " (should be between 0 and 1)");
+        if (computerReactionMillis < 0 || computerReactionJitterMillis < 0)
+            logger.severe("invalid computer reaction time: " + computerReactionMillis + " jitter: " + computerReactionJitterMillis);
+
+        // input settings
+        keyQueueCapacity = Integer.parseInt(properties.getProperty("KeyQueueCapacity", "3"));
+        keyQueueOverflowPolicy = properties.getProperty("KeyQueueOverflowPolicy", "drop_newest").trim().toUpperCase();
+        if (keyQueueCapacity <= 0)
+            logger.severe("invalid key queue capacity: " + keyQueueCapacity);
+
+        // instrumentation settings
+        latencyBudgetMillis = (long) (Double.parseDouble(properties.getProperty("LatencyBudgetSeconds", "0")) * 1000.0);
+
+        statsFile = properties.getProperty("StatsFile", "").trim();
+        statsExportMillis = (long) (Double.parseDouble(properties.getProperty("StatsExportSeconds", "1")) * 1000.0);
+
+        traceFile = properties.getProperty("TraceFile", "").trim();
+        traceMaxSpans = Integer.parseInt(properties.getProperty("TraceMaxSpans", "1000000"));
+
+        threadAccountingMillis = (long) (Double.parseDouble(properties.getProperty("ThreadAccountingSeconds", "0")) * 1000.0);
+
+        tableLockProfiling = Boolean.parseBoolean(properties.getProperty("TableLockProfiling", "False"));
+
+        watchdogMillis = (long) (Double.parseDouble(properties.getProperty("WatchdogSeconds", "1")) * 1000.0);
+        watchdogStallMillis = (long) (Double.parseDouble(properties.getProperty("WatchdogStallSeconds", "5")) * 1000.0);
+        watchdogRecover = Boolean.parseBoolean(properties.getProperty("WatchdogRecover", "False"));
+        if (watchdogMillis > 0 && watchdogStallMillis <= 0)
+            logger.severe("invalid watchdog stall time: " + watchdogStallMillis);
+
+        journalFile = properties.getProperty("JournalFile", "").trim();
+        journalCommitMillis = (long) (Double.parseDouble(properties.getProperty("JournalCommitSeconds", "0.05")) * 1000.0);
+        journalKeyframeMillis = (long) (Double.parseDouble(properties.getProperty("JournalKeyframeSeconds", "10")) * 1000.0);
+        journalFsync = properties.getProperty("JournalFsync", "commit").trim().toUpperCase();
+        journalSegmentBytes = (long) (Double.parseDouble(properties.getProperty("JournalSegmentKilobytes", "4096")) * 1024.0);
+        journalRetainSegments = Integer.parseInt(properties.getProperty("JournalRetainSegments", "100"));
+        journalCompaction = Boolean.parseBoolean(properties.getProperty("JournalCompaction", "True"));
+        if (journalCommitMillis <= 0)
+            logger.severe("invalid journal commit time: " + journalCommitMillis);
+        if (journalSegmentBytes <= 0 || journalRetainSegments < 0)
+            logger.severe("invalid journal segments: size " + journalSegmentBytes + " bytes, retain " + journalRetainSegments);
+
+        checkpointFile = properties.getProperty("CheckpointFile", "").trim();
+        checkpointMillis = (long) (Double.parseDouble(properties.getProperty("CheckpointSeconds", "5")) * 1000.0);
+        if (!checkpointFile.isEmpty() && checkpointMillis <= 0)
+            logger.severe("invalid checkpoint interval: " + checkpointMillis);
+
+        leaderboardFile = properties.getProperty("LeaderboardFile", "").trim();
+
+        // scheduler settings
+        schedulerTickMillis = Long.parseLong(properties.getProperty("SchedulerTickMillis", "10"));
+        schedulerWheelSize = Integer.parseInt(properties.getProperty("SchedulerWheelSize", "512"));
+        if (schedulerTickMillis <= 0 || schedulerWheelSize <= 0)
+            logger.severe("invalid scheduler settings: tick: " + schedulerTickMillis + " wheel size: " + schedulerWheelSize);
+
         // ui settings
         String[] names = properties.getProperty("PlayerNames", "Player 1, Player 2").split(",");
         playerNames = new String[players];
@@ -244,4 +459,29 @@ public class Config {
     public int[] playerKeys(int player) {
         return playerKeys[player];
     }
+
+    /**
+     * Derives the seed of a random generator of the game from the master seed, so every component has its own
+     * stream, which does not depend on the order the components are created in.
+     *
+     * @param stream - the name of the stream (e.g. "deck", "computer-1").
+     * @return - the seed of the stream.
+     */
+    public long seed(String stream) {
+        return seed(seed, stream);
+    }
+
+    /**
+     * Derives the seed of a random stream from a master seed (see seed(String)).
+     *
+     * @param master - the master seed.
+     * @param stream - the name of the stream.
+     * @return - the seed of the stream.
+     */
+    public static long seed(long master, String stream) {
+        long z = master ^ stream.hashCode() * 0x9E3779B97F4A7C15L; // the splitmix64 finalizer
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
 }
@@ -9,10 +9,30 @@ public class Env {
     public final UserInterface ui;
     public final Util util;
 
+    /**
+     * The scheduler of delayed game events (computer player moves, freeze ends, reshuffle deadlines).
+     */
+    public final TimingWheel scheduler;
+
+    /**
+     * The journal of the game events (which records nothing if journaling is off).
+     */
+    public final GameJournal journal;
+
     public Env(Logger logger, Config config, UserInterface ui, Util util) {
+        this(logger, config, ui, util, new TimingWheel(logger, config.schedulerTickMillis, config.schedulerWheelSize));
+    }
+
+    public Env(Logger logger, Config config, UserInterface ui, Util util, TimingWheel scheduler) {
+        this(logger, config, ui, util, scheduler, GameJournal.open(logger, config));
+    }
+
+    public Env(Logger logger, Config config, UserInterface ui, Util util, TimingWheel scheduler, GameJournal journal) {
         this.logger = logger;
         this.config = config;
         this.ui = ui;
         this.util = util;
+        this.scheduler = scheduler;
+        this.journal = journal;
     }
 }
@@ -0,0 +1,559 @@
+package bguspl.set;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.logging.Logger;
+
+/**
+ * An append only binary journal of the game events: the cards placed on and removed from the table, the tokens, the
+ * claims, the verdicts, the scores and the reshuffles.
+ * <p>
+ * Recording an event only encodes it into an in memory buffer (under the journal's monitor, which is held for a few
+ * dozen nanoseconds), so it can be done from the dealer and player hot paths. The buffers are written to the file by
+ * the journal's writer thread: a buffer is committed when it is full, or when the commit interval passes, so all the
+ * events recorded in the meantime share a single write (and a single fsync, depending on the fsync policy).
+ * There are two buffers: one is filled by the game threads while the other one is written, and a game thread only
+ * waits if it fills a buffer before the writer is done with the other one.
+ * <p>
+ * The records are written to segment files, which are rolled at a configured size and compacted in the background
+ * (see JournalSegments).
+ * <p>
+ * Segment layout (big endian):
+ * <pre>
+ * header (HEADER_SIZE bytes):
+ *   0 int  MAGIC             4 int  VERSION          8 long start time (System.currentTimeMillis())
+ *  16 long base time (the time of the record before the segment)   24 long base record (the records before it)
+ * records, one after the other:
+ *   byte type, varint time since the previous record (in microseconds since the start time), fields:
+ *   GAME_START      seed (varlong), players, table size, deck size
+ *   CARD_PLACED     slot, card
+ *   CARD_REMOVED    slot, card
+ *   TOKEN_PLACED    player, slot
+ *   TOKEN_REMOVED   player, slot
+ *   TOKENS_CLEARED  slot (the tokens of all the players were removed from the slot)
+ *   CLAIM           player, card, card, card
+ *   VERDICT         player, outcome (PENALTY, POINT or DISMISSED)
+ *   SCORE           player, score
+ *   RESHUFFLE       deck size (before the cards on the table are returned to it)
+ *   GAME_END        number of winners, winner...
+ *   CHECKSUM        the checksum of the cards and the tokens on the table (varlong, see Table.checksum)
+ *   KEYFRAME        number of fields, table size, token words per slot, players, deck size, then the card of each
+ *                   slot (EMPTY as an unsigned int), the token words of each slot (varlongs, see Table.tokens), the
+ *                   score of each player and the cards in the deck (in the deck's order)
+ * </pre>
+ * The varints are unsigned LEB128 (7 bits per byte, least significant first, the high bit set on all but the last).
+ * <p>
+ * Every KEYFRAME record is also added to the index file of its segment (the segment file name with INDEX_SUFFIX), which
+ * is written right after the records it points to, so a reader can seek to the keyframe before any time or record number with
+ * a binary search (see JournalIndex):
+ * <pre>
+ * header (INDEX_HEADER_SIZE bytes):
+ *   0 int  INDEX_MAGIC       4 int  VERSION
+ * entries (INDEX_ENTRY_SIZE bytes each):
+ *   0 long record number     8 long time (in microseconds)   16 long offset in the (uncompressed) segment
+ * </pre>
+ */
+public class GameJournal implements Runnable {
+
+    public static final int MAGIC = 0x5345544a; // "SETJ"
+    public static final int VERSION = 2;
+
+    public static final int HEADER_SIZE = 32;
+
+    public static final int INDEX_MAGIC = 0x53455449; // "SETI"
+    public static final String INDEX_SUFFIX = ".idx";
+    public static final int INDEX_HEADER_SIZE = 8;
+    public static final int INDEX_ENTRY_SIZE = 24;
+
+    /**
+     * The record types.
+     */
+    public static final byte GAME_START = 1;
+    public static final byte CARD_PLACED = 2;
+    public static final byte CARD_REMOVED = 3;
+    public static final byte TOKEN_PLACED = 4;
+    public static final byte TOKEN_REMOVED = 5;
+    public static final byte TOKENS_CLEARED = 6;
+    public static final byte CLAIM = 7;
+    public static final byte VERDICT = 8;
+    public static final byte SCORE = 9;
+    public static final byte RESHUFFLE = 10;
+    public static final byte GAME_END = 11;
+    public static final byte CHECKSUM = 12;
+    public static final byte KEYFRAME = 13;
+
+    /**
+     * The outcomes of a VERDICT record (DISMISSED: the claim was not checked, since its cards left the table).
+     */
+    public static final int PENALTY = 0;
+    public static final int POINT = 1;
+    public static final int DISMISSED = 2;
+
+    /**
+     * When the written records are forced to the disk: never (left to the operating system), on every commit, or
+     * only when the journal is closed.
+     */
+    public enum FsyncPolicy {NEVER, COMMIT, CLOSE}
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int INDEX_BUFFER_SIZE = 64 * INDEX_ENTRY_SIZE;
+
+    /**
+     * The size of a record's type and time, and the maximal size of an int field.
+     */
+    private static final int RECORD_HEADER_SIZE = 1 + 10;
+    private static final int FIELD_SIZE = 5;
+
+    private final Logger logger;
+
+    /**
+     * The segment files (null if journaling is off).
+     */
+    private final JournalSegments segments;
+
+    private final FsyncPolicy fsync;
+
+    private final long commitMillis;
+
+    /**
+     * The System.nanoTime() the journal was opened at (the record times are relative to it).
+     */
+    private final long origin = System.nanoTime();
+
+    /**
+     * The buffer the records are encoded into.
+     */
+    private ByteBuffer active;
+
+    /**
+     * The other buffer, when it is empty (null while it is written by the writer thread).
+     */
+    private ByteBuffer spare;
+
+    /**
+     * The other buffer, when it is waiting for or being written by the writer thread (null otherwise).
+     */
+    private ByteBuffer full;
+
+    /**
+     * The index entries of the keyframes in the active buffer, and of the ones in the other buffer.
+     */
+    private ByteBuffer activeIndex;
+    private ByteBuffer otherIndex;
+
+    /**
+     * The offset in the stream of records (all the records of the journal, without the segment headers) the active
+     * and the full buffer start at.
+     */
+    private long activeOffset;
+    private long fullOffset;
+
+    /**
+     * The time of the record before the active and the full buffer.
+     */
+    private long activeBaseMicros;
+    private long fullBaseMicros;
+
+    /**
+     * The number of the records before the active and the full buffer.
+     */
+    private long activeBaseRecord;
+    private long fullBaseRecord;
+
+    /**
+     * The position of the last record in the active buffer.
+     */
+    private int recordStart;
+
+    /**
+     * The time of the last record (in microseconds since origin).
+     */
+    private long lastMicros;
+
+    /**
+     * The last recorded score of each player (for the keyframes).
+     */
+    private int[] scores = new int[0];
+
+    private long records;
+    private long commits;
+    private long bytes;
+
+    private boolean closed;
+
+    private ThreadLogger writer;
+
+    private GameJournal(Logger logger, JournalSegments segments, FsyncPolicy fsync, long commitMillis) {
+        this.logger = logger;
+        this.segments = segments;
+        this.fsync = fsync;
+        this.commitMillis = Math.max(1, commitMillis);
+        if (segments != null) {
+            active = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            spare = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            activeIndex = ByteBuffer.allocateDirect(INDEX_BUFFER_SIZE);
+            otherIndex = ByteBuffer.allocateDirect(INDEX_BUFFER_SIZE);
+        }
+    }
+
+    /**
+     * Starts a new segment of the journal of the configuration and the writer thread.
+     *
+     * @param logger - the logger.
+     * @param config - the game configuration.
+     * @return - the journal (one that records nothing if journaling is off or the file cannot be opened).
+     */
+    public static GameJournal open(Logger logger, Config config) {
+        if (config.journalFile.isEmpty())
+            return new GameJournal(logger, null, FsyncPolicy.NEVER, 0);
+        FsyncPolicy fsync;
+        try {
+            fsync = FsyncPolicy.valueOf(config.journalFsync);
+        } catch (IllegalArgumentException e) {
+            logger.severe("invalid journal fsync policy: " + config.journalFsync + " (using COMMIT)");
+            fsync = FsyncPolicy.COMMIT;
+        }
+        try {
+            JournalSegments segments = JournalSegments.open(logger, config, System.currentTimeMillis());
+            GameJournal journal = new GameJournal(logger, segments, fsync, config.journalCommitMillis);
+            journal.writer = new ThreadLogger(journal, "journal", logger);
+            journal.writer.setDaemon(true);
+            journal.writer.startWithLog();
+            return journal;
+        } catch (IOException e) {
+            logger.severe("error opening the journal " + config.journalFile + ": " + e.getMessage());
+            return new GameJournal(logger, null, FsyncPolicy.NEVER, 0);
+        }
+    }
+
+    /**
+     * @return - true iff the events are recorded.
+     */
+    public boolean enabled() {
+        return segments != null;
+    }
+
+    public void gameStart(long seed, int players, int tableSize, int deckSize) {
+        if (segments == null)
+            return;
+        synchronized (this) {
+            if (!begin(GAME_START, 5))
+                return;
+            scores = new int[players];
+            putVarLong(seed);
+            putVarint(players);
+            putVarint(tableSize);
+            putVarint(deckSize);
+        }
+    }
+
+    public void cardPlaced(int slot, int card) {
+        record(CARD_PLACED, slot, card);
+    }
+
+    public void cardRemoved(int slot, int card) {
+        record(CARD_REMOVED, slot, card);
+    }
+
+    public void tokenPlaced(int player, int slot) {
+        record(TOKEN_PLACED, player, slot);
+    }
+
+    public void tokenRemoved(int player, int slot) {
+        record(TOKEN_REMOVED, player, slot);
+    }
+
+    public void tokensCleared(int slot) {
+        record(TOKENS_CLEARED, slot);
+    }
+
+    /**
+     * @param player - the player that claims a set.
+     * @param cards  - the cards of the claimed set.
+     */
+    public void claim(int player, int[] cards) {
+        if (segments == null)
+            return;
+        synchronized (this) {
+            if (!begin(CLAIM, 1 + cards.length))
+                return;
+            putVarint(player);
+            for (int card : cards)
+                putVarint(card);
+        }
+    }
+
+    /**
+     * @param player  - the player whose claim was checked.
+     * @param outcome - PENALTY, POINT or DISMISSED.
+     */
+    public void verdict(int player, int outcome) {
+        record(VERDICT, player, outcome);
+    }
+
+    public void score(int player, int score) {
+        if (segments == null)
+            return;
+        synchronized (this) {
+            if (!begin(SCORE, 2))
+                return;
+            scores[player] = score;
+            putVarint(player);
+            putVarint(score);
+        }
+    }
+
+    /**
+     * @param deckSize - the number of cards in the deck before the cards on the table are returned to it.
+     */
+    public void reshuffle(int deckSize) {
+        record(RESHUFFLE, deckSize);
+    }
+
+    public void gameEnd(int[] winners) {
+        if (segments == null)
+            return;
+        synchronized (this) {
+            if (!begin(GAME_END, 1 + winners.length))
+                return;
+            putVarint(winners.length);
+            for (int winner : winners)
+                putVarint(winner);
+        }
+    }
+
+    /**
+     * @param checksum - the checksum of the table (see Table.checksum).
+     * @pre - the current thread holds the table monitor, so the checksum is in order with the table's records.
+     */
+    public void checksum(long checksum) {
+        if (segments == null)
+            return;
+        synchronized (this) {
+            if (begin(CHECKSUM, 2))
+                putVarLong(checksum);
+        }
+    }
+
+    /**
+     * Records the full state of the game, so a reader can start from here instead of from the beginning.
+     * The scores are the last ones recorded, so they are in order with the SCORE records.
+     *
+     * @param slotCards  - the card in each slot (EMPTY if none).
+     * @param tokens     - the token words of the slots (see Table.tokens).
+     * @param tokenWords - the number of token words per slot.
+     * @param deck       - the cards in the deck.
+     * @pre - the current thread holds the table monitor, so the keyframe is in order with the table's records.
+     */
+    public void keyframe(int[] slotCards, long[] tokens, int tokenWords, int[] deck) {
+        if (segments == null)
+            return;
+        synchronized (this) {
+            int fields = 4 + slotCards.length + tokens.length + scores.length + deck.length;
+            if (RECORD_HEADER_SIZE + (1 + fields + tokens.length) * FIELD_SIZE > BUFFER_SIZE) {
+                logger.warning("journal: a keyframe of " + fields + " fields does not fit in a buffer (skipped).");
+                return;
+            }
+            if (closed)
+                return;
+            if (activeIndex.remaining() < INDEX_ENTRY_SIZE)
+                handOff();
+            if (!begin(KEYFRAME, 1 + fields + tokens.length)) // a token word takes up to two fields
+                return;
+            activeIndex.putLong(records - 1).putLong(lastMicros).putLong(activeOffset + recordStart);
+            putVarint(fields);
+            putVarint(slotCards.length);
+            putVarint(tokenWords);
+            putVarint(scores.length);
+            putVarint(deck.length);
+            for (int card : slotCards)
+                putVarint(card);
+            for (long word : tokens)
+                putVarLong(word);
+            for (int score : scores)
+                putVarint(score);
+            for (int card : deck)
+                putVarint(card);
+        }
+    }
+
+    private void record(byte type, int field) {
+        if (segments == null)
+            return;
+        synchronized (this) {
+            if (begin(type, 1))
+                putVarint(field);
+        }
+    }
+
+    private void record(byte type, int field1, int field2) {
+        if (segments == null)
+            return;
+        synchronized (this) {
+            if (begin(type, 2)) {
+                putVarint(field1);
+                putVarint(field2);
+            }
+        }
+    }
+
+    /**
+     * Encodes the type and the time of a record, making room for its fields first.
+     *
+     * @param type   - the record type.
+     * @param fields - the number of int fields of the record.
+     * @return - false iff the journal is closed (and nothing was encoded).
+     * @pre - the current thread holds the journal's monitor.
+     */
+    private boolean begin(byte type, int fields) {
+        if (closed)
+            return false;
+        if (active.remaining() < RECORD_HEADER_SIZE + fields * FIELD_SIZE)
+            handOff();
+        long micros = (System.nanoTime() - origin) / 1000;
+        recordStart = active.position();
+        active.put(type);
+        putVarLong(micros - lastMicros);
+        lastMicros = micros;
+        records++;
+        return true;
+    }
+
+    /**
+     * Hands the active buffer to the writer thread and switches to the other one (waiting for the writer to finish
+     * with it if needed).
+     */
+    private void handOff() {
+        boolean interrupted = false;
+        while (full != null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        swap();
+        notifyAll();
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * @pre - full == null
+     */
+    private void swap() {
+        full = active;
+        active = spare;
+        spare = null;
+        fullOffset = activeOffset;
+        fullBaseMicros = activeBaseMicros;
+        fullBaseRecord = activeBaseRecord;
+        activeOffset += full.position();
+        activeBaseMicros = lastMicros;
+        activeBaseRecord = records;
+        ByteBuffer index = activeIndex;
+        activeIndex = otherIndex;
+        otherIndex = index;
+    }
+
+    private void putVarint(int value) {
+        while ((value & ~0x7f) != 0) {
+            active.put((byte) (value & 0x7f | 0x80));
+            value >>>= 7;
+        }
+        active.put((byte) value);
+    }
+
+    private void putVarLong(long value) {
+        while ((value & ~0x7fL) != 0) {
+            active.put((byte) (value & 0x7f | 0x80));
+            value >>>= 7;
+        }
+        active.put((byte) value);
+    }
+
+    /**
+     * The writer thread starts here: commits the records every commit interval (or when a buffer fills up) until the
+     * journal is closed.
+     */
+    @Override
+    public void run() {
+        boolean failed = false;
+        while (true) {
+            ByteBuffer buffer;
+            ByteBuffer index;
+            long offset;
+            long baseMicros;
+            long baseRecord;
+            synchronized (this) {
+                if (full == null && !closed) {
+                    try {
+                        wait(commitMillis);
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+                if (full == null && active.position() > 0)
+                    swap();
+                if (full == null) {
+                    if (closed)
+                        break;
+                    continue;
+                }
+                buffer = full;
+                index = otherIndex;
+                offset = fullOffset;
+                baseMicros = fullBaseMicros;
+                baseRecord = fullBaseRecord;
+            }
+            buffer.flip();
+            index.flip();
+            if (!failed) {
+                try {
+                    bytes += segments.write(buffer, index, offset, baseMicros, baseRecord);
+                    if (fsync == FsyncPolicy.COMMIT)
+                        segments.force();
+                    commits++;
+                } catch (IOException e) {
+                    logger.severe("error writing the journal (the rest of the game is not recorded): " + e.getMessage());
+                    failed = true;
+                }
+            }
+            synchronized (this) {
+                buffer.clear();
+                index.clear();
+                spare = buffer;
+                full = null;
+                notifyAll();
+            }
+        }
+        try {
+            if (fsync != FsyncPolicy.NEVER && !failed)
+                segments.force();
+            segments.finish();
+        } catch (IOException e) {
+            logger.severe("error closing the journal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Commits the remaining records, closes the current segment, waits for the compaction of the finished segments and
+     * logs how much was written.
+     * The events recorded after the journal is closed are ignored.
+     */
+    public void close() {
+        if (segments == null)
+            return;
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            notifyAll();
+        }
+        try {
+            writer.joinWithLog();
+        } catch (InterruptedException ignored) {
+        }
+        logger.info("journal: " + records + " records, " + bytes + " bytes, " + commits + " commits.");
+        segments.awaitCompaction();
+    }
+}
@@ -0,0 +1,286 @@
+package bguspl.set;
+
+import bguspl.set.ex.Dealer;
+import bguspl.set.ex.Player;
+import bguspl.set.ex.ProfiledTable;
+import bguspl.set.ex.Table;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A headless load generator for the human input path (InputManager -> Player.keyPressed -> Player.run -> Dealer).
+ * Injects synthetic key presses for many human players at a controlled rate, and measures the latency from the key
+ * press to the token placement and to the dealer's verdict (point or penalty).
+ * <p>
+ * Usage: InputLoadGenerator [players] [presses per second per player] [seconds] [config file]
+ */
+public class InputLoadGenerator {
+
+    /**
+     * The first key code used for the synthetic players (above any real key code).
+     */
+    private static final int FIRST_KEY_CODE = 1000;
+
+    private final Config config;
+    private final InputManager inputManager;
+    private final Player[] players;
+    private final LatencyProbe probe;
+
+    private InputLoadGenerator(Config config, InputManager inputManager, Player[] players, LatencyProbe probe) {
+        this.config = config;
+        this.inputManager = inputManager;
+        this.players = players;
+        this.probe = probe;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int playerCount = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        double rate = args.length > 1 ? Double.parseDouble(args[1]) : 20;
+        double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 30;
+        String configFile = args.length > 3 ? args[3] : "config.properties";
+
+        Logger logger = Logger.getLogger("InputLoadGenerator");
+        logger.setUseParentHandlers(false);
+        Config config = new Config(logger, loadProperties(configFile, playerCount));
+        logger.setLevel(Level.OFF);
+        Util util = new UtilImpl(config);
+
+        Player[] players = new Player[config.players];
+        LatencyProbe probe = new LatencyProbe(config);
+        Env env = new Env(logger, config, new UserInterfaceDecorator(logger, util, probe), util);
+        Table table = config.tableLockProfiling ? new ProfiledTable(env) : new Table(env);
+        Dealer dealer = new Dealer(env, table, players);
+        for (int i = 0; i < players.length; i++)
+            players[i] = new Player(env, dealer, table, i, true);
+        InputManager inputManager = new InputManager(logger, config, players);
+
+        ThreadLogger dealerThread = new ThreadLogger(dealer, "dealer", logger);
+        dealerThread.startWithLog();
+        InputLoadGenerator generator = new InputLoadGenerator(config, inputManager, players, probe);
+        long injected = generator.inject(rate, (long) (seconds * 1000));
+
+        dealer.terminate();
+        dealerThread.joinWithLog();
+        env.scheduler.terminate();
+        env.journal.close();
+        generator.report(injected, seconds);
+    }
+
+    /**
+     * Loads the configuration file and overrides it so all the players are human, use synthetic key codes and the
+     * game does not pause.
+     */
+    private static Properties loadProperties(String filename, int playerCount) {
+        Properties properties = new Properties();
+        try (InputStream is = Files.newInputStream(Paths.get(filename))) {
+            properties.load(is);
+        } catch (IOException e) {
+            System.out.println("cannot read configuration file " + filename + ", using defaults.");
+        }
+        properties.setProperty("HumanPlayers", Integer.toString(playerCount));
+        properties.setProperty("ComputerPlayers", "0");
+        properties.setProperty("Hints", "False");
+        properties.setProperty("TableDelaySeconds", "0");
+        properties.setProperty("EndGamePauseSeconds", "0");
+        properties.setProperty("LeaderboardFile", ""); // the synthetic games must not be ranked with the real ones
+        int tableSize = Integer.parseInt(properties.getProperty("Rows", "3")) * Integer.parseInt(properties.getProperty("Columns", "4"));
+        for (int player = 0; player < playerCount; player++) {
+            StringBuilder keys = new StringBuilder();
+            for (int slot = 0; slot < tableSize; slot++)
+                keys.append(slot == 0 ? "" : ",").append(FIRST_KEY_CODE + player * tableSize + slot);
+            properties.setProperty("PlayerKeys" + (player + 1), keys.toString());
+        }
+        return properties;
+    }
+
+    /**
+     * Injects key presses of random slots for all players, each player at the given rate, from a single thread
+     * (so each player's key presses have a single producer, like with a real keyboard).
+     *
+     * @param rate           - the number of key presses per second per player.
+     * @param durationMillis - how long to inject key presses for.
+     * @return - the number of key presses injected.
+     */
+    private long inject(double rate, long durationMillis) throws InterruptedException {
+        Random random = new Random(config.seed("load-generator"));
+        long intervalNanos = (long) (1_000_000_000L / rate / players.length);
+        long start = System.nanoTime();
+        long end = start + durationMillis * 1_000_000L;
+        long injected = 0;
+        for (long next = start; next < end; next += intervalNanos) {
+            long delay = next - System.nanoTime();
+            if (delay > 0)
+                Thread.sleep(delay / 1_000_000L, (int) (delay % 1_000_000L));
+            int player = (int) (injected % players.length);
+            int slot = random.nextInt(config.tableSize);
+            probe.pressed(player, slot);
+            inputManager.keyPressed(config.playerKeys(player)[slot]);
+            injected++;
+        }
+        return injected;
+    }
+
+    private void report(long injected, double seconds) {
+        long dropped = 0;
+        for (Player player : players)
+            dropped += player.getKeyPressesTokens().dropped();
+        System.out.printf("players: %d, key presses injected: %d (%.1f/s), dropped by full queues: %d%n",
+                players.length, injected, injected / seconds, dropped);
+        System.out.println("key press -> token:   " + probe.tokenLatencies.summary());
+        System.out.println("key press -> verdict: " + probe.verdictLatencies.summary());
+    }
+
+    /**
+     * A user interface that records the time of the events caused by the synthetic key presses.
+     */
+    private static class LatencyProbe implements UserInterface {
+
+        /**
+         * The time of the last key press per player and slot.
+         */
+        private final AtomicLongArray pressTime;
+
+        /**
+         * The time of the key press that completed the pending claim per player (0 if none).
+         */
+        private final AtomicLongArray claimTime;
+
+        /**
+         * The time each token was placed per player and slot (0 if there is no token).
+         */
+        private final long[][] tokens;
+
+        private final int tableSize;
+        private final Samples tokenLatencies = new Samples();
+        private final Samples verdictLatencies = new Samples();
+
+        LatencyProbe(Config config) {
+            tableSize = config.tableSize;
+            pressTime = new AtomicLongArray(config.players * tableSize);
+            claimTime = new AtomicLongArray(config.players);
+            tokens = new long[config.players][tableSize];
+        }
+
+        void pressed(int player, int slot) {
+            pressTime.set(player * tableSize + slot, System.nanoTime());
+        }
+
+        private long sincePress(int player, int slot) {
+            return System.nanoTime() - pressTime.get(player * tableSize + slot);
+        }
+
+        private void verdict(int player) {
+            long claimed = claimTime.getAndSet(player, 0);
+            if (claimed != 0)
+                verdictLatencies.add(System.nanoTime() - claimed);
+        }
+
+        @Override
+        public void placeToken(int player, int slot) {
+            tokenLatencies.add(sincePress(player, slot));
+            synchronized (tokens) {
+                tokens[player][slot] = System.nanoTime();
+                int count = 0;
+                for (long token : tokens[player])
+                    if (token != 0) count++;
+                if (count == 3)
+                    claimTime.set(player, pressTime.get(player * tableSize + slot));
+            }
+        }
+
+        @Override
+        public void removeToken(int player, int slot) {
+            // only removals requested by the player count (not the ones done by the dealer)
+            synchronized (tokens) {
+                long placed = tokens[player][slot];
+                tokens[player][slot] = 0;
+                if (placed == 0 || pressTime.get(player * tableSize + slot) < placed) return;
+            }
+            tokenLatencies.add(sincePress(player, slot));
+        }
+
+        @Override
+        public void removeTokens() {
+            synchronized (tokens) {
+                for (long[] playerTokens : tokens)
+                    Arrays.fill(playerTokens, 0);
+            }
+        }
+
+        @Override
+        public void removeTokens(int slot) {
+            synchronized (tokens) {
+                for (long[] playerTokens : tokens)
+                    playerTokens[slot] = 0;
+            }
+        }
+
+        @Override
+        public void setScore(int player, int score) {
+            verdict(player);
+        }
+
+        @Override
+        public void setFreeze(int player, long millies) {
+            if (millies > 0) verdict(player);
+        }
+
+        @Override
+        public void placeCard(int card, int slot) {
+        }
+
+        @Override
+        public void removeCard(int slot) {
+        }
+
+        @Override
+        public void setCountdown(long millies, boolean warn) {
+        }
+
+        @Override
+        public void setElapsed(long millies) {
+        }
+
+        @Override
+        public void announceWinner(int[] players) {
+        }
+
+        @Override
+        public void dispose() {
+        }
+    }
+
+    /**
+     * A growing collection of latency samples (in nanoseconds).
+     */
+    private static class Samples {
+
+        private long[] samples = new long[1024];
+        private int size;
+
+        synchronized void add(long nanos) {
+            if (size == samples.length)
+                samples = Arrays.copyOf(samples, size * 2);
+            samples[size++] = nanos;
+        }
+
+        synchronized String summary() {
+            if (size == 0)
+                return "no samples";
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            return String.format("count: %d, p50: %.3fms, p99: %.3fms, max: %.3fms", size,
+                    sorted[(int) (size * 0.5)] / 1e6, sorted[(int) Math.min(size - 1, size * 0.99)] / 1e6,
+                    sorted[size - 1] / 1e6);
+        }
+    }
+}
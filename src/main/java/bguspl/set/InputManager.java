@@ -39,8 +39,15 @@ class InputManager extends KeyAdapter {
 
     @Override
     public void keyPressed(KeyEvent e) {
-        // dispatch the key event to the player according to the key map
-        int keyCode = e.getKeyCode();
+        keyPressed(e.getKeyCode());
+    }
+
+    /**
+     * Dispatches a key press to the player according to the key map.
+     *
+     * @param keyCode - the code of the key pressed.
+     */
+    void keyPressed(int keyCode) {
         int player = keyMap[keyCode] - 1;
         if (player >= 0){
             logger.severe("key " + keyCode + " was pressed by player " + (player + 1));
@@ -0,0 +1,388 @@
+package bguspl.set;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntPredicate;
+
+/**
+ * The catalog of the games in a journal (see GameJournal): a secondary index of the games by date, players, outcome
+ * and duration, so a query over the journal selects the games from the catalog and reads the segments of the selected
+ * games only (see JournalQuery).
+ * <p>
+ * The catalog is kept in primitive columns, one row per game in the order of the games, which is also the order of
+ * their start times, so a date range is found with a binary search. It is stored in the file base name +
+ * CATALOG_SUFFIX and brought up to date by update(): the games added to the journal since the last update are scanned
+ * (in parallel), and the games whose segments were deleted (see JournalSegments) are dropped. A game that did not end
+ * is cataloged as not ended and scanned again by every update, since it may still be recorded (several games may write
+ * to the journal at once, so it need not be the last game).
+ * <p>
+ * The journal records the players' seats, not who played them, so a game is selected by its number of seats only.
+ * <p>
+ * File layout (big endian):
+ * <pre>
+ * header (HEADER_SIZE bytes):
+ *   0 int  CATALOG_MAGIC     4 int  VERSION
+ * entries (ENTRY_SIZE bytes each):
+ *   0 long start time (System.currentTimeMillis() of the GAME_START record)      8 long duration (in microseconds)
+ *  16 long winners (bit i for player i, players 0 to 63 only)                    24 long seed
+ *  32 int  first segment    36 int  last segment     40 int  records     44 short players     46 byte 1 iff ended
+ *  47 byte unused
+ * </pre>
+ */
+public class JournalCatalog {
+
+    public static final int CATALOG_MAGIC = 0x53455451; // "SETQ"
+    public static final int VERSION = 1;
+    public static final String CATALOG_SUFFIX = ".catalog";
+    public static final int HEADER_SIZE = 8;
+    public static final int ENTRY_SIZE = 48;
+
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    /**
+     * The maximal number of games a fork-join task scans without splitting.
+     */
+    private static final int GAMES_PER_TASK = 4;
+
+    private final String base;
+
+    /**
+     * The columns of the catalog, one row per game.
+     */
+    private long[] startMillis = new long[16];
+    private long[] durationMicros = new long[16];
+    private long[] winners = new long[16];
+    private long[] seeds = new long[16];
+    private int[] firstSegment = new int[16];
+    private int[] lastSegment = new int[16];
+    private int[] records = new int[16];
+    private int[] players = new int[16];
+    private boolean[] ended = new boolean[16];
+    private int size;
+
+    private JournalCatalog(String base) {
+        this.base = base;
+    }
+
+    /**
+     * The games to select (all the games by default).
+     */
+    public static class Filter {
+        public long fromMillis = Long.MIN_VALUE;
+        public long toMillis = Long.MAX_VALUE;
+        public int players = -1;
+
+        /**
+         * A seat (0 based) the games have, that is the games with more players than it.
+         */
+        public int seat = -1;
+        public int winner = -1;
+        public int ended = -1;
+        public long minDurationMicros = 0;
+        public long maxDurationMicros = Long.MAX_VALUE;
+    }
+
+    /**
+     * Loads the catalog of a journal and brings it up to date with the journal's segments.
+     *
+     * @param base - the base name of the segment files.
+     * @param pool - the pool the games are scanned on.
+     * @return - the catalog.
+     * @throws IOException - if the catalog cannot be written.
+     */
+    public static JournalCatalog update(String base, ForkJoinPool pool) throws IOException {
+        JournalCatalog catalog = new JournalCatalog(base);
+        boolean changed = !catalog.load();
+        int loaded = catalog.size;
+        catalog.retain(row -> JournalSegments.find(base, catalog.firstSegment[row]) != null);
+        changed |= catalog.size != loaded;
+
+        // the games that did not end are scanned again, with the new games
+        int[] rows = new int[catalog.size + 16];
+        int count = 0;
+        for (int row = 0; row < catalog.size; row++)
+            if (!catalog.ended[row])
+                rows[count++] = row;
+        long[] sequences = JournalSegments.list(base);
+        long after = catalog.size == 0 ? -1 : catalog.firstSegment[catalog.size - 1];
+        for (long sequence : sequences) {
+            if (sequence <= after)
+                continue;
+            String name = JournalSegments.find(base, sequence);
+            try {
+                if (name == null || JournalReader.header(name).getLong(24) != 0)
+                    continue; // deleted meanwhile, or a continuation of a game
+            } catch (IOException e) {
+                if (JournalSegments.writing(name))
+                    break; // a game whose header is being written
+                continue;
+            }
+            catalog.grow();
+            if (count == rows.length)
+                rows = Arrays.copyOf(rows, count * 2);
+            catalog.firstSegment[catalog.size] = (int) sequence;
+            rows[count++] = catalog.size++;
+        }
+        if (count > 0) {
+            pool.invoke(catalog.new Scan(rows, 0, count));
+            catalog.retain(row -> catalog.lastSegment[row] >= 0);
+            changed = true;
+        }
+        if (changed)
+            catalog.write();
+        return catalog;
+    }
+
+    /**
+     * Reads the catalog file (if there is one).
+     *
+     * @return - false iff there is no valid catalog file.
+     */
+    private boolean load() {
+        Path path = Paths.get(base + CATALOG_SUFFIX);
+        ByteBuffer buffer;
+        try {
+            buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        } catch (IOException e) {
+            return false;
+        }
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != CATALOG_MAGIC || buffer.getInt(4) != VERSION)
+            return false;
+        buffer.position(HEADER_SIZE);
+        while (buffer.remaining() >= ENTRY_SIZE) {
+            grow();
+            startMillis[size] = buffer.getLong();
+            durationMicros[size] = buffer.getLong();
+            winners[size] = buffer.getLong();
+            seeds[size] = buffer.getLong();
+            firstSegment[size] = buffer.getInt();
+            lastSegment[size] = buffer.getInt();
+            records[size] = buffer.getInt();
+            players[size] = buffer.getShort();
+            ended[size] = buffer.get() != 0;
+            buffer.get();
+            size++;
+        }
+        return true;
+    }
+
+    /**
+     * Writes the catalog file (to a temporary file, which replaces the old one).
+     */
+    private void write() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + size * ENTRY_SIZE);
+        buffer.putInt(CATALOG_MAGIC).putInt(VERSION);
+        for (int row = 0; row < size; row++) {
+            buffer.putLong(startMillis[row]).putLong(durationMicros[row]).putLong(winners[row]).putLong(seeds[row]);
+            buffer.putInt(firstSegment[row]).putInt(lastSegment[row]).putInt(records[row]);
+            buffer.putShort((short) players[row]).put((byte) (ended[row] ? 1 : 0)).put((byte) 0);
+        }
+        buffer.flip();
+        Path temporary = Paths.get(base + CATALOG_SUFFIX + TEMPORARY_SUFFIX);
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        }
+        Files.move(temporary, Paths.get(base + CATALOG_SUFFIX), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Drops the rows that do not match a predicate (keeping the order of the others).
+     */
+    private void retain(IntPredicate predicate) {
+        int kept = 0;
+        for (int row = 0; row < size; row++) {
+            if (!predicate.test(row))
+                continue;
+            startMillis[kept] = startMillis[row];
+            durationMicros[kept] = durationMicros[row];
+            winners[kept] = winners[row];
+            seeds[kept] = seeds[row];
+            firstSegment[kept] = firstSegment[row];
+            lastSegment[kept] = lastSegment[row];
+            records[kept] = records[row];
+            players[kept] = players[row];
+            ended[kept] = ended[row];
+            kept++;
+        }
+        size = kept;
+    }
+
+    private void grow() {
+        if (size < startMillis.length)
+            return;
+        int capacity = size * 2;
+        startMillis = Arrays.copyOf(startMillis, capacity);
+        durationMicros = Arrays.copyOf(durationMicros, capacity);
+        winners = Arrays.copyOf(winners, capacity);
+        seeds = Arrays.copyOf(seeds, capacity);
+        firstSegment = Arrays.copyOf(firstSegment, capacity);
+        lastSegment = Arrays.copyOf(lastSegment, capacity);
+        records = Arrays.copyOf(records, capacity);
+        players = Arrays.copyOf(players, capacity);
+        ended = Arrays.copyOf(ended, capacity);
+    }
+
+    /**
+     * Catalogs the games of a range of rows (whose first segments are set), split in halves until it is small
+     * enough. A game that cannot be read gets a last segment of -1.
+     */
+    private class Scan extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[] rows;
+        private final int from;
+        private final int to;
+
+        Scan(int[] rows, int from, int to) {
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > GAMES_PER_TASK) {
+                invokeAll(new Scan(rows, from, (from + to) >>> 1), new Scan(rows, (from + to) >>> 1, to));
+                return;
+            }
+            for (int i = from; i < to; i++)
+                scan(rows[i]);
+        }
+    }
+
+    private void scan(int row) {
+        if (!read(row))
+            read(row); // a segment compacted while it was read is found compressed the second time
+    }
+
+    /**
+     * @return - false iff the game cannot be read.
+     */
+    private boolean read(int row) {
+        lastSegment[row] = -1;
+        winners[row] = 0;
+        ended[row] = false;
+        try {
+            JournalReader reader = new JournalReader(JournalSegments.find(base, firstSegment[row]));
+            if (!reader.next() || reader.type() != GameJournal.GAME_START)
+                return false;
+            long startMicros = reader.micros();
+            startMillis[row] = reader.startMillis + startMicros / 1000;
+            seeds[row] = reader.longField(0);
+            players[row] = reader.field(1);
+            while (reader.next()) {
+                if (reader.type() == GameJournal.GAME_END) {
+                    ended[row] = true;
+                    for (int i = 0; i < reader.fieldCount(); i++)
+                        if (reader.field(i) < 64)
+                            winners[row] |= 1L << reader.field(i);
+                }
+            }
+            durationMicros[row] = reader.micros() - startMicros;
+            records[row] = (int) (reader.record() + 1);
+            lastSegment[row] = (int) JournalSegments.sequence(reader.filename());
+            return true;
+        } catch (IOException | RuntimeException e) {
+            lastSegment[row] = -1;
+            return false;
+        }
+    }
+
+    /**
+     * Selects games: the date range is found with a binary search, and the other conditions are checked on the
+     * catalog rows in it.
+     *
+     * @param filter - the games to select.
+     * @return - the rows of the selected games, in the order of the games.
+     */
+    public int[] select(Filter filter) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (startMillis[middle] < filter.fromMillis)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        int[] rows = new int[size - low];
+        int count = 0;
+        for (int row = low; row < size && startMillis[row] < filter.toMillis; row++) {
+            if (filter.players >= 0 && players[row] != filter.players)
+                continue;
+            if (filter.seat >= 0 && players[row] <= filter.seat)
+                continue;
+            if (filter.winner >= 0 && (filter.winner >= 64 || (winners[row] & 1L << filter.winner) == 0))
+                continue;
+            if (filter.ended >= 0 && ended[row] != (filter.ended == 1))
+                continue;
+            if (durationMicros[row] < filter.minDurationMicros || durationMicros[row] > filter.maxDurationMicros)
+                continue;
+            rows[count++] = row;
+        }
+        return Arrays.copyOf(rows, count);
+    }
+
+    /**
+     * @return - the base name of the segment files of the journal.
+     */
+    public String base() {
+        return base;
+    }
+
+    /**
+     * @return - the number of games in the catalog.
+     */
+    public int size() {
+        return size;
+    }
+
+    public long startMillis(int row) {
+        return startMillis[row];
+    }
+
+    public long durationMicros(int row) {
+        return durationMicros[row];
+    }
+
+    public long winners(int row) {
+        return winners[row];
+    }
+
+    public long seed(int row) {
+        return seeds[row];
+    }
+
+    public int firstSegment(int row) {
+        return firstSegment[row];
+    }
+
+    public int lastSegment(int row) {
+        return lastSegment[row];
+    }
+
+    public int records(int row) {
+        return records[row];
+    }
+
+    public int players(int row) {
+        return players[row];
+    }
+
+    public boolean ended(int row) {
+        return ended[row];
+    }
+}
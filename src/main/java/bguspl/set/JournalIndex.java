@@ -0,0 +1,107 @@
+package bguspl.set;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The keyframe index of a journal segment (see GameJournal), memory mapped. The entries are in the order of the
+ * keyframes, so both their record numbers and their times are increasing, and the keyframe before any point of the
+ * segment is found with a binary search.
+ */
+public class JournalIndex {
+
+    private final MappedByteBuffer buffer;
+
+    /**
+     * The number of complete entries in the index.
+     */
+    private final int entries;
+
+    /**
+     * Maps the index file of a journal segment and checks its header.
+     *
+     * @param segmentFile - the segment file name (compressed or not).
+     * @throws IOException - if the index file cannot be mapped or is not a journal index.
+     */
+    public JournalIndex(String segmentFile) throws IOException {
+        String filename = JournalSegments.uncompressed(segmentFile) + GameJournal.INDEX_SUFFIX;
+        try (RandomAccessFile file = new RandomAccessFile(filename, "r")) {
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        }
+        if (buffer.capacity() < GameJournal.INDEX_HEADER_SIZE || buffer.getInt(0) != GameJournal.INDEX_MAGIC
+                || buffer.getInt(4) != GameJournal.VERSION)
+            throw new IOException(filename + " is not a game journal index (or was written by another version).");
+        entries = (buffer.capacity() - GameJournal.INDEX_HEADER_SIZE) / GameJournal.INDEX_ENTRY_SIZE;
+    }
+
+    /**
+     * @return - the number of keyframes in the index.
+     */
+    public int entries() {
+        return entries;
+    }
+
+    /**
+     * @param entry - an entry of the index.
+     * @return - the record number of the keyframe (counted from 0, the GAME_START record).
+     */
+    public long record(int entry) {
+        return buffer.getLong(position(entry));
+    }
+
+    /**
+     * @param entry - an entry of the index.
+     * @return - the time of the keyframe (in microseconds since the journal was opened).
+     */
+    public long micros(int entry) {
+        return buffer.getLong(position(entry) + 8);
+    }
+
+    /**
+     * @param entry - an entry of the index.
+     * @return - the offset of the keyframe in the (uncompressed) segment.
+     */
+    public long offset(int entry) {
+        return buffer.getLong(position(entry) + 16);
+    }
+
+    private static int position(int entry) {
+        return GameJournal.INDEX_HEADER_SIZE + entry * GameJournal.INDEX_ENTRY_SIZE;
+    }
+
+    /**
+     * @param micros - a time (in microseconds since the journal was opened).
+     * @return - the last entry whose keyframe is at or before the time (-1 if none).
+     */
+    public int floorByTime(long micros) {
+        int low = 0;
+        int high = entries - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (micros(middle) <= micros)
+                low = middle + 1;
+            else
+                high = middle - 1;
+        }
+        return high;
+    }
+
+    /**
+     * @param record - a record number (counted from 0, the GAME_START record).
+     * @return - the last entry whose keyframe is at or before the record (-1 if none).
+     */
+    public int floorByRecord(long record) {
+        int low = 0;
+        int high = entries - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (record(middle) <= record)
+                low = middle + 1;
+            else
+                high = middle - 1;
+        }
+        return high;
+    }
+}
@@ -0,0 +1,319 @@
+package bguspl.set;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Answers questions over all the games recorded in a journal (see GameJournal), such as the time to the first set, the
+ * invalid claim rate of each player or the games with many reshuffles.
+ * <p>
+ * The games are selected from the journal's catalog (see JournalCatalog) by date, players, winner, outcome and
+ * duration, and only the segments of the selected games are read: the games are sharded over a fork-join pool, each
+ * one scanned with a JournalReader (no object is created per record) into primitive totals, which are then merged.
+ * <p>
+ * Usage: JournalQuery [journal base name] [query] [filter=value ...]
+ * <br>
+ * queries: games, first-set, invalid-claims, reshuffles
+ * <br>
+ * filters: from=yyyy-MM-dd, to=yyyy-MM-dd (exclusive), players=N, seat=P (1 based, the games with at least P players,
+ * and only the claims of seat P are listed; the journal does not record who played a seat), winner=P (1 based),
+ * ended=true|false, min-seconds=S, max-seconds=S, more-than=N (reshuffles, 3 by default), threads=T
+ */
+public class JournalQuery {
+
+    /**
+     * The maximal number of games a fork-join task scans without splitting.
+     */
+    private static final int GAMES_PER_TASK = 4;
+
+    private final JournalCatalog catalog;
+
+    /**
+     * The number of players the totals are kept for (the most players in a selected game).
+     */
+    private final int players;
+
+    /**
+     * The games with more reshuffles than this are listed.
+     */
+    private final int moreThan;
+
+    public JournalQuery(JournalCatalog catalog, int players, int moreThan) {
+        this.catalog = catalog;
+        this.players = players;
+        this.moreThan = moreThan;
+    }
+
+    public static void main(String[] args) throws IOException, ParseException {
+        String base = args.length > 0 ? args[0] : "game.journal";
+        String query = args.length > 1 ? args[1] : "games";
+        JournalCatalog.Filter filter = new JournalCatalog.Filter();
+        int moreThan = 3;
+        int threads = Runtime.getRuntime().availableProcessors();
+        SimpleDateFormat date = new SimpleDateFormat("yyyy-MM-dd");
+        for (int i = 2; i < args.length; i++) {
+            int equals = args[i].indexOf('=');
+            String name = equals < 0 ? args[i] : args[i].substring(0, equals);
+            String value = equals < 0 ? "" : args[i].substring(equals + 1);
+            switch (name) {
+                case "from":
+                    filter.fromMillis = date.parse(value).getTime();
+                    break;
+                case "to":
+                    filter.toMillis = date.parse(value).getTime();
+                    break;
+                case "players":
+                    filter.players = Integer.parseInt(value);
+                    break;
+                case "seat":
+                    filter.seat = Integer.parseInt(value) - 1;
+                    break;
+                case "winner":
+                    filter.winner = Integer.parseInt(value) - 1;
+                    break;
+                case "ended":
+                    filter.ended = Boolean.parseBoolean(value) ? 1 : 0;
+                    break;
+                case "min-seconds":
+                    filter.minDurationMicros = (long) (Double.parseDouble(value) * 1e6);
+                    break;
+                case "max-seconds":
+                    filter.maxDurationMicros = (long) (Double.parseDouble(value) * 1e6);
+                    break;
+                case "more-than":
+                    moreThan = Integer.parseInt(value);
+                    break;
+                case "threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                default:
+                    System.out.println("unknown filter " + name + " (see the usage in JournalQuery).");
+                    return;
+            }
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        JournalCatalog catalog = JournalCatalog.update(base, pool);
+        int[] rows = catalog.select(filter);
+        System.out.printf("catalog of %s: %d games, %d selected (%.3fs)%n", base, catalog.size(), rows.length,
+                (System.nanoTime() - start) / 1e9);
+        if (query.equals("games")) {
+            printGames(catalog, rows);
+            return;
+        }
+        if (!query.equals("first-set") && !query.equals("invalid-claims") && !query.equals("reshuffles")) {
+            System.out.println("unknown query " + query + " (games, first-set, invalid-claims or reshuffles).");
+            return;
+        }
+
+        int players = 0;
+        for (int row : rows)
+            players = Math.max(players, catalog.players(row));
+        start = System.nanoTime();
+        Totals totals = new JournalQuery(catalog, players, moreThan).scan(rows, pool);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        switch (query) {
+            case "first-set":
+                if (totals.firstSetGames > 0)
+                    System.out.printf("time to the first set: mean %.2fs, min %.2fs, max %.2fs over %d games%n",
+                            totals.firstSetMicros / 1e6 / totals.firstSetGames, totals.minFirstSetMicros / 1e6,
+                            totals.maxFirstSetMicros / 1e6, totals.firstSetGames);
+                System.out.printf("%d games with no set%n", totals.games - totals.firstSetGames);
+                break;
+            case "invalid-claims":
+                System.out.printf("%-8s %8s %8s %10s %10s%n", "player", "claims", "invalid", "invalid %", "dismissed");
+                for (int player = 0; player < players; player++) {
+                    if (filter.seat >= 0 && player != filter.seat)
+                        continue;
+                    long claims = totals.points[player] + totals.penalties[player];
+                    System.out.printf("%-8d %8d %8d %10.1f %10d%n", player + 1, claims, totals.penalties[player],
+                            claims == 0 ? 0.0 : 100.0 * totals.penalties[player] / claims, totals.dismissed[player]);
+                }
+                break;
+            default:
+                System.out.printf("%d games with more than %d reshuffles (%.2f reshuffles per game)%n",
+                        totals.manyReshuffles, moreThan, (double) totals.reshuffles / Math.max(1, totals.games));
+                int[] many = Arrays.copyOf(totals.manyReshufflesRows, totals.manyReshuffles);
+                Arrays.sort(many);
+                printGames(catalog, many);
+        }
+        System.out.printf("scanned %d records of %d games in %.3fs (%.0f records/s on %d threads)%n",
+                totals.records, totals.games, seconds, totals.records / seconds, threads);
+    }
+
+    private static void printGames(JournalCatalog catalog, int[] rows) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        System.out.printf("%-20s %10s %8s %10s %8s  %s%n", "started", "seconds", "players", "winners", "records",
+                "segments");
+        for (int row : rows) {
+            StringBuilder winners = new StringBuilder();
+            for (long mask = catalog.winners(row); mask != 0; mask &= mask - 1)
+                winners.append(winners.length() == 0 ? "" : ",").append(Long.numberOfTrailingZeros(mask) + 1);
+            System.out.printf("%-20s %10.1f %8d %10s %8d  %d-%d%n", format.format(new Date(catalog.startMillis(row))),
+                    catalog.durationMicros(row) / 1e6, catalog.players(row),
+                    catalog.ended(row) ? winners.toString() : "(no end)", catalog.records(row),
+                    catalog.firstSegment(row), catalog.lastSegment(row));
+        }
+    }
+
+    /**
+     * Scans the selected games.
+     *
+     * @param rows - the catalog rows of the games.
+     * @param pool - the pool the games are sharded over.
+     * @return - the totals of the games.
+     */
+    public Totals scan(int[] rows, ForkJoinPool pool) {
+        return pool.invoke(new Shard(rows, 0, rows.length));
+    }
+
+    /**
+     * A range of games, split in halves until it is small enough.
+     */
+    private class Shard extends RecursiveTask<Totals> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[] rows;
+        private final int from;
+        private final int to;
+
+        Shard(int[] rows, int from, int to) {
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Totals compute() {
+            if (to - from > GAMES_PER_TASK) {
+                Shard left = new Shard(rows, from, (from + to) >>> 1);
+                Shard right = new Shard(rows, (from + to) >>> 1, to);
+                left.fork();
+                Totals totals = right.compute();
+                totals.add(left.join());
+                return totals;
+            }
+            Totals totals = new Totals(players);
+            for (int i = from; i < to; i++)
+                scan(rows[i], totals);
+            return totals;
+        }
+    }
+
+    /**
+     * Scans a single game into the totals (a game that cannot be read is skipped).
+     */
+    private void scan(int row, Totals totals) {
+        JournalReader reader;
+        try {
+            reader = new JournalReader(JournalSegments.find(catalog.base(), catalog.firstSegment(row)));
+        } catch (IOException | RuntimeException e) {
+            return;
+        }
+        long startMicros = -1;
+        long firstSet = -1;
+        int reshuffles = 0;
+        while (reader.next()) {
+            totals.records++;
+            switch (reader.type()) {
+                case GameJournal.GAME_START:
+                    startMicros = reader.micros();
+                    break;
+                case GameJournal.VERDICT:
+                    int player = reader.field(0);
+                    if (player >= players)
+                        break;
+                    switch (reader.field(1)) {
+                        case GameJournal.POINT:
+                            totals.points[player]++;
+                            if (firstSet < 0)
+                                firstSet = reader.micros() - startMicros;
+                            break;
+                        case GameJournal.PENALTY:
+                            totals.penalties[player]++;
+                            break;
+                        default:
+                            totals.dismissed[player]++;
+                    }
+                    break;
+                case GameJournal.RESHUFFLE:
+                    reshuffles++;
+                    break;
+            }
+        }
+        totals.games++;
+        if (firstSet >= 0) {
+            totals.firstSetGames++;
+            totals.firstSetMicros += firstSet;
+            totals.minFirstSetMicros = Math.min(totals.minFirstSetMicros, firstSet);
+            totals.maxFirstSetMicros = Math.max(totals.maxFirstSetMicros, firstSet);
+        }
+        totals.reshuffles += reshuffles;
+        if (reshuffles > moreThan)
+            totals.addManyReshuffles(row);
+    }
+
+    /**
+     * The totals of the scanned games.
+     */
+    public static class Totals {
+
+        public long games;
+        public long records;
+        public long firstSetGames;
+        public long firstSetMicros;
+        public long minFirstSetMicros = Long.MAX_VALUE;
+        public long maxFirstSetMicros;
+        public long reshuffles;
+
+        /**
+         * The verdicts on the claims of each player.
+         */
+        public final long[] points;
+        public final long[] penalties;
+        public final long[] dismissed;
+
+        /**
+         * The catalog rows of the games with more reshuffles than asked for (the first manyReshuffles entries).
+         */
+        public int[] manyReshufflesRows = new int[16];
+        public int manyReshuffles;
+
+        Totals(int players) {
+            points = new long[players];
+            penalties = new long[players];
+            dismissed = new long[players];
+        }
+
+        void addManyReshuffles(int row) {
+            if (manyReshuffles == manyReshufflesRows.length)
+                manyReshufflesRows = Arrays.copyOf(manyReshufflesRows, manyReshuffles * 2);
+            manyReshufflesRows[manyReshuffles++] = row;
+        }
+
+        void add(Totals other) {
+            games += other.games;
+            records += other.records;
+            firstSetGames += other.firstSetGames;
+            firstSetMicros += other.firstSetMicros;
+            minFirstSetMicros = Math.min(minFirstSetMicros, other.minFirstSetMicros);
+            maxFirstSetMicros = Math.max(maxFirstSetMicros, other.maxFirstSetMicros);
+            reshuffles += other.reshuffles;
+            for (int player = 0; player < points.length; player++) {
+                points[player] += other.points[player];
+                penalties[player] += other.penalties[player];
+                dismissed[player] += other.dismissed[player];
+            }
+            for (int i = 0; i < other.manyReshuffles; i++)
+                addManyReshuffles(other.manyReshufflesRows[i]);
+        }
+    }
+}
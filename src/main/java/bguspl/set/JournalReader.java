@@ -0,0 +1,357 @@
+package bguspl.set;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the records of a journal written by GameJournal, one at a time, straight from the memory mapped segment file
+ * (a compacted segment is decompressed into memory first).
+ * The reader is a cursor: next() decodes the next record into the reader's fields (no object is created per
+ * record), which are valid until the following call to next().
+ * The reader starts at any segment, and goes on to the following segments of the same journal (see JournalSegments).
+ * A record cut off at the end of the journal (by a game that did not close it) ends the journal.
+ */
+public class JournalReader {
+
+    /**
+     * The number of fields of each record type (COUNTED for a count followed by that many fields).
+     */
+    private static final int COUNTED = -1;
+    private static final int[] FIELDS = new int[GameJournal.KEYFRAME + 1];
+
+    static {
+        FIELDS[GameJournal.GAME_START] = 4;
+        FIELDS[GameJournal.CARD_PLACED] = 2;
+        FIELDS[GameJournal.CARD_REMOVED] = 2;
+        FIELDS[GameJournal.TOKEN_PLACED] = 2;
+        FIELDS[GameJournal.TOKEN_REMOVED] = 2;
+        FIELDS[GameJournal.TOKENS_CLEARED] = 1;
+        FIELDS[GameJournal.CLAIM] = 4;
+        FIELDS[GameJournal.VERDICT] = 2;
+        FIELDS[GameJournal.SCORE] = 2;
+        FIELDS[GameJournal.RESHUFFLE] = 1;
+        FIELDS[GameJournal.GAME_END] = COUNTED;
+        FIELDS[GameJournal.CHECKSUM] = 1;
+        FIELDS[GameJournal.KEYFRAME] = COUNTED;
+    }
+
+    /**
+     * The current segment.
+     */
+    private String filename;
+    private ByteBuffer buffer;
+
+    /**
+     * The wall clock time the journal was opened at (System.currentTimeMillis()).
+     */
+    public final long startMillis;
+
+    /**
+     * The current record.
+     */
+    private byte type;
+    private long record = -1;
+    private int offset;
+    private long micros;
+    private long[] fields = new long[4];
+    private int fieldCount;
+
+    /**
+     * True iff the journal ended with a partial record.
+     */
+    private boolean truncated;
+
+    /**
+     * True iff the GAME_END record was read (no segment goes on from there).
+     */
+    private boolean ended;
+
+    /**
+     * Opens a journal segment.
+     *
+     * @param filename - the segment file name (compressed or not).
+     * @throws IOException - if the file cannot be read or is not a journal segment.
+     */
+    public JournalReader(String filename) throws IOException {
+        this.filename = filename;
+        this.buffer = load(filename);
+        this.startMillis = buffer.getLong(8);
+        this.micros = buffer.getLong(16);
+        this.record = buffer.getLong(24) - 1;
+        buffer.position(GameJournal.HEADER_SIZE);
+    }
+
+    /**
+     * Maps an uncompressed segment, or decompresses a compressed one, and checks its header.
+     */
+    private static ByteBuffer load(String filename) throws IOException {
+        ByteBuffer buffer;
+        if (filename.endsWith(JournalSegments.COMPRESSED_SUFFIX)) {
+            try (InputStream in = new GZIPInputStream(Files.newInputStream(Paths.get(filename)))) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] chunk = new byte[1 << 16];
+                for (int read = in.read(chunk); read >= 0; read = in.read(chunk))
+                    out.write(chunk, 0, read);
+                buffer = ByteBuffer.wrap(out.toByteArray());
+            }
+        } else {
+            try (RandomAccessFile file = new RandomAccessFile(filename, "r")) {
+                buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            }
+        }
+        if (buffer.capacity() < GameJournal.HEADER_SIZE || buffer.getInt(0) != GameJournal.MAGIC
+                || buffer.getInt(4) != GameJournal.VERSION)
+            throw new IOException(filename + " is not a game journal segment (or was written by another version).");
+        return buffer;
+    }
+
+    /**
+     * Reads the header of a segment only (without decompressing a compacted segment past it).
+     *
+     * @param filename - the segment file name (compressed or not).
+     * @return - the header (HEADER_SIZE bytes, see GameJournal).
+     * @throws IOException - if the file cannot be read or is not a journal segment.
+     */
+    static ByteBuffer header(String filename) throws IOException {
+        byte[] header = new byte[GameJournal.HEADER_SIZE];
+        try (InputStream in = filename.endsWith(JournalSegments.COMPRESSED_SUFFIX)
+                ? new GZIPInputStream(Files.newInputStream(Paths.get(filename)))
+                : Files.newInputStream(Paths.get(filename))) {
+            for (int read = 0; read < header.length; ) {
+                int n = in.read(header, read, header.length - read);
+                if (n < 0)
+                    throw new IOException(filename + " is not a game journal segment (too short).");
+                read += n;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(header);
+        if (buffer.getInt(0) != GameJournal.MAGIC || buffer.getInt(4) != GameJournal.VERSION)
+            throw new IOException(filename + " is not a game journal segment (or was written by another version).");
+        return buffer;
+    }
+
+    /**
+     * Moves to the next segment of the journal, if there is one (and not to the first segment of the next game).
+     * The segments of other games written at the same time may come in between (see JournalSegments), so the
+     * following segments are searched for the one that goes on from the current record, unless the game ended.
+     *
+     * @return - true iff the reader moved.
+     */
+    private boolean nextSegment() {
+        String base = JournalSegments.base(filename);
+        if (base == null || ended)
+            return false;
+        long current = JournalSegments.sequence(filename);
+        for (long sequence : JournalSegments.list(base)) {
+            String next = sequence > current ? JournalSegments.find(base, sequence) : null;
+            try {
+                if (next == null || !continues(header(next)))
+                    continue;
+                filename = next;
+                buffer = load(next);
+                buffer.position(GameJournal.HEADER_SIZE);
+                return true;
+            } catch (IOException ignored) {
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the segments of the game that follow the current segment (reading their headers only): the following
+     * segments of the same journal, up to the first segment of its next game.
+     *
+     * @return - the file names of the segments, in order.
+     */
+    public List<String> followingSegments() {
+        List<String> following = new ArrayList<>();
+        String base = JournalSegments.base(filename);
+        if (base == null)
+            return following;
+        long current = JournalSegments.sequence(filename);
+        for (long sequence : JournalSegments.list(base)) {
+            String next = sequence > current ? JournalSegments.find(base, sequence) : null;
+            if (next == null)
+                continue;
+            try {
+                ByteBuffer header = header(next);
+                if (header.getLong(8) != startMillis)
+                    continue; // a segment of another game written at the same time
+                if (header.getLong(24) == 0)
+                    break;
+                following.add(next);
+            } catch (IOException ignored) {
+            }
+        }
+        return following;
+    }
+
+    /**
+     * Moves to a following segment of the game (see followingSegments), before its first record, so the reader can
+     * seek() in it. The records in between are skipped.
+     *
+     * @param segment - the file name of the segment.
+     * @throws IOException - if the segment cannot be read, or is not a following segment of the game.
+     */
+    public void moveTo(String segment) throws IOException {
+        ByteBuffer next = load(segment);
+        if (next.getLong(8) != startMillis || next.getLong(24) <= record)
+            throw new IOException(segment + " is not a following segment of the game of " + filename + ".");
+        filename = segment;
+        buffer = next;
+        buffer.position(GameJournal.HEADER_SIZE);
+        record = next.getLong(24) - 1;
+        micros = next.getLong(16);
+        truncated = false;
+        ended = false;
+    }
+
+    /**
+     * @param header - the header of a segment.
+     * @return - true iff the segment goes on from the current record.
+     */
+    private boolean continues(ByteBuffer header) {
+        return header.getLong(8) == startMillis && header.getLong(24) == record + 1;
+    }
+
+    /**
+     * Decodes the next record.
+     *
+     * @return - false iff there are no more (complete) records.
+     */
+    public boolean next() {
+        if (buffer.position() == buffer.limit() && (truncated || !nextSegment()))
+            return false;
+        int start = buffer.position();
+        try {
+            byte type = buffer.get();
+            if (type <= 0 || type >= FIELDS.length)
+                throw new IllegalStateException("invalid record type " + type + " at offset " + start);
+            long micros = this.micros + getVarLong();
+            int count = FIELDS[type] == COUNTED ? (int) getVarLong() : FIELDS[type];
+            if (count > fields.length)
+                fields = new long[count];
+            for (int i = 0; i < count; i++)
+                fields[i] = getVarLong();
+            this.type = type;
+            this.record++;
+            this.offset = start;
+            this.micros = micros;
+            this.fieldCount = count;
+            this.ended |= type == GameJournal.GAME_END;
+            return true;
+        } catch (BufferUnderflowException e) {
+            buffer.position(buffer.limit());
+            truncated = true;
+            return false;
+        }
+    }
+
+    /**
+     * Moves to a record in the middle of the current segment (usually a keyframe found in its JournalIndex) and
+     * decodes it.
+     * The records are delta encoded, so the record number and time of the record must be known.
+     *
+     * @param offset - the offset of the record in the segment.
+     * @param record - the record number of the record.
+     * @param micros - the time of the record.
+     * @return - false iff there is no (complete) record at the offset.
+     */
+    public boolean seek(long offset, long record, long micros) {
+        if (offset < GameJournal.HEADER_SIZE || offset >= buffer.limit())
+            return false;
+        buffer.position((int) offset);
+        this.record = record - 1;
+        this.ended = false;
+        if (!next())
+            return false;
+        this.micros = micros;
+        return true;
+    }
+
+    private long getVarLong() {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0)
+                return value;
+        }
+    }
+
+    /**
+     * @return - the type of the current record.
+     */
+    public byte type() {
+        return type;
+    }
+
+    /**
+     * @return - the record number of the current record (counted from 0, the GAME_START record).
+     */
+    public long record() {
+        return record;
+    }
+
+    /**
+     * @return - the file name of the current segment.
+     */
+    public String filename() {
+        return filename;
+    }
+
+    /**
+     * @return - the offset of the current record in its segment.
+     */
+    public int offset() {
+        return offset;
+    }
+
+    /**
+     * @return - the time of the current record (in microseconds since the journal was opened).
+     */
+    public long micros() {
+        return micros;
+    }
+
+    /**
+     * @return - the number of fields of the current record (for GAME_END: the number of winners, for KEYFRAME: the
+     *           number of fields after the count).
+     */
+    public int fieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * @param i - the index of a field of the current record.
+     * @return - the field (an int field, see GameJournal).
+     */
+    public int field(int i) {
+        return (int) fields[i];
+    }
+
+    /**
+     * @param i - the index of a field of the current record.
+     * @return - the field (a long field, see GameJournal).
+     */
+    public long longField(int i) {
+        return fields[i];
+    }
+
+    /**
+     * @return - true iff the journal ended with a partial record.
+     */
+    public boolean truncated() {
+        return truncated;
+    }
+}
@@ -0,0 +1,468 @@
+package bguspl.set;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The segment files of a journal (see GameJournal): the records are written to numbered segments (the journal base
+ * name followed by a 6 digit sequence number), and a new segment is started when the current one reaches the segment
+ * size, and for every game. Every segment starts with a header that holds the time and the number of the records
+ * before it, so each segment can be read on its own, and has its own keyframe index.
+ * <p>
+ * The segments are only written by the journal's writer thread. A finished segment is handed to the compactor thread
+ * through a queue (which never blocks), and the compactor rewrites it as a gzip archive and deletes the oldest segments
+ * beyond the retention count, so the writer never waits for the compaction or the deletion I/O.
+ * A compaction is written to a temporary file and renamed when done, so a game that stops in the middle of one leaves
+ * the segment intact, and it is compacted again when the next game opens the journal.
+ * <p>
+ * Several games may write to the same journal at once: a segment is only created if no segment has its sequence
+ * number yet (the next number is tried otherwise), and it is locked from before its header is written until it is
+ * finished. The compactors and the retention only touch a segment they can lock and that has records, so the segments
+ * other games are writing are left alone. A file lock belongs to the process and is released when any channel of the
+ * process on the file is closed, so the segments the games of this process are writing are never opened again.
+ */
+public class JournalSegments implements Runnable {
+
+    public static final String COMPRESSED_SUFFIX = ".gz";
+
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    /**
+     * The sequence number that tells the compactor to stop.
+     */
+    private static final long STOP = -1;
+
+    /**
+     * The file names of the segments the games of this process are writing.
+     */
+    private static final Set<String> WRITING = ConcurrentHashMap.newKeySet();
+
+    private final Logger logger;
+
+    /**
+     * The base name of the segment files.
+     */
+    private final String base;
+
+    /**
+     * The size (in bytes) a segment is rolled at (a segment may get larger by the size of one commit).
+     */
+    private final long segmentBytes;
+
+    /**
+     * The number of segments that are kept (0 to keep all of them).
+     */
+    private final int retainSegments;
+
+    private final boolean compaction;
+
+    /**
+     * The time the journal was opened (System.currentTimeMillis(), in the header of every segment).
+     */
+    private final long startMillis;
+
+    /**
+     * The current segment (only accessed by the writer thread).
+     */
+    private long sequence;
+    private FileChannel channel;
+    private FileChannel indexChannel;
+    private long size;
+
+    /**
+     * The offset in the record stream (see GameJournal) the current segment starts at.
+     */
+    private long streamStart;
+
+    private int segments;
+
+    /**
+     * The finished segments (by sequence number) waiting for the compactor.
+     */
+    private final LinkedBlockingQueue<Long> finished = new LinkedBlockingQueue<>();
+
+    private ThreadLogger compactor;
+
+    private int compacted;
+    private int deleted;
+
+    private JournalSegments(Logger logger, Config config, long startMillis) {
+        this.logger = logger;
+        this.base = config.journalFile;
+        this.segmentBytes = Math.max(GameJournal.HEADER_SIZE + 1, config.journalSegmentBytes);
+        this.retainSegments = Math.max(0, config.journalRetainSegments);
+        this.compaction = config.journalCompaction;
+        this.startMillis = startMillis;
+    }
+
+    /**
+     * Starts the first segment of a new journal (after the segments of the previous games) and the compactor thread,
+     * which compacts the segments the previous games did not.
+     *
+     * @param logger      - the logger.
+     * @param config      - the game configuration.
+     * @param startMillis - the time the journal was opened.
+     * @return - the segments of the journal.
+     * @throws IOException - if the first segment cannot be created.
+     */
+    static JournalSegments open(Logger logger, Config config, long startMillis) throws IOException {
+        JournalSegments segments = new JournalSegments(logger, config, startMillis);
+        long[] existing = list(segments.base);
+        segments.sequence = existing.length == 0 ? 0 : existing[existing.length - 1];
+        segments.start(0, 0, 0);
+        for (long sequence : existing)
+            if (Files.exists(Paths.get(name(segments.base, sequence))))
+                segments.finished.offer(sequence);
+        segments.compactor = new ThreadLogger(segments, "journal-compactor", logger);
+        segments.compactor.setDaemon(true);
+        segments.compactor.setPriority(Thread.MIN_PRIORITY);
+        segments.compactor.startWithLog();
+        return segments;
+    }
+
+    /**
+     * @param base     - the base name of the segment files.
+     * @param sequence - the sequence number of a segment.
+     * @return - the file name of the (uncompressed) segment.
+     */
+    public static String name(String base, long sequence) {
+        return String.format("%s.%06d", base, sequence);
+    }
+
+    /**
+     * @param base     - the base name of the segment files.
+     * @param sequence - the sequence number of a segment.
+     * @return - the file name of the segment, uncompressed if it was not compacted yet (null if there is none).
+     */
+    public static String find(String base, long sequence) {
+        String name = name(base, sequence);
+        if (Files.exists(Paths.get(name)))
+            return name;
+        if (Files.exists(Paths.get(name + COMPRESSED_SUFFIX)))
+            return name + COMPRESSED_SUFFIX;
+        return null;
+    }
+
+    /**
+     * @param filename - the file name of a segment (uncompressed or compressed).
+     * @return - the base name of the segment files, or null if the file name is not a segment's.
+     */
+    public static String base(String filename) {
+        String name = uncompressed(filename);
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && sequence(filename) >= 0 ? name.substring(0, dot) : null;
+    }
+
+    /**
+     * @param filename - the file name of a segment (uncompressed or compressed).
+     * @return - the sequence number of the segment, or -1 if the file name is not a segment's.
+     */
+    public static long sequence(String filename) {
+        String name = uncompressed(filename);
+        String digits = name.substring(name.lastIndexOf('.') + 1);
+        if (digits.length() < 6 || !digits.chars().allMatch(Character::isDigit))
+            return -1;
+        return Long.parseLong(digits);
+    }
+
+    /**
+     * @param filename - the file name of a segment (uncompressed or compressed).
+     * @return - the file name of the uncompressed segment (and the prefix of its index file).
+     */
+    public static String uncompressed(String filename) {
+        return filename.endsWith(COMPRESSED_SUFFIX)
+                ? filename.substring(0, filename.length() - COMPRESSED_SUFFIX.length()) : filename;
+    }
+
+    /**
+     * @param base - the base name of the segment files.
+     * @return - the sequence numbers of the existing segments (compressed or not), in increasing order.
+     */
+    public static long[] list(String base) {
+        Path directory = Paths.get(base).toAbsolutePath().getParent();
+        String prefix = Paths.get(base).getFileName() + ".";
+        long[] sequences = new long[16];
+        int count = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(GameJournal.INDEX_SUFFIX) || name.endsWith(TEMPORARY_SUFFIX))
+                    continue;
+                long sequence = sequence(name);
+                if (sequence < 0 || !uncompressed(name).equals(prefix + String.format("%06d", sequence)))
+                    continue;
+                if (count == sequences.length)
+                    sequences = Arrays.copyOf(sequences, count * 2);
+                sequences[count++] = sequence;
+            }
+        } catch (IOException e) {
+            return new long[0];
+        }
+        return Arrays.stream(sequences, 0, count).sorted().distinct().toArray();
+    }
+
+    /**
+     * @param base - the base name of the segment files.
+     * @return - the file name of the first segment of the last game (null if there is none).
+     */
+    public static String lastGame(String base) {
+        long[] sequences = list(base);
+        for (int i = sequences.length - 1; i >= 0; i--) {
+            String name = find(base, sequences[i]);
+            try {
+                if (name != null && new JournalReader(name).record() == -1) // no records before the segment
+                    return name;
+            } catch (IOException ignored) {
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes a commit of the writer thread to the current segment, rolling to a new segment first if the current one
+     * would get too large.
+     *
+     * @param records     - the records of the commit.
+     * @param index       - the index entries of the keyframes in the commit (with offsets in the record stream).
+     * @param streamStart - the offset of the commit in the record stream.
+     * @param baseMicros  - the time of the record before the commit.
+     * @param baseRecord  - the number of the records before the commit.
+     * @return - the number of bytes written.
+     * @throws IOException - if the segment cannot be written.
+     */
+    long write(ByteBuffer records, ByteBuffer index, long streamStart, long baseMicros, long baseRecord)
+            throws IOException {
+        if (size > GameJournal.HEADER_SIZE && size + records.remaining() > segmentBytes) {
+            finish();
+            start(streamStart, baseMicros, baseRecord);
+        }
+        long written = records.remaining();
+        while (records.hasRemaining())
+            channel.write(records);
+        size += written;
+        long offset = GameJournal.HEADER_SIZE - this.streamStart; // from a stream offset to a file offset
+        for (int entry = index.position(); entry < index.limit(); entry += GameJournal.INDEX_ENTRY_SIZE)
+            index.putLong(entry + 16, index.getLong(entry + 16) + offset);
+        while (index.hasRemaining()) // after the records it points to
+            indexChannel.write(index);
+        return written;
+    }
+
+    /**
+     * Forces the current segment and its index to the disk.
+     */
+    void force() throws IOException {
+        channel.force(false);
+        indexChannel.force(false);
+    }
+
+    /**
+     * Creates the next segment and its index, skipping the sequence numbers other games took meanwhile.
+     */
+    private void start(long streamStart, long baseMicros, long baseRecord) throws IOException {
+        String name;
+        while (true) {
+            sequence++;
+            name = name(base, sequence);
+            // registered before the file exists, so no reader of this process locks (and unlocks) it meanwhile
+            if (find(base, sequence) != null || !WRITING.add(name))
+                continue;
+            try {
+                channel = create(name, ByteBuffer.allocate(GameJournal.HEADER_SIZE).putInt(GameJournal.MAGIC)
+                        .putInt(GameJournal.VERSION).putLong(startMillis).putLong(baseMicros).putLong(baseRecord),
+                        true);
+                break;
+            } catch (FileAlreadyExistsException e) {
+                // another game created it first
+                WRITING.remove(name);
+            } catch (IOException e) {
+                WRITING.remove(name);
+                throw e;
+            }
+        }
+        indexChannel = create(name + GameJournal.INDEX_SUFFIX, ByteBuffer.allocate(GameJournal.INDEX_HEADER_SIZE)
+                .putInt(GameJournal.INDEX_MAGIC).putInt(GameJournal.VERSION), false);
+        size = GameJournal.HEADER_SIZE;
+        this.streamStart = streamStart;
+        segments++;
+    }
+
+    /**
+     * Creates a file and writes its header.
+     *
+     * @param segment - true for a segment, which must not exist yet and is locked until it is closed; false for an
+     *                index, which belongs to the segment created before it (a stale one is truncated).
+     * @throws FileAlreadyExistsException - if the segment exists.
+     */
+    private static FileChannel create(String filename, ByteBuffer header, boolean segment) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.WRITE,
+                segment ? StandardOpenOption.CREATE_NEW : StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            if (segment)
+                channel.lock();
+            header.flip();
+            while (header.hasRemaining())
+                channel.write(header);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * Locks a segment that is not being written, for the compactor to compact or delete it.
+     *
+     * @param segment - the (uncompressed) segment.
+     * @return - the segment, locked until it is closed, or null if it does not exist (anymore), is being written (by
+     * this game or another one), or has no records (it may have just been created).
+     */
+    private static FileChannel lockFinished(Path segment) {
+        if (WRITING.contains(segment.toString()))
+            return null;
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(segment, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            return null;
+        }
+        try {
+            if (channel.tryLock() != null && Files.exists(segment) && channel.size() > GameJournal.HEADER_SIZE)
+                return channel;
+        } catch (IOException | OverlappingFileLockException ignored) {
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        return null;
+    }
+
+    /**
+     * @param filename - the file name of a segment.
+     * @return - true iff the segment is being written (by a game of this process or another one), so it may get more records.
+     */
+    public static boolean writing(String filename) {
+        if (WRITING.contains(filename))
+            return true;
+        if (filename.endsWith(COMPRESSED_SUFFIX))
+            return false;
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.WRITE)) {
+            return channel.tryLock() == null;
+        } catch (OverlappingFileLockException e) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Closes the current segment and hands it to the compactor.
+     */
+    void finish() throws IOException {
+        channel.close();
+        WRITING.remove(name(base, sequence));
+        indexChannel.close();
+        finished.offer(sequence);
+    }
+
+    /**
+     * Waits for the compactor to compact the finished segments, and stops it.
+     */
+    void awaitCompaction() {
+        finished.offer(STOP);
+        try {
+            compactor.joinWithLog();
+        } catch (InterruptedException ignored) {
+        }
+        logger.info("journal: " + segments + " segments written, " + compacted + " compacted, " + deleted
+                + " deleted.");
+    }
+
+    /**
+     * The compactor thread starts here.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            long sequence;
+            try {
+                sequence = finished.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (sequence == STOP)
+                break;
+            if (compaction)
+                compact(sequence);
+            retain();
+        }
+    }
+
+    /**
+     * Rewrites a finished segment as a gzip archive (the index is kept as is, its offsets are in the uncompressed
+     * segment).
+     */
+    private void compact(long sequence) {
+        Path segment = Paths.get(name(base, sequence));
+        Path archive = Paths.get(segment + COMPRESSED_SUFFIX);
+        Path temporary = Paths.get(archive + TEMPORARY_SUFFIX);
+        try (FileChannel locked = lockFinished(segment)) {
+            if (locked == null)
+                return; // compacted by another game, or being written
+            try (InputStream in = Files.newInputStream(segment);
+                 OutputStream out = new GZIPOutputStream(Files.newOutputStream(temporary))) {
+                byte[] chunk = new byte[1 << 16];
+                for (int read = in.read(chunk); read >= 0; read = in.read(chunk))
+                    out.write(chunk, 0, read);
+            }
+            long before = Files.size(segment);
+            Files.move(temporary, archive, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.delete(segment);
+            compacted++;
+            logger.info("journal: compacted " + segment + " (" + before + " to " + Files.size(archive) + " bytes).");
+        } catch (IOException e) {
+            logger.severe("journal: error compacting " + segment + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes the oldest segments beyond the retention count.
+     */
+    private void retain() {
+        if (retainSegments == 0)
+            return;
+        long[] sequences = list(base);
+        for (int i = 0; i < sequences.length - retainSegments; i++) {
+            String name = name(base, sequences[i]);
+            try (FileChannel locked = lockFinished(Paths.get(name))) {
+                if (locked == null && Files.exists(Paths.get(name)))
+                    continue; // being written
+                Files.deleteIfExists(Paths.get(name));
+                Files.deleteIfExists(Paths.get(name + COMPRESSED_SUFFIX));
+                Files.deleteIfExists(Paths.get(name + GameJournal.INDEX_SUFFIX));
+                deleted++;
+            } catch (IOException e) {
+                logger.severe("journal: error deleting " + name + ": " + e.getMessage());
+            }
+        }
+    }
+}
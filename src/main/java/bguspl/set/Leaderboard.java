@@ -0,0 +1,510 @@
+package bguspl.set;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A persistent leaderboard of the results of all the games played, keyed by the players' names.
+ * <p>
+ * The results are appended to a log file (one fixed size entry per player per game), which is the source of truth.
+ * The index file (the log file name with INDEX_SUFFIX) is a memory mapped open addressing hash table with an entry per
+ * player name, holding the player's totals and the offset of its last log entry, and every log entry points to the
+ * previous entry of the same player. So a top-K query scans the index only (a bounded heap, whatever the number of
+ * games), and the history of a player reads just the player's entries, newest first.
+ * <p>
+ * The log entries are written and forced before the index is updated. An index that is behind the log (after a crash)
+ * is brought up to date when the leaderboard is opened, and a missing or invalid index is rebuilt from the log.
+ * The leaderboard is locked while it is open, so games that end at the same time record their results one at a time.
+ * <p>
+ * Log layout (big endian):
+ * <pre>
+ * header (HEADER_SIZE bytes):
+ *   0 int  MAGIC             4 int  VERSION
+ * entries (ENTRY_SIZE bytes each):
+ *   0 long game end time (System.currentTimeMillis())    8 long name key        16 long offset of the previous entry
+ *  24 long game number      32 int  score               36 short players       38 byte 1 iff a winner
+ *  39 byte name length      40 name (UTF-8, NAME_SIZE bytes at most)
+ * </pre>
+ * Index layout (big endian):
+ * <pre>
+ * header (INDEX_HEADER_SIZE bytes):
+ *   0 int  INDEX_MAGIC       4 int  VERSION          8 int  capacity (a power of 2)      12 int  players
+ *  16 long log length (the log entries before it are in the index)                      24 long games
+ * entries (INDEX_ENTRY_SIZE bytes each, a name key of 0 for an empty entry):
+ *   0 long name key          8 long offset of the last log entry                         16 long games
+ *  24 long wins             32 long total score      40 int  best score     44 byte name length   48 name
+ * </pre>
+ */
+public class Leaderboard implements Closeable {
+
+    public static final int MAGIC = 0x5345544c; // "SETL"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 8;
+    public static final int ENTRY_SIZE = 96;
+
+    public static final int INDEX_MAGIC = 0x5345544b; // "SETK"
+    public static final String INDEX_SUFFIX = ".idx";
+    public static final int INDEX_HEADER_SIZE = 32;
+    public static final int INDEX_ENTRY_SIZE = 104;
+
+    /**
+     * The maximal length (in bytes) of a player name, longer names are truncated.
+     */
+    public static final int NAME_SIZE = 56;
+
+    /**
+     * The initial number of entries in the index (the index is doubled when it is more than 3/4 full).
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * The orders of the top-K query.
+     */
+    public enum Order {WINS, SCORE, BEST}
+
+    /**
+     * The totals of a player.
+     */
+    public static class Standing {
+        public final String name;
+        public final long games;
+        public final long wins;
+        public final long totalScore;
+        public final int bestScore;
+
+        private Standing(String name, long games, long wins, long totalScore, int bestScore) {
+            this.name = name;
+            this.games = games;
+            this.wins = wins;
+            this.totalScore = totalScore;
+            this.bestScore = bestScore;
+        }
+    }
+
+    /**
+     * The result of a player in a single game.
+     */
+    public static class Result {
+        public final long endMillis;
+        public final long game;
+        public final int score;
+        public final int players;
+        public final boolean winner;
+
+        private Result(long endMillis, long game, int score, int players, boolean winner) {
+            this.endMillis = endMillis;
+            this.game = game;
+            this.score = score;
+            this.players = players;
+            this.winner = winner;
+        }
+    }
+
+    private final FileChannel log;
+    private final FileLock lock;
+    private final Path indexPath;
+
+    private MappedByteBuffer index;
+    private int capacity;
+    private int players;
+    private long logLength;
+    private long games;
+
+    /**
+     * A buffer for a single log entry.
+     */
+    private final ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+
+    private Leaderboard(FileChannel log, FileLock lock, Path indexPath) {
+        this.log = log;
+        this.lock = lock;
+        this.indexPath = indexPath;
+    }
+
+    /**
+     * Opens (or creates) a leaderboard and brings its index up to date with its log. Waits for another process that has
+     * the leaderboard open.
+     *
+     * @param filename - the log file name.
+     * @return - the leaderboard.
+     * @throws IOException - if the files cannot be opened or the log is not a leaderboard.
+     */
+    public static Leaderboard open(String filename) throws IOException {
+        FileChannel log = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            Leaderboard leaderboard = new Leaderboard(log, log.lock(), Paths.get(filename + INDEX_SUFFIX));
+            leaderboard.load(filename);
+            return leaderboard;
+        } catch (IOException | RuntimeException e) {
+            log.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Checks the log header (writing it to a new log) and maps the index, rebuilding it or applying the entries it is
+     * missing if needed.
+     */
+    private void load(String filename) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (log.size() == 0) {
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            log.write(header, 0);
+            log.force(false);
+        } else {
+            log.read(header, 0);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION)
+                throw new IOException(filename + " is not a leaderboard (or was written by another version).");
+        }
+        long length = HEADER_SIZE + (log.size() - HEADER_SIZE) / ENTRY_SIZE * ENTRY_SIZE; // a cut off entry is ignored
+        if (!mapIndex() || logLength > length) {
+            index = create(indexPath, INITIAL_CAPACITY);
+            readHeader();
+        }
+        for (long offset = logLength; offset < length; offset += ENTRY_SIZE) {
+            readEntry(offset);
+            apply(offset);
+        }
+        writeHeader(length);
+    }
+
+    /**
+     * Maps an existing index.
+     *
+     * @return - false iff there is no valid index.
+     */
+    private boolean mapIndex() throws IOException {
+        if (!Files.exists(indexPath))
+            return false;
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.size() < INDEX_HEADER_SIZE)
+                return false;
+            index = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        }
+        if (index.getInt(0) != INDEX_MAGIC || index.getInt(4) != VERSION || Integer.bitCount(index.getInt(8)) != 1
+                || index.capacity() != INDEX_HEADER_SIZE + (long) index.getInt(8) * INDEX_ENTRY_SIZE)
+            return false;
+        readHeader();
+        return true;
+    }
+
+    /**
+     * Creates an empty index file and maps it.
+     */
+    private static MappedByteBuffer create(Path path, int capacity) throws IOException {
+        MappedByteBuffer index;
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength(0);
+            file.setLength(INDEX_HEADER_SIZE + (long) capacity * INDEX_ENTRY_SIZE);
+            index = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+        }
+        index.putInt(0, INDEX_MAGIC).putInt(4, VERSION).putInt(8, capacity).putInt(12, 0);
+        index.putLong(16, HEADER_SIZE).putLong(24, 0);
+        return index;
+    }
+
+    private void readHeader() {
+        capacity = index.getInt(8);
+        players = index.getInt(12);
+        logLength = index.getLong(16);
+        games = index.getLong(24);
+    }
+
+    private void writeHeader(long logLength) {
+        this.logLength = logLength;
+        index.putInt(12, players).putLong(16, logLength).putLong(24, games);
+    }
+
+    /**
+     * Records the results of a game.
+     *
+     * @param endMillis - the time the game ended (System.currentTimeMillis()).
+     * @param names     - the names of the players.
+     * @param scores    - the scores of the players.
+     * @param winners   - the winners (player ids).
+     * @throws IOException - if the results cannot be written.
+     */
+    public void record(long endMillis, String[] names, int[] scores, int[] winners) throws IOException {
+        long game = games + 1;
+        ByteBuffer entries = ByteBuffer.allocate(names.length * ENTRY_SIZE);
+        long[] keys = new long[names.length];
+        byte[][] encoded = new byte[names.length][];
+        int[] slots = new int[names.length];
+        for (int player = 0; player < names.length; player++) {
+            encoded[player] = encode(names[player]);
+            keys[player] = key(encoded[player]);
+            slots[player] = find(keys[player], encoded[player]);
+        }
+        for (int player = 0; player < names.length; player++) {
+            // a name that appears twice in the game points to its own earlier entry of the game
+            long previous = -1;
+            for (int other = player - 1; other >= 0 && previous < 0; other--)
+                if (keys[other] == keys[player] && Arrays.equals(encoded[other], encoded[player]))
+                    previous = logLength + (long) other * ENTRY_SIZE;
+            if (previous < 0 && slots[player] >= 0)
+                previous = index.getLong(position(slots[player]) + 8);
+            boolean winner = false;
+            for (int id : winners)
+                winner |= id == player;
+            entries.putLong(endMillis).putLong(keys[player]).putLong(previous).putLong(game);
+            entries.putInt(scores[player]).putShort((short) names.length).put((byte) (winner ? 1 : 0));
+            entries.put((byte) encoded[player].length).put(encoded[player]);
+            entries.position((player + 1) * ENTRY_SIZE);
+        }
+        entries.flip();
+        for (long position = logLength; entries.hasRemaining(); )
+            position += log.write(entries, position);
+        log.force(false);
+        for (int player = 0; player < names.length; player++) {
+            long offset = logLength + (long) player * ENTRY_SIZE;
+            readEntry(offset);
+            apply(offset);
+        }
+        writeHeader(logLength + (long) names.length * ENTRY_SIZE);
+        index.force();
+    }
+
+    private void readEntry(long offset) throws IOException {
+        entry.clear();
+        while (entry.hasRemaining())
+            if (log.read(entry, offset + entry.position()) < 0)
+                throw new IOException("leaderboard entry at " + offset + " is cut off");
+    }
+
+    /**
+     * Adds the log entry in the entry buffer to the index (unless it is there already, after a crash).
+     *
+     * @param offset - the offset of the entry in the log.
+     */
+    private void apply(long offset) throws IOException {
+        long key = entry.getLong(8);
+        byte[] name = Arrays.copyOfRange(entry.array(), 40, 40 + (entry.get(39) & 0xff));
+        int slot = find(key, name);
+        if (slot < 0) {
+            if (players + 1 > capacity / 4 * 3) {
+                resize(capacity * 2);
+                slot = find(key, name);
+            }
+            slot = -slot - 1;
+            int position = position(slot);
+            index.putLong(position, key).putLong(position + 8, -1);
+            index.putLong(position + 16, 0).putLong(position + 24, 0).putLong(position + 32, 0);
+            index.putInt(position + 40, Integer.MIN_VALUE).put(position + 44, (byte) name.length);
+            for (int i = 0; i < name.length; i++)
+                index.put(position + 48 + i, name[i]);
+            players++;
+        }
+        int position = position(slot);
+        if (index.getLong(position + 8) >= offset)
+            return;
+        int score = entry.getInt(32);
+        long game = entry.getLong(24);
+        index.putLong(position + 8, offset);
+        index.putLong(position + 16, index.getLong(position + 16) + 1);
+        index.putLong(position + 24, index.getLong(position + 24) + entry.get(38));
+        index.putLong(position + 32, index.getLong(position + 32) + score);
+        index.putInt(position + 40, Math.max(index.getInt(position + 40), score));
+        games = Math.max(games, game);
+    }
+
+    /**
+     * Finds the index entry of a name (linear probing).
+     *
+     * @return - the entry, or -(the empty entry where it should be inserted) - 1.
+     */
+    private int find(long key, byte[] name) {
+        int mask = capacity - 1;
+        for (int slot = (int) (key ^ key >>> 32) & mask; ; slot = (slot + 1) & mask) {
+            int position = position(slot);
+            long found = index.getLong(position);
+            if (found == 0)
+                return -slot - 1;
+            if (found == key && nameEquals(position, name))
+                return slot;
+        }
+    }
+
+    private boolean nameEquals(int position, byte[] name) {
+        if ((index.get(position + 44) & 0xff) != name.length)
+            return false;
+        for (int i = 0; i < name.length; i++)
+            if (index.get(position + 48 + i) != name[i])
+                return false;
+        return true;
+    }
+
+    /**
+     * Rehashes the index into a new index file of the given capacity, which replaces the old one.
+     */
+    private void resize(int newCapacity) throws IOException {
+        Path temporary = Paths.get(indexPath + ".tmp");
+        MappedByteBuffer resized = create(temporary, newCapacity);
+        int mask = newCapacity - 1;
+        byte[] copy = new byte[INDEX_ENTRY_SIZE];
+        for (int slot = 0; slot < capacity; slot++) {
+            int position = position(slot);
+            long key = index.getLong(position);
+            if (key == 0)
+                continue;
+            int target = (int) (key ^ key >>> 32) & mask;
+            while (resized.getLong(INDEX_HEADER_SIZE + target * INDEX_ENTRY_SIZE) != 0)
+                target = (target + 1) & mask;
+            index.position(position);
+            index.get(copy);
+            resized.position(INDEX_HEADER_SIZE + target * INDEX_ENTRY_SIZE);
+            resized.put(copy);
+        }
+        resized.putInt(12, players).putLong(16, logLength).putLong(24, games);
+        resized.force();
+        Files.move(temporary, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        index = resized;
+        capacity = newCapacity;
+    }
+
+    private static int position(int slot) {
+        return INDEX_HEADER_SIZE + slot * INDEX_ENTRY_SIZE;
+    }
+
+    /**
+     * @return - the name in UTF-8, truncated to NAME_SIZE bytes (at a character boundary).
+     */
+    private static byte[] encode(String name) {
+        byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+        while (encoded.length > NAME_SIZE) {
+            name = name.substring(0, name.length() - 1);
+            encoded = name.getBytes(StandardCharsets.UTF_8);
+        }
+        return encoded;
+    }
+
+    /**
+     * @return - the key of an encoded name (64 bit FNV-1a, never 0).
+     */
+    private static long key(byte[] name) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : name)
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        return hash == 0 ? 1 : hash;
+    }
+
+    private String name(int position) {
+        byte[] name = new byte[index.get(position + 44) & 0xff];
+        for (int i = 0; i < name.length; i++)
+            name[i] = index.get(position + 48 + i);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return - the number of games recorded.
+     */
+    public long games() {
+        return games;
+    }
+
+    /**
+     * @return - the number of players recorded.
+     */
+    public int players() {
+        return players;
+    }
+
+    /**
+     * Finds the best players, scanning the index only.
+     *
+     * @param k     - the number of players.
+     * @param order - what the players are ranked by (ties are broken by the total score, then by the fewest games).
+     * @return - the k best players (or all of them, if there are less), best first.
+     */
+    public List<Standing> top(int k, Order order) {
+        PriorityQueue<long[]> heap = new PriorityQueue<>(Math.max(1, k), Leaderboard::compareRanks);
+        for (int slot = 0; slot < capacity && k > 0; slot++) {
+            int position = position(slot);
+            if (index.getLong(position) == 0)
+                continue;
+            long games = index.getLong(position + 16);
+            long total = index.getLong(position + 32);
+            long primary = order == Order.WINS ? index.getLong(position + 24)
+                    : order == Order.SCORE ? total : index.getInt(position + 40);
+            if (heap.size() == k) {
+                long[] worst = heap.peek();
+                if (compareRanks(worst, primary, total, games) >= 0)
+                    continue;
+                heap.poll();
+            }
+            heap.add(new long[]{primary, total, games, position});
+        }
+        List<Standing> standings = new ArrayList<>(heap.size());
+        while (!heap.isEmpty()) {
+            int position = (int) heap.poll()[3];
+            standings.add(new Standing(name(position), index.getLong(position + 16), index.getLong(position + 24),
+                    index.getLong(position + 32), index.getInt(position + 40)));
+        }
+        Collections.reverse(standings);
+        return standings;
+    }
+
+    /**
+     * Compares two ranks ({primary, total score, games, position}), the lower rank first.
+     */
+    private static int compareRanks(long[] a, long[] b) {
+        return compareRanks(a, b[0], b[1], b[2]);
+    }
+
+    private static int compareRanks(long[] a, long primary, long total, long games) {
+        if (a[0] != primary)
+            return Long.compare(a[0], primary);
+        if (a[1] != total)
+            return Long.compare(a[1], total);
+        return Long.compare(games, a[2]);
+    }
+
+    /**
+     * Reads the results of a player, following the player's log entries from the last one.
+     *
+     * @param name  - the player name.
+     * @param limit - the maximal number of results.
+     * @return - the results, newest first (empty if the player is not in the leaderboard).
+     * @throws IOException - if the log cannot be read.
+     */
+    public List<Result> history(String name, int limit) throws IOException {
+        byte[] encoded = encode(name);
+        int slot = find(key(encoded), encoded);
+        List<Result> results = new ArrayList<>();
+        if (slot < 0)
+            return results;
+        for (long offset = index.getLong(position(slot) + 8); offset >= HEADER_SIZE && results.size() < limit; ) {
+            readEntry(offset);
+            results.add(new Result(entry.getLong(0), entry.getLong(24), entry.getInt(32), entry.getShort(36),
+                    entry.get(38) != 0));
+            offset = entry.getLong(16);
+        }
+        return results;
+    }
+
+    /**
+     * Forces the index to the disk and releases the leaderboard.
+     */
+    @Override
+    public void close() throws IOException {
+        index.force();
+        lock.release();
+        log.close();
+    }
+}
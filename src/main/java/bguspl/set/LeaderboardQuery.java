@@ -0,0 +1,59 @@
+package bguspl.set;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Prints the leaderboard recorded by the games (see Leaderboard).
+ * <p>
+ * Usage: LeaderboardQuery [leaderboard file] top [k] [wins|score|best]
+ * <br>
+ * or: LeaderboardQuery [leaderboard file] history [player name] [limit]
+ */
+public class LeaderboardQuery {
+
+    public static void main(String[] args) throws IOException {
+        String filename = args.length > 0 ? args[0] : "leaderboard";
+        String query = args.length > 1 ? args[1] : "top";
+
+        long start = System.nanoTime();
+        try (Leaderboard leaderboard = Leaderboard.open(filename)) {
+            switch (query) {
+                case "top": {
+                    int k = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+                    Leaderboard.Order order = Leaderboard.Order.valueOf(
+                            (args.length > 3 ? args[3] : "wins").toUpperCase());
+                    List<Leaderboard.Standing> standings = leaderboard.top(k, order);
+                    System.out.printf("top %d of %d players by %s (%d games)%n", standings.size(),
+                            leaderboard.players(), order.name().toLowerCase(), leaderboard.games());
+                    System.out.printf("%-5s %-24s %8s %8s %8s %10s %8s%n", "rank", "player", "games", "wins",
+                            "win %", "score", "best");
+                    int rank = 1;
+                    for (Leaderboard.Standing standing : standings)
+                        System.out.printf("%-5d %-24s %8d %8d %8.1f %10d %8d%n", rank++, standing.name,
+                                standing.games, standing.wins, 100.0 * standing.wins / standing.games,
+                                standing.totalScore, standing.bestScore);
+                    break;
+                }
+                case "history": {
+                    String name = args.length > 2 ? args[2] : "Player 1";
+                    int limit = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+                    List<Leaderboard.Result> results = leaderboard.history(name, limit);
+                    System.out.printf("last %d games of %s%n", results.size(), name);
+                    System.out.printf("%-20s %8s %8s %8s %8s%n", "ended", "game", "players", "score", "winner");
+                    SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+                    for (Leaderboard.Result result : results)
+                        System.out.printf("%-20s %8d %8d %8d %8s%n", format.format(new Date(result.endMillis)),
+                                result.game, result.players, result.score, result.winner ? "yes" : "");
+                    break;
+                }
+                default:
+                    System.out.println("unknown query " + query + " (top or history).");
+                    return;
+            }
+        }
+        System.out.printf("query took %.3f ms%n", (System.nanoTime() - start) / 1e6);
+    }
+}
@@ -1,7 +1,9 @@
 package bguspl.set;
 
 import bguspl.set.ex.Dealer;
+import bguspl.set.ex.GameCheckpoint;
 import bguspl.set.ex.Player;
+import bguspl.set.ex.ProfiledTable;
 import bguspl.set.ex.Table;
 
 import java.io.File;
@@ -10,6 +12,7 @@ import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.Properties;
 import java.util.logging.*;
 
 /**
@@ -33,7 +36,8 @@ public class Main {
     /**
      * The game's main function. Creates all data structures and initializes the threads.
      *
-     * @param args - unused.
+     * @param args - "restore" to resume the game from the last checkpoint (see Config.checkpointFile), optionally
+     *             followed by another checkpoint file to resume from.
      */
     public static void main(String[] args) {
 
@@ -42,8 +46,26 @@ public class Main {
         // create the game environment objects
         logger = initLogger();
         ThreadLogger.logStart(logger, Thread.currentThread().getName());
-        Config config = new Config(logger, "config.properties");
-        Util util = new UtilImpl(config);
+        Properties properties = Config.loadProperties("config.properties", logger);
+        Config config = new Config(logger, properties);
+        GameCheckpoint.Snapshot restored = null;
+        if (args.length > 0 && args[0].equals("restore")) {
+            String checkpointFile = args.length > 1 ? args[1] : config.checkpointFile;
+            try {
+                restored = GameCheckpoint.read(checkpointFile, config);
+                logger.info("restoring the game from " + checkpointFile);
+                // the resumed game keeps the seed of the checkpointed one, so the journal records the same game
+                properties.setProperty("Seed", Long.toString(restored.seed));
+                config = new Config(logger, properties);
+            } catch (IOException e) {
+                logger.severe("error restoring the checkpoint " + checkpointFile + ": " + e.getMessage());
+                logger.severe("will start a new game");
+                System.out.println("Cannot restore the checkpoint " + checkpointFile + ", starting a new game.");
+            }
+        }
+        logger.info("random seed: " + config.seed);
+        if (!config.traceFile.isEmpty()) TraceRecorder.enable(config.traceFile, config.traceMaxSpans);
+        Util util = new UtilTimer(new UtilImpl(config));
 
         Player[] players = new Player[config.players];
         UserInterface ui = null;
@@ -60,10 +82,15 @@ public class Main {
         Env env = new Env(logger, config, ui, util);
 
         // create the game entities
-        Table table = new Table(env);
+        Table table = config.tableLockProfiling ? new ProfiledTable(env) : new Table(env);
         dealer = new Dealer(env, table, players);
         for (int i = 0; i < players.length; i++)
             players[i] = new Player(env, dealer, table, i, i < env.config.humanPlayers);
+        if (restored != null)
+            dealer.restore(restored);
+
+        ThreadAccounting accounting = new ThreadAccounting(env);
+        accounting.start();
 
         // start the dealer thread
         ThreadLogger dealerThread = new ThreadLogger(dealer, "dealer", logger);
@@ -78,6 +105,10 @@ public class Main {
             logger.severe("thanks for playing... it was fun!");
             System.out.println("Thanks for playing... it was fun!");
             ThreadLogger.logStop(logger, Thread.currentThread().getName());
+            accounting.summarize();
+            env.scheduler.terminate();
+            env.journal.close();
+            TraceRecorder.write(logger);
             if (!xButtonPressed) env.ui.dispose();
             for (Handler h : logger.getHandlers()) h.flush();
         }
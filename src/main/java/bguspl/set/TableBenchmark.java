@@ -0,0 +1,140 @@
+package bguspl.set;
+
+import bguspl.set.ex.Table;
+
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Compares the boxed (Integer[]) view of the table with its primitive (int[]) accessors: the time and the bytes
+ * allocated per operation, for reading the cards of all the slots (as the players and the dealer do) and for placing
+ * and removing cards. The deck is made large enough for the card ids to be outside of the Integer cache.
+ * <p>
+ * Usage: TableBenchmark [rounds] [feature count]
+ */
+public class TableBenchmark {
+
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * Prevents the JIT from optimizing the reads away.
+     */
+    private static long sink;
+
+    public static void main(String[] args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int featureCount = args.length > 1 ? Integer.parseInt(args[1]) : 6;
+
+        Logger logger = Logger.getLogger("TableBenchmark");
+        logger.setUseParentHandlers(false);
+        logger.setLevel(Level.OFF);
+        Properties properties = new Properties();
+        properties.setProperty("FeatureCount", Integer.toString(featureCount));
+        properties.setProperty("TableDelaySeconds", "0");
+        properties.setProperty("ComputerPlayers", "0");
+        Config config = new Config(logger, properties);
+        Util util = new UtilImpl(config);
+        Env env = new Env(logger, config, new NoUserInterface(), util);
+
+        Table boxed = new Table(env, new Integer[config.tableSize], new Integer[config.deckSize]);
+        Table primitive = new Table(env);
+        fill(boxed, config);
+        fill(primitive, config);
+
+        System.out.printf("%d slots, %d cards, %d rounds%n", config.tableSize, config.deckSize, rounds);
+        for (int pass = 0; pass < 2; pass++) { // the first pass warms up the JIT
+            boolean print = pass == 1;
+            measure("read all slots, boxed view", rounds, print, () -> readBoxed(boxed, rounds));
+            measure("read all slots, cardAt", rounds, print, () -> readPrimitive(primitive, rounds));
+            measure("find all cards, boxed view", rounds, print, () -> findBoxed(boxed, config, rounds));
+            measure("find all cards, slotOf", rounds, print, () -> findPrimitive(primitive, config, rounds));
+            measure("remove and place a card, mirrored", rounds, print, () -> churn(boxed, config, rounds));
+            measure("remove and place a card, primitive", rounds, print, () -> churn(primitive, config, rounds));
+        }
+        System.out.println(sink == 42 ? "" : "done.");
+    }
+
+    /**
+     * Places cards in all the slots of the table.
+     */
+    private static void fill(Table table, Config config) {
+        for (int slot = 0; slot < config.tableSize; slot++)
+            table.placeCard(config.deckSize - 1 - slot, slot);
+    }
+
+    private static void measure(String name, int rounds, boolean print, Runnable benchmark) {
+        long thread = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        benchmark.run();
+        long nanos = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+        if (print)
+            System.out.printf("%-38s %8.1f ns/round %10.1f bytes/round%n", name, (double) nanos / rounds,
+                    (double) allocated / rounds);
+    }
+
+    /**
+     * Reads the cards of all the slots the way the code did before the primitive accessors.
+     */
+    private static void readBoxed(Table table, int rounds) {
+        long sum = 0;
+        for (int round = 0; round < rounds; round++) {
+            Integer[] slotToCard = table.getSlotToCard();
+            for (int slot = 0; slot < slotToCard.length; slot++)
+                if (slotToCard[slot] != null)
+                    sum += slotToCard[slot];
+        }
+        sink += sum;
+    }
+
+    private static void readPrimitive(Table table, int rounds) {
+        long sum = 0;
+        for (int round = 0; round < rounds; round++)
+            for (int slot = 0; slot < table.slots(); slot++) {
+                int card = table.cardAt(slot);
+                if (card != Table.EMPTY)
+                    sum += card;
+            }
+        sink += sum;
+    }
+
+    /**
+     * Looks up the slots of the cards on the table the way the code did before the primitive accessors.
+     */
+    private static void findBoxed(Table table, Config config, int rounds) {
+        long sum = 0;
+        for (int round = 0; round < rounds; round++)
+            for (int slot = 0; slot < config.tableSize; slot++) {
+                Integer found = table.getCardToSlot()[config.deckSize - 1 - slot];
+                if (found != null)
+                    sum += found;
+            }
+        sink += sum;
+    }
+
+    private static void findPrimitive(Table table, Config config, int rounds) {
+        long sum = 0;
+        for (int round = 0; round < rounds; round++)
+            for (int slot = 0; slot < config.tableSize; slot++) {
+                int found = table.slotOf(config.deckSize - 1 - slot);
+                if (found != Table.EMPTY)
+                    sum += found;
+            }
+        sink += sum;
+    }
+
+    /**
+     * Removes a card from a slot and places it back (round robin over the slots).
+     */
+    private static void churn(Table table, Config config, int rounds) {
+        for (int round = 0; round < rounds; round++) {
+            int slot = round % config.tableSize;
+            table.removeCard(slot);
+            table.placeCard(config.deckSize - 1 - slot, slot);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package bguspl.set;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Samples the CPU time, user time and allocated bytes of every thread periodically (on the scheduler), and
+ * summarizes them by game role (dealer, players, scheduler, ui...) at the end of the game.
+ * Threads are only measured while they are alive, so the work a thread did after its last sample is lost.
+ */
+public class ThreadAccounting {
+
+    /**
+     * The game environment object.
+     */
+    private final Env env;
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    /**
+     * The allocation counters of the HotSpot ThreadMXBean (null if not supported).
+     */
+    private final com.sun.management.ThreadMXBean allocations;
+
+    /**
+     * The last sample of each thread ever seen, by thread id.
+     */
+    private final Map<Long, Sample> samples = new HashMap<>();
+
+    private volatile boolean stopped;
+
+    public ThreadAccounting(Env env) {
+        this.env = env;
+        this.allocations = threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()
+                ? (com.sun.management.ThreadMXBean) threads : null;
+    }
+
+    /**
+     * Starts sampling the threads every config.threadAccountingMillis (does nothing if that is 0).
+     */
+    public void start() {
+        if (env.config.threadAccountingMillis <= 0)
+            return;
+        if (!threads.isThreadCpuTimeSupported()) {
+            env.logger.warning("thread cpu time is not supported, thread accounting is off.");
+            return;
+        }
+        if (!threads.isThreadCpuTimeEnabled())
+            threads.setThreadCpuTimeEnabled(true);
+        if (allocations != null && !allocations.isThreadAllocatedMemoryEnabled())
+            allocations.setThreadAllocatedMemoryEnabled(true);
+        sample();
+        env.scheduler.schedule(this::periodicSample, env.config.threadAccountingMillis);
+    }
+
+    private void periodicSample() {
+        if (stopped)
+            return;
+        sample();
+        env.scheduler.schedule(this::periodicSample, env.config.threadAccountingMillis);
+    }
+
+    /**
+     * Takes a sample of all the live threads.
+     */
+    private synchronized void sample() {
+        long[] ids = threads.getAllThreadIds();
+        ThreadInfo[] infos = threads.getThreadInfo(ids);
+        long[] allocated = allocations != null ? allocations.getThreadAllocatedBytes(ids) : null;
+        for (int i = 0; i < ids.length; i++) {
+            long cpu = threads.getThreadCpuTime(ids[i]);
+            long user = threads.getThreadUserTime(ids[i]);
+            if (infos[i] == null || cpu < 0) // the thread died meanwhile
+                continue;
+            samples.put(ids[i], new Sample(infos[i].getThreadName(), cpu, user, allocated != null ? allocated[i] : -1));
+        }
+    }
+
+    /**
+     * Takes a last sample, stops sampling and writes the totals per role to the log.
+     */
+    public synchronized void summarize() {
+        if (env.config.threadAccountingMillis <= 0 || !threads.isThreadCpuTimeSupported())
+            return;
+        stopped = true;
+        sample();
+
+        Map<String, long[]> roles = new TreeMap<>(); // role -> threads, cpu, user, allocated
+        for (Sample sample : samples.values()) {
+            long[] totals = roles.computeIfAbsent(role(sample.name), role -> new long[4]);
+            totals[0]++;
+            totals[1] += sample.cpu;
+            totals[2] += sample.user;
+            totals[3] += Math.max(0, sample.allocated);
+        }
+        env.logger.info("thread resource usage by role:");
+        for (Map.Entry<String, long[]> entry : roles.entrySet()) {
+            long[] totals = entry.getValue();
+            env.logger.info(String.format("  %-10s threads: %3d, cpu: %9.1fms, user: %9.1fms, allocated: %s",
+                    entry.getKey(), totals[0], totals[1] / 1e6, totals[2] / 1e6,
+                    allocations != null ? String.format("%.1fMB", totals[3] / 1e6) : "n/a"));
+        }
+    }
+
+    /**
+     * Maps a thread name to the role of the thread in the game.
+     *
+     * @param name - the thread name.
+     * @return - the role.
+     */
+    public static String role(String name) {
+        if (name.equals("dealer"))
+            return "dealer";
+        if (name.startsWith("player-"))
+            return "player";
+        if (name.startsWith("computer-") || name.equals("timing-wheel"))
+            return "scheduler";
+        if (name.startsWith("AWT-") || name.startsWith("Java2D"))
+            return "ui";
+        if (name.equals("main"))
+            return "main";
+        return "jvm/other";
+    }
+
+    /**
+     * The last measurement of a thread.
+     */
+    private static class Sample {
+        final String name;
+        final long cpu;
+        final long user;
+        final long allocated;
+
+        Sample(String name, long cpu, long user, long allocated) {
+            this.name = name;
+            this.cpu = cpu;
+            this.user = user;
+            this.allocated = allocated;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package bguspl.set;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A hashed timing wheel that runs delayed tasks on a single driver thread.
+ * Scheduling and cancelling a task take O(1), and each tick only touches the tasks hashed to the current bucket.
+ * Tasks run on the driver thread, so they must be short and must never block.
+ * The driver thread is started on the first call to schedule, and sleeps while there is nothing scheduled.
+ */
+public class TimingWheel implements Runnable {
+
+    private final Logger logger;
+
+    /**
+     * The duration of a single tick (in milliseconds).
+     */
+    private final long tickMillis;
+
+    /**
+     * The buckets of the wheel (each one is the sentinel of a circular doubly linked list).
+     */
+    private final Timeout[] buckets;
+
+    /**
+     * buckets.length - 1 (the number of buckets is a power of 2).
+     */
+    private final int mask;
+
+    /**
+     * The time the wheel was created (ticks are counted from here).
+     */
+    private final long startMillis = System.currentTimeMillis();
+
+    /**
+     * The next tick to be processed by the driver thread.
+     */
+    private long tick;
+
+    /**
+     * The number of scheduled tasks that did not expire or get cancelled yet.
+     */
+    private int size;
+
+    /**
+     * The driver thread (null until the first task is scheduled).
+     */
+    private ThreadLogger driver;
+
+    /**
+     * True iff the driver thread should be terminated.
+     */
+    private volatile boolean terminate;
+
+    public TimingWheel(Logger logger, long tickMillis, int wheelSize) {
+        this.logger = logger;
+        this.tickMillis = Math.max(1, tickMillis);
+        int buckets = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.buckets = new Timeout[buckets];
+        for (int i = 0; i < buckets; i++)
+            this.buckets[i] = new Timeout(null, 0);
+        this.mask = buckets - 1;
+    }
+
+    /**
+     * Schedules a task to run on the driver thread after the given delay.
+     *
+     * @param task        - the task to run.
+     * @param delayMillis - the delay in milliseconds (rounded up to whole ticks).
+     * @return - a handle that can be used to cancel the task.
+     */
+    public synchronized Timeout schedule(Runnable task, long delayMillis) {
+        if (driver == null && !terminate) {
+            driver = new ThreadLogger(this, "timing-wheel", logger);
+            driver.setDaemon(true);
+            driver.startWithLog();
+        }
+        long now = System.currentTimeMillis() - startMillis;
+        if (size == 0)
+            tick = Math.max(tick, now / tickMillis); // the wheel was idle, skip the empty ticks
+        long deadline = Math.max(tick, (now + Math.max(0, delayMillis) + tickMillis - 1) / tickMillis);
+        Timeout timeout = new Timeout(task, (deadline - tick) / buckets.length);
+        timeout.link(buckets[(int) (deadline & mask)]);
+        if (size++ == 0)
+            notifyAll();
+        return timeout;
+    }
+
+    /**
+     * @return - the number of tasks currently scheduled.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Stops the driver thread. Tasks that did not expire yet are dropped.
+     */
+    public void terminate() {
+        Thread driver;
+        synchronized (this) {
+            terminate = true;
+            notifyAll();
+            driver = this.driver;
+        }
+        if (driver != null) try {
+            driver.join();
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    /**
+     * The main loop of the driver thread.
+     */
+    @Override
+    public void run() {
+        while (!terminate) {
+            Timeout expired = nextExpired();
+            for (Timeout timeout = expired; timeout != null; timeout = timeout.next) {
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    logger.log(Level.SEVERE, "scheduled task failed", e);
+                }
+            }
+        }
+        ThreadLogger.logStop(logger, Thread.currentThread().getName());
+    }
+
+    /**
+     * Waits for the next tick and detaches the tasks that expire in it.
+     *
+     * @return - a singly linked list (through Timeout.next) of the expired tasks in the order they were scheduled, or
+     * null if none.
+     */
+    private synchronized Timeout nextExpired() {
+        try {
+            while (!terminate) {
+                long wait = tick * tickMillis - (System.currentTimeMillis() - startMillis);
+                if (size == 0)
+                    wait();
+                else if (wait > 0)
+                    wait(wait);
+                else
+                    break;
+            }
+        } catch (InterruptedException ignored) {
+        }
+        if (terminate)
+            return null;
+
+        Timeout sentinel = buckets[(int) (tick++ & mask)];
+        Timeout expired = null;
+        Timeout last = null;
+        Timeout timeout = sentinel.next;
+        while (timeout != sentinel) {
+            Timeout next = timeout.next;
+            if (timeout.rounds-- == 0) {
+                timeout.unlink();
+                size--;
+                if (last == null)
+                    expired = timeout;
+                else
+                    last.next = timeout;
+                last = timeout;
+            }
+            timeout = next;
+        }
+        return expired;
+    }
+
+    /**
+     * A handle of a scheduled task (also used as a node of the bucket lists).
+     */
+    public final class Timeout {
+
+        private final Runnable task;
+
+        /**
+         * The number of full wheel rotations left until the task expires.
+         */
+        private long rounds;
+
+        private Timeout prev = this;
+        private Timeout next = this;
+
+        /**
+         * True iff the task is still waiting in a bucket.
+         */
+        private boolean linked;
+
+        private Timeout(Runnable task, long rounds) {
+            this.task = task;
+            this.rounds = rounds;
+        }
+
+        private void link(Timeout sentinel) {
+            prev = sentinel.prev;
+            next = sentinel;
+            sentinel.prev.next = this;
+            sentinel.prev = this;
+            linked = true;
+        }
+
+        private void unlink() {
+            prev.next = next;
+            next.prev = prev;
+            prev = next = null;
+            linked = false;
+        }
+
+        /**
+         * Cancels the task.
+         *
+         * @return - true iff the task was cancelled before it expired.
+         */
+        public boolean cancel() {
+            synchronized (TimingWheel.this) {
+                if (!linked)
+                    return false;
+                unlink();
+                size--;
+                return true;
+            }
+        }
+    }
+}
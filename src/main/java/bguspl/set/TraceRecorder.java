@@ -0,0 +1,204 @@
+package bguspl.set;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Records timed spans of the game threads (table lock waits and holds, claims, freezes, ui calls) into per-thread
+ * buffers, and writes them at the end of the game in the Chrome trace event format (open it in chrome://tracing or
+ * https://ui.perfetto.dev).
+ * When tracing is off, begin returns 0 and end does nothing, so the instrumentation costs a single branch.
+ * <p>
+ * Usage:
+ * <pre>
+ *     long start = TraceRecorder.begin();
+ *     ...
+ *     TraceRecorder.end("span name", start);
+ * </pre>
+ */
+public final class TraceRecorder {
+
+    /**
+     * True iff tracing is on (set before the game threads are started).
+     */
+    private static boolean enabled;
+
+    /**
+     * The file the trace is written to.
+     */
+    private static String filename;
+
+    /**
+     * The maximal number of spans recorded per thread (the rest are dropped).
+     */
+    private static int maxSpans;
+
+    /**
+     * The time the trace started (all the timestamps are relative to it).
+     */
+    private static final long origin = System.nanoTime();
+
+    /**
+     * The buffers of all the threads that recorded spans.
+     */
+    private static final List<Buffer> buffers = new ArrayList<>();
+
+    private static final ThreadLocal<Buffer> buffer = ThreadLocal.withInitial(() -> {
+        Buffer buffer = new Buffer(Thread.currentThread());
+        synchronized (buffers) {
+            buffers.add(buffer);
+        }
+        return buffer;
+    });
+
+    private TraceRecorder() {
+    }
+
+    /**
+     * Turns tracing on (must be called before the game threads are started).
+     *
+     * @param traceFile - the file the trace will be written to.
+     * @param maxSpans  - the maximal number of spans recorded per thread.
+     */
+    public static void enable(String traceFile, int maxSpans) {
+        TraceRecorder.filename = traceFile;
+        TraceRecorder.maxSpans = maxSpans;
+        TraceRecorder.enabled = true;
+    }
+
+    /**
+     * @return - true iff tracing is on.
+     */
+    public static boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * Marks the beginning of a span.
+     *
+     * @return - the time the span began (0 if tracing is off).
+     */
+    public static long begin() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records a span of the current thread that ends now.
+     *
+     * @param name  - the name of the span.
+     * @param start - the value returned by begin (nothing is recorded if 0).
+     * @return - the time the span ended (0 if nothing was recorded), so it can begin the next span.
+     */
+    public static long end(String name, long start) {
+        if (start == 0)
+            return 0;
+        long end = System.nanoTime();
+        buffer.get().add(name, Thread.currentThread().getId(), start, end);
+        return end;
+    }
+
+    /**
+     * Records a span that ends now, on the timeline of another thread (e.g. a freeze that ends on the scheduler).
+     *
+     * @param name   - the name of the span.
+     * @param thread - the thread the span belongs to.
+     * @param start  - the value returned by begin (nothing is recorded if 0).
+     */
+    public static void end(String name, Thread thread, long start) {
+        if (start == 0 || thread == null)
+            return;
+        buffer.get().add(name, thread.getId(), start, System.nanoTime());
+    }
+
+    /**
+     * Writes all the recorded spans to the trace file (if tracing is on).
+     *
+     * @param logger - the logger to report to.
+     */
+    public static void write(Logger logger) {
+        if (!enabled)
+            return;
+        List<Buffer> all;
+        synchronized (buffers) {
+            all = new ArrayList<>(buffers);
+        }
+        long spans = 0;
+        long dropped = 0;
+        try (Writer out = new BufferedWriter(Files.newBufferedWriter(Paths.get(filename), StandardCharsets.UTF_8))) {
+            out.write("{\"traceEvents\":[\n");
+            boolean first = true;
+            for (Buffer buffer : all) {
+                out.write(first ? "" : ",\n");
+                first = false;
+                out.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + buffer.threadId
+                        + ",\"args\":{\"name\":\"" + escape(buffer.threadName) + "\"}}");
+                synchronized (buffer) {
+                    for (int i = 0; i < buffer.size; i++) {
+                        out.write(String.format(",\n{\"name\":\"%s\",\"cat\":\"game\",\"ph\":\"X\",\"pid\":1,\"tid\":%d,\"ts\":%.3f,\"dur\":%.3f}",
+                                escape(buffer.names[i]), buffer.threads[i], (buffer.starts[i] - origin) / 1000.0,
+                                (buffer.ends[i] - buffer.starts[i]) / 1000.0));
+                    }
+                    spans += buffer.size;
+                    dropped += buffer.dropped;
+                }
+            }
+            out.write("\n],\"displayTimeUnit\":\"ms\"}\n");
+            logger.info("trace of " + spans + " spans written to " + filename
+                    + (dropped > 0 ? " (" + dropped + " spans dropped)" : ""));
+        } catch (IOException e) {
+            logger.severe("cannot write trace file " + filename + ": " + e);
+        }
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    /**
+     * The spans recorded by a single thread. Only its owner thread adds to it; the lock is there for the writer.
+     */
+    private static class Buffer {
+
+        private final long threadId;
+        private final String threadName;
+
+        private String[] names = new String[256];
+        private long[] threads = new long[256];
+        private long[] starts = new long[256];
+        private long[] ends = new long[256];
+        private int size;
+        private long dropped;
+
+        Buffer(Thread thread) {
+            this.threadId = thread.getId();
+            this.threadName = thread.getName();
+        }
+
+        synchronized void add(String name, long thread, long start, long end) {
+            if (size == names.length) {
+                if (size >= maxSpans) {
+                    dropped++;
+                    return;
+                }
+                int capacity = Math.min(maxSpans, size * 2);
+                names = Arrays.copyOf(names, capacity);
+                threads = Arrays.copyOf(threads, capacity);
+                starts = Arrays.copyOf(starts, capacity);
+                ends = Arrays.copyOf(ends, capacity);
+            }
+            names[size] = name;
+            threads[size] = thread;
+            starts[size] = start;
+            ends[size] = end;
+            size++;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package bguspl.set;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
@@ -23,82 +24,93 @@ public class UserInterfaceDecorator implements UserInterface {
     public void placeCard(int card, int slot) {
         logger.severe("placing card " + card + " in slot " + slot);
         util.spin();
-        if (ui != null) ui.placeCard(card, slot);
+        forward("ui: placeCard", ui -> ui.placeCard(card, slot));
     }
 
     @Override
     public void removeCard(int slot) {
         logger.severe("removing card from slot " + slot);
         util.spin();
-        if (ui != null) ui.removeCard(slot);
+        forward("ui: removeCard", ui -> ui.removeCard(slot));
     }
 
     @Override
     public void placeToken(int player, int slot) {
         logger.severe("player " + (player + 1) + " placing token on slot " + slot);
         util.spin();
-        if (ui != null) ui.placeToken(player, slot);
+        forward("ui: placeToken", ui -> ui.placeToken(player, slot));
     }
 
     @Override
     public void removeTokens() {
         logger.severe("removing all tokens");
         util.spin();
-        if (ui != null) ui.removeTokens();
+        forward("ui: removeTokens", UserInterface::removeTokens);
     }
 
     @Override
     public void removeTokens(int slot) {
         logger.severe("removing tokens from slot " + slot);
         util.spin();
-        if (ui != null) ui.removeTokens(slot);
+        forward("ui: removeTokens", ui -> ui.removeTokens(slot));
     }
 
     @Override
     public void removeToken(int player, int slot) {
         logger.severe("removing player " + (player + 1) + " token from slot " + slot);
         util.spin();
-        if (ui != null) ui.removeToken(player, slot);
+        forward("ui: removeToken", ui -> ui.removeToken(player, slot));
     }
 
     @Override
     public void setCountdown(long millies, boolean warn) {
         if (!warn || millies % 1000L == 0L)
             logger.severe("updating countdown to " + millies);
-        if (ui != null) ui.setCountdown(millies, warn);
+        forward("ui: setCountdown", ui -> ui.setCountdown(millies, warn));
     }
 
     @Override
     public void setElapsed(long millies) {
         logger.severe("updating elapsed time to " + millies);
         util.spin();
-        if (ui != null) ui.setElapsed(millies);
+        forward("ui: setElapsed", ui -> ui.setElapsed(millies));
     }
 
     @Override
     public void setFreeze(int player, long millies) {
         logger.severe("setting player " + (player + 1) + " freeze to " + millies);
         util.spin();
-        if (ui != null) ui.setFreeze(player, millies);
+        forward("ui: setFreeze", ui -> ui.setFreeze(player, millies));
     }
 
     @Override
     public void setScore(int player, int score) {
         logger.severe("setting player " + (player + 1) + " score to " + score);
         util.spin();
-        if (ui != null) ui.setScore(player, score);
+        forward("ui: setScore", ui -> ui.setScore(player, score));
     }
 
     @Override
     public void announceWinner(int[] players) {
         List<String> winners = Arrays.stream(players).mapToObj(id -> "player " + (id + 1)).collect(Collectors.toList());
         logger.severe("announcing winner(s): " + String.join(", ", winners));
-        if (ui != null) ui.announceWinner(players);
+        forward("ui: announceWinner", ui -> ui.announceWinner(players));
     }
 
     @Override
     public void dispose() {
         logger.severe("disposing of user interface elements");
-        if (ui != null) ui.dispose();
+        forward("ui: dispose", UserInterface::dispose);
+    }
+
+    /**
+     * Forwards a call to the user interface (if there is one), tracing its duration under the given name.
+     */
+    private void forward(String name, Consumer<UserInterface> call) {
+        if (ui != null) {
+            long start = TraceRecorder.begin();
+            call.accept(ui);
+            TraceRecorder.end(name, start);
+        }
     }
 }
@@ -3,7 +3,7 @@ package bguspl.set;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.SplittableRandom;
 import java.util.stream.IntStream;
 
 /**
@@ -13,8 +13,15 @@ public class UtilImpl implements Util {
 
     private final Config config;
 
+    /**
+     * The random generator of the spins of each thread (derived from the seed and the thread name).
+     */
+    private final ThreadLocal<SplittableRandom> spinRandom;
+
     public UtilImpl(Config config) {
         this.config = config;
+        this.spinRandom = ThreadLocal.withInitial(
+                () -> new SplittableRandom(config.seed("spin:" + Thread.currentThread().getName())));
     }
 
     private void cardToFeatures(int card, int[] features) {
@@ -92,7 +99,7 @@ public class UtilImpl implements Util {
 
     public void spin() {
         if (config.randomSpinMax <= 0) return;
-        long cycles = ThreadLocalRandom.current().nextLong(config.randomSpinMin, config.randomSpinMax);
+        long cycles = spinRandom.get().nextLong(config.randomSpinMin, config.randomSpinMax);
         for (int i = 0; i < cycles; ++i)
             Thread.yield();
     }
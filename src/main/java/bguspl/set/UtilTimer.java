@@ -0,0 +1,74 @@
+package bguspl.set;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A Util decorator that measures the time spent in the game rules engine.
+ */
+public class UtilTimer implements Util {
+
+    private final Util util;
+
+    private final LongAdder testSetCalls = new LongAdder();
+    private final LongAdder testSetNanos = new LongAdder();
+    private final LongAdder findSetsCalls = new LongAdder();
+    private final LongAdder findSetsNanos = new LongAdder();
+
+    public UtilTimer(Util util) {
+        this.util = util;
+    }
+
+    @Override
+    public int[] cardToFeatures(int card) {
+        return util.cardToFeatures(card);
+    }
+
+    @Override
+    public int[][] cardsToFeatures(int[] cards) {
+        return util.cardsToFeatures(cards);
+    }
+
+    @Override
+    public boolean testSet(int[] cards) {
+        long start = System.nanoTime();
+        try {
+            return util.testSet(cards);
+        } finally {
+            testSetNanos.add(System.nanoTime() - start);
+            testSetCalls.increment();
+        }
+    }
+
+    @Override
+    public List<int[]> findSets(List<Integer> deck, int count) {
+        long start = System.nanoTime();
+        try {
+            return util.findSets(deck, count);
+        } finally {
+            findSetsNanos.add(System.nanoTime() - start);
+            findSetsCalls.increment();
+        }
+    }
+
+    @Override
+    public void spin() {
+        util.spin();
+    }
+
+    public long testSetCalls() {
+        return testSetCalls.sum();
+    }
+
+    public long testSetNanos() {
+        return testSetNanos.sum();
+    }
+
+    public long findSetsCalls() {
+        return findSetsCalls.sum();
+    }
+
+    public long findSetsNanos() {
+        return findSetsNanos.sum();
+    }
+}
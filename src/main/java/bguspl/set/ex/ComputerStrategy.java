@@ -0,0 +1,37 @@
+package bguspl.set.ex;
+
+import bguspl.set.Config;
+
+import java.util.Random;
+
+/**
+ * A strategy used by a computer player to decide where to put its tokens.
+ */
+public interface ComputerStrategy {
+
+    /**
+     * Decides which slots the computer player wants its tokens on.
+     *
+     * @param analysis - the shared analysis of the current table.
+     * @param random   - the random generator of the computer player.
+     * @return - the slots the player wants its tokens on (empty if it does not want to act).
+     */
+    int[] chooseSlots(TableAnalysis.Result analysis, Random random);
+
+    /**
+     * Creates the strategy named by config.computerStrategy.
+     *
+     * @param config - the game configuration.
+     * @return - the strategy object.
+     */
+    static ComputerStrategy fromConfig(Config config) {
+        switch (config.computerStrategy) {
+            case "random":
+                return new RandomStrategy();
+            case "skilled":
+                return new SkilledStrategy(config.computerSkill);
+            default:
+                throw new IllegalArgumentException("unknown computer strategy: " + config.computerStrategy);
+        }
+    }
+}
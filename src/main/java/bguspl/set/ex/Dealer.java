@@ -1,10 +1,13 @@
 package bguspl.set.ex;
 
 import bguspl.set.Env;
+import bguspl.set.GameJournal;
+import bguspl.set.Leaderboard;
+import bguspl.set.TimingWheel;
+import bguspl.set.TraceRecorder;
 
+import java.io.IOException;
 import java.util.*;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 import java.util.concurrent.*;
 
 /**
@@ -12,6 +15,15 @@ import java.util.concurrent.*;
  */
 public class Dealer implements Runnable {
 
+    /**
+     * The call sites that acquire the table monitor (see TableLockProfiler).
+     */
+    private static final TableLockProfiler.Site REMOVE_SET_SITE = new TableLockProfiler.Site("Dealer.removeSet");
+    private static final TableLockProfiler.Site PLACE_CARDS_SITE = new TableLockProfiler.Site("Dealer.placeCardsOnTable");
+    private static final TableLockProfiler.Site REMOVE_ALL_CARDS_SITE = new TableLockProfiler.Site("Dealer.removeAllCardsFromTable");
+    private static final TableLockProfiler.Site CHECKPOINT_SITE = new TableLockProfiler.Site("Dealer.recordCheckpoint");
+    private static final TableLockProfiler.Site RESTORE_SITE = new TableLockProfiler.Site("Dealer.restoreCheckpoint");
+
     /**
      * The game environment object.
      */
@@ -24,9 +36,9 @@ public class Dealer implements Runnable {
     private final Player[] players;
 
     /**
-     * The list of card ids that are left in the dealer's deck.
+     * The card ids that are left in the dealer's deck.
      */
-    private final List<Integer> deck;
+    private final Deck deck;
 
     /**
      * True iff game should be terminated.
@@ -36,16 +48,107 @@ public class Dealer implements Runnable {
     /**
      * The time when the dealer needs to reshuffle the deck due to turn timeout.
      */
-    private long reshuffleTime = 0;
+    private volatile long reshuffleTime = 0;
+
+    /**
+     * The scheduled wake up of the dealer at reshuffle time.
+     */
+    private TimingWheel.Timeout reshuffleTimeout;
+
+    /**
+     * The maximal time (in milliseconds) between two updates of the countdown display.
+     */
+    private static final long DISPLAY_REFRESH_MILLIS = 1000;
 
     private BlockingQueue<Player> playersQueue;
 
+    /**
+     * The player whose claim the dealer is checking (null if none).
+     */
+    private volatile Player checking;
+
+    /**
+     * The latencies of the claim stages.
+     */
+    private final LatencyRecorder latencies;
+
+    /**
+     * The live game statistics (exposed via JMX).
+     */
+    private final GameStats stats;
+
+    /**
+     * The watchdog of the dealer, player and scheduler threads.
+     */
+    private final Watchdog watchdog;
+
+    /**
+     * The threads of the players.
+     */
+    private final Thread[] playerThreads;
+
+    /**
+     * The players that had tokens on the last slot cleared (see Table.removeTokens).
+     */
+    private final long[] tokenOwners;
+
+    /**
+     * The trace span names of the claim checks of each player (see TraceRecorder).
+     */
+    private final String[] checkSpans;
+
+    /**
+     * The time the next keyframe should be recorded in the journal.
+     */
+    private long keyframeTime = 0;
+
+    /**
+     * The time the next checkpoint is due.
+     */
+    private long checkpointTime = 0;
+
+    /**
+     * The checkpoints of the game (null if checkpoints are off).
+     */
+    private final GameCheckpoint checkpoint;
+
+    /**
+     * The checkpoint the game is resumed from (null for a new game).
+     */
+    private GameCheckpoint.Snapshot restored;
+
+    /**
+     * The turn time (in milliseconds) left in the restored checkpoint, used for the first turn (0 if none).
+     */
+    private long restoredTimerMillis;
+
     public Dealer(Env env, Table table, Player[] players) {
         this.env = env;
         this.table = table;
         this.players = players;
-        deck = IntStream.range(0, env.config.deckSize).boxed().collect(Collectors.toList());
+        deck = new Deck(env.config.deckSize, new SplittableRandom(env.config.seed("deck")));
         playersQueue = new LinkedBlockingQueue<Player>();
+        latencies = new LatencyRecorder(env);
+        // the per-player state is sized by the configuration, so a dealer can be created before its players
+        stats = new GameStats(env, this, players);
+        watchdog = new Watchdog(env, this, table, players);
+        playerThreads = new Thread[env.config.players];
+        tokenOwners = new long[table.tokenWords()];
+        checkSpans = new String[env.config.players];
+        for (int player = 0; player < checkSpans.length; player++)
+            checkSpans[player] = "check set of player " + (player + 1);
+        checkpoint = env.config.checkpointFile.isEmpty() ? null : new GameCheckpoint(env.logger,
+                env.config.checkpointFile, table.slots(), env.config.deckSize, env.config.players);
+    }
+
+    /**
+     * Resumes the game from a checkpoint instead of starting a new one (must be called before the dealer thread
+     * starts).
+     *
+     * @param snapshot - the checkpoint.
+     */
+    public void restore(GameCheckpoint.Snapshot snapshot) {
+        restored = snapshot;
     }
 
     /**
@@ -54,19 +157,50 @@ public class Dealer implements Runnable {
     @Override
     public void run() {
         env.logger.info("thread " + Thread.currentThread().getName() + " starting.");
+        stats.start();
+        env.journal.gameStart(env.config.seed, players.length, env.config.tableSize, env.config.deckSize);
+        if (restored != null)
+            restoreCheckpoint();
+        if (checkpoint != null) {
+            checkpoint.start();
+            checkpointTime = System.currentTimeMillis() + env.config.checkpointMillis;
+        }
+        watchdog.register(Watchdog.DEALER, Thread.currentThread());
+        watchdog.heartbeat(Watchdog.DEALER);
+        watchdog.start();
         for (Player player : players) {
-            Thread playerThread = new Thread(player);
-            playerThread.start();
+            playerThreads[player.id] = new Thread(player, "player-" + (player.id + 1));
+            playerThreads[player.id].start();
         }
         while (!shouldFinish()) {
-            Collections.shuffle(deck);
+            watchdog.heartbeat(Watchdog.DEALER);
+            stats.dealerState(StatsExporter.STATE_DEALING);
             placeCardsOnTable();
+            stats.dealerState(StatsExporter.STATE_PLAYING);
             timerLoop();
+            watchdog.heartbeat(Watchdog.DEALER);
             updateTimerDisplay(false);
+            stats.dealerState(StatsExporter.STATE_RESHUFFLING);
+            if (!terminate) env.journal.reshuffle(deck.size());
             removeAllCardsFromTable();
+            if (!terminate) stats.reshuffled();
         }
+        watchdog.idle(Watchdog.DEALER);
+        if (checkpoint != null)
+            checkpoint.close(!terminate);
         announceWinners();
+        env.logger.info("table was analysed " + table.analysis().analyses() + " times for the computer players.");
+        latencies.dump();
+        table.reportLockProfile();
         terminate();
+        for (Thread playerThread : playerThreads) {
+            try {
+                playerThread.join();
+            } catch (InterruptedException ignored) {
+            }
+        }
+        watchdog.terminate();
+        stats.stop();
         env.logger.info("Thread " + Thread.currentThread().getName() + " terminated.");
     }
 
@@ -74,12 +208,16 @@ public class Dealer implements Runnable {
      * The inner loop of the dealer thread that runs as long as the countdown did not time out.
      */
     private void timerLoop() {
-        reshuffleTime = System.currentTimeMillis() + env.config.turnTimeoutMillis;
-        while (!terminate && System.currentTimeMillis() <= reshuffleTime) {
+        updateTimerDisplay(true);
+        while (!terminate && System.currentTimeMillis() < reshuffleTime) {
+            watchdog.heartbeat(Watchdog.DEALER);
             sleepUntilWokenOrTimeout();
             updateTimerDisplay(false);
             placeCardsOnTable();
+            recordKeyframe();
+            recordCheckpoint();
         }
+        reshuffleTimeout.cancel();
         for (Player player : players) {
             synchronized (player) {
                 player.notifyAll();
@@ -91,14 +229,11 @@ public class Dealer implements Runnable {
      * Called when the game should be terminated.
      */
     public void terminate() {
-        // TODO implement
-        long timer = System.currentTimeMillis() + env.config.endGamePauseMillies;
-        while (timer >= System.currentTimeMillis()) {
-        }
         terminate = true;
         for (Player player : players) {
             player.terminate();
         }
+        wakeUp();
     }
 
     /**
@@ -107,7 +242,7 @@ public class Dealer implements Runnable {
      * @return true iff the game should be finished.
      */
     private boolean shouldFinish() {
-        return terminate || env.util.findSets(deck, 1).size() == 0;
+        return terminate || env.util.findSets(deck.asList(), 1).size() == 0;
     }
 
     /**
@@ -117,63 +252,168 @@ public class Dealer implements Runnable {
         // TODO implement
     }
 
+    /**
+     * Removes the cards of a player's set from the table and gives the player the point (applied by the player thread).
+     *
+     * @param player - the player whose claim is a set.
+     */
     private void removeSet(Player player) {
+        long wait = table.lockRequested();
         synchronized (table) {
+            long held = table.lockAcquired(REMOVE_SET_SITE, wait);
             for (int i = 0; i < 3; i++) {
                 int card = player.getPotentialSet()[i];
-                int slot = table.getCardToSlot()[card];
-                for (Player p : players) {
-                    table.removeToken(p.getId(), slot);
-                    if (p.getId() != player.getId()) {
-                        if (p.potentialSetContains(card)) {
-                            p.removeFromPotentialSet(card);
-                        }
-                    } else {
-                        table.removeToken(player.getId(), slot);
-                    }
-                }
+                int slot = table.slotOf(card);
+                table.removeTokens(slot, tokenOwners);
+                removeFromPotentialSets(card, player.getId());
                 table.removeCard(slot);
             }
-            player.clearSet();
+            synchronized (player) {
+                // the cards leave the table and the point is pending together, for GameCheckpoint
+                player.clearSet();
+                player.setFrozenState(1);
+            }
+            table.lockReleased(REMOVE_SET_SITE, held);
         }
     }
 
+    /**
+     * Removes a card from the potential sets of the players that had tokens on it (in tokenOwners).
+     *
+     * @param card   - the card.
+     * @param except - a player whose potential set is left as is (-1 for none).
+     */
+    private void removeFromPotentialSets(int card, int except) {
+        for (int i = 0; i < tokenOwners.length; i++)
+            for (long word = tokenOwners[i]; word != 0; word &= word - 1) {
+                int owner = i * 64 + Long.numberOfTrailingZeros(word);
+                if (owner != except)
+                    players[owner].removeFromPotentialSet(card);
+            }
+    }
+
     /**
      * Check if any cards can be removed from the deck and placed on the table.
      */
     private void placeCardsOnTable() {
+        GameEvents.PlaceCards event = new GameEvents.PlaceCards();
+        event.begin();
+        long wait = table.lockRequested();
         synchronized (table) {
-            Integer[] slotToCard = table.getSlotToCard();
+            long held = table.lockAcquired(PLACE_CARDS_SITE, wait);
             boolean placedCards = false;
-            for (int i = 0; i < slotToCard.length; i++) {
-                if (slotToCard[i] == null) {
-                    if (deck.size() != 0) {
-                        table.placeCard(deck.remove(0), i);
+            for (int i = 0; i < table.slots(); i++) {
+                if (table.cardAt(i) == Table.EMPTY) {
+                    if (!deck.isEmpty()) {
+                        table.placeCard(deck.drawRandom(), i);
                         placedCards = true;
+                        event.cardsPlaced++;
                     }
                 }
             }
             if (env.config.hints == true & placedCards) {
                 table.hints();
             }
+            table.recordChecksum();
+            table.lockReleased(PLACE_CARDS_SITE, held);
+        }
+        if (event.cardsPlaced > 0) {
+            event.deckRemaining = deck.size();
+            event.commit();
+        }
+    }
+
+    /**
+     * Records a keyframe of the game in the journal, if journaling is on and the keyframe interval passed.
+     */
+    private void recordKeyframe() {
+        if (!env.journal.enabled() || env.config.journalKeyframeMillis <= 0
+                || System.currentTimeMillis() < keyframeTime)
+            return;
+        keyframeTime = System.currentTimeMillis() + env.config.journalKeyframeMillis;
+        table.recordKeyframe(deck.toArray());
+    }
+
+    /**
+     * Captures a checkpoint of the game, if checkpoints are on and the checkpoint interval passed (between the
+     * dealer's checks, so the table is not being dealt).
+     */
+    private void recordCheckpoint() {
+        if (checkpoint == null || terminate || System.currentTimeMillis() < checkpointTime)
+            return;
+        checkpointTime = System.currentTimeMillis() + env.config.checkpointMillis;
+        long wait = table.lockRequested();
+        synchronized (table) {
+            long held = table.lockAcquired(CHECKPOINT_SITE, wait);
+            checkpoint.capture(env.config.seed, table, deck, reshuffleTime - System.currentTimeMillis(), players,
+                    env.config);
+            table.lockReleased(CHECKPOINT_SITE, held);
+        }
+    }
+
+    /**
+     * Puts the cards, the deck, the tokens, the scores and the freezes of the restored checkpoint in place (before the
+     * player threads start).
+     */
+    private void restoreCheckpoint() {
+        long wait = table.lockRequested();
+        synchronized (table) {
+            long held = table.lockAcquired(RESTORE_SITE, wait);
+            deck.restore(restored.deck);
+            for (int slot = 0; slot < table.slots(); slot++)
+                if (restored.slotCards[slot] != Table.EMPTY)
+                    table.placeCard(restored.slotCards[slot], slot);
+            for (Player player : players)
+                for (int card : restored.potentialSets[player.id])
+                    if (card != Table.EMPTY && table.slotOf(card) != Table.EMPTY) {
+                        table.placeToken(player.id, table.slotOf(card));
+                        player.addToPotentialSet(card);
+                    }
+            table.recordChecksum();
+            table.lockReleased(RESTORE_SITE, held);
         }
+        for (Player player : players)
+            player.restore(restored.scores[player.id], restored.freezeMillis[player.id]);
+        restoredTimerMillis = restored.remainingMillis;
+        env.logger.info("resumed the game from the checkpoint of " + new Date(restored.savedMillis) + ".");
     }
 
     /**
      * Sleep for a fixed amount of time or until the thread is awakened for some purpose.
      */
     private void sleepUntilWokenOrTimeout() {
-        Player playerToCheck = null;
         try {
-            playerToCheck = playersQueue.poll(1000, TimeUnit.MILLISECONDS);
-            if (playerToCheck != null) {
-                checkSet(playerToCheck);
-                synchronized (playerToCheck) {
-                    playerToCheck.notifyAll();
-                }
+            synchronized (this) {
+                if (playersQueue.isEmpty())
+                    wait(DISPLAY_REFRESH_MILLIS);
             }
         } catch (InterruptedException e) {
         }
+        Player playerToCheck = playersQueue.poll();
+        if (playerToCheck != null) {
+            checking = playerToCheck;
+            long dequeueTime = System.nanoTime();
+            latencies.record(LatencyRecorder.Stage.DEALER_DEQUEUE, playerToCheck.claimEnqueueTime);
+            stats.dealerState(StatsExporter.STATE_CHECKING);
+            long check = TraceRecorder.begin();
+            checkSet(playerToCheck);
+            TraceRecorder.end(checkSpans[playerToCheck.id], check);
+            stats.dealerState(StatsExporter.STATE_PLAYING);
+            latencies.record(LatencyRecorder.Stage.VERDICT, dequeueTime);
+            checking = null;
+            latencies.record(LatencyRecorder.Stage.KEY_TO_VERDICT, playerToCheck.claimKeyTime);
+            playerToCheck.verdictTime = System.nanoTime();
+            synchronized (playerToCheck) {
+                playerToCheck.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Wakes the dealer thread up (called by players waiting for a check and at reshuffle time).
+     */
+    private synchronized void wakeUp() {
+        notifyAll();
     }
 
     /**
@@ -181,7 +421,11 @@ public class Dealer implements Runnable {
      */
     private void updateTimerDisplay(boolean reset) {
         if (reset) {
-            reshuffleTime = env.config.turnTimeoutMillis + System.currentTimeMillis();
+            long timeout = restoredTimerMillis > 0 ? restoredTimerMillis : env.config.turnTimeoutMillis;
+            restoredTimerMillis = 0;
+            reshuffleTime = timeout + System.currentTimeMillis();
+            if (reshuffleTimeout != null) reshuffleTimeout.cancel();
+            reshuffleTimeout = env.scheduler.schedule(this::wakeUp, timeout);
         } else {
             long currentTime = System.currentTimeMillis();
             env.ui.setCountdown(reshuffleTime - currentTime, false);
@@ -192,22 +436,24 @@ public class Dealer implements Runnable {
      * Returns all the cards from the table to the deck.
      */
     private void removeAllCardsFromTable() {
+        GameEvents.RemoveAllCards event = new GameEvents.RemoveAllCards();
+        event.begin();
+        long wait = table.lockRequested();
         synchronized (table) {
-            env.ui.removeTokens();
-            for (int i = 0; i < 12; i++) {
-                if (table.slotToCard[i] != null) {
-                    int card = table.slotToCard[i];
+            long held = table.lockAcquired(REMOVE_ALL_CARDS_SITE, wait);
+            for (int i = 0; i < table.slots(); i++) {
+                if (table.cardAt(i) != Table.EMPTY) {
+                    int card = table.cardAt(i);
+                    table.removeTokens(i, tokenOwners);
+                    removeFromPotentialSets(card, -1);
                     table.removeCard(i);
                     deck.add(card);
-                    for (Player player : players) {
-                        //table.removeToken(player.getId(), i);
-                        if (player.potentialSetContains(card)) {
-                            player.removeFromPotentialSet(card);
-                        }
-                    }
+                    event.cardsRemoved++;
                 }
             }
+            table.lockReleased(REMOVE_ALL_CARDS_SITE, held);
         }
+        event.commit();
     }
 
     public void removeAllCardsFromTableTest() {
@@ -218,48 +464,108 @@ public class Dealer implements Runnable {
      * Check who is/are the winner/s and displays them.
      */
     private void announceWinners() {
-        List<Integer> winnersList = new ArrayList<Integer>();
+        int[] scores = new int[players.length];
+        int[] winners = new int[players.length];
+        int winnerCount = 0;
         int maxScore = 0;
-        int winnerId = 0;
         for (int i = 0; i < players.length; i++) {
-            int playerScore = players[i].score();
-            if (playerScore > maxScore) {
-                maxScore = playerScore;
-                winnerId = i;
+            scores[i] = players[i].score();
+            if (scores[i] > maxScore) {
+                maxScore = scores[i];
+                winnerCount = 0;
             }
+            if (scores[i] == maxScore)
+                winners[winnerCount++] = i;
         }
-        winnersList.add(winnerId);
+        int[] winnersArray = Arrays.copyOf(winners, winnerCount);
+        env.journal.gameEnd(winnersArray);
+        if (!terminate && !env.config.leaderboardFile.isEmpty())
+            recordResults(scores, winnersArray);
+        env.ui.announceWinner(winnersArray);
+    }
 
-        for (int i = 0; i < players.length; i++) {
-            int playerScore = players[i].score();
-            if (i != winnerId & playerScore == players[winnerId].score()) {
-                winnersList.add(i);
-            }
-        }
-        int[] winnersArray = new int[winnersList.size()];
-        for (int i = 0; i < winnersArray.length; i++) {
-            winnersArray[i] = winnersList.get(i);
+    /**
+     * Records the results of a finished game in the leaderboard.
+     *
+     * @param scores  - the scores of the players.
+     * @param winners - the winners.
+     */
+    private void recordResults(int[] scores, int[] winners) {
+        try (Leaderboard leaderboard = Leaderboard.open(env.config.leaderboardFile)) {
+            leaderboard.record(System.currentTimeMillis(), env.config.playerNames, scores, winners);
+            env.logger.info("recorded game " + leaderboard.games() + " in the leaderboard.");
+        } catch (IOException e) {
+            env.logger.severe("error recording the results in the leaderboard " + env.config.leaderboardFile + ": "
+                    + e.getMessage());
         }
-        env.ui.announceWinner(winnersArray);
     }
 
     public void checkSet(Player player) {
+        GameEvents.CheckSet event = new GameEvents.CheckSet();
+        event.begin();
+        event.player = player.id;
         if (player.getPotentialSetSize() == 3 & player.isValid(player.getPotentialSet())) {
+            int[] potentialSet = player.getPotentialSet();
+            event.card1 = potentialSet[0];
+            event.card2 = potentialSet[1];
+            event.card3 = potentialSet[2];
             boolean isSet = env.util.testSet(player.getPotentialSet());
+            event.valid = isSet;
+            stats.claimChecked(player.id, isSet);
+            env.journal.verdict(player.id, isSet ? GameJournal.POINT : GameJournal.PENALTY);
             if (isSet) {
                 //clear player's actions:
                 removeSet(player);
-                player.setFrozenState(1);
                 placeCardsOnTable();
                 updateTimerDisplay(true);
             } else {
                 player.setFrozenState(3);
             }
+        } else {
+            env.journal.verdict(player.id, GameJournal.DISMISSED);
         }
+        table.recordChecksum();
+        event.commit();
         synchronized (player) {
             player.notifyAll();
         }
     }
+    /**
+     * @return - the latencies of the claim stages.
+     */
+    public LatencyRecorder latencies() {
+        return latencies;
+    }
+
+    /**
+     * @return - the live game statistics.
+     */
+    public GameStats stats() {
+        return stats;
+    }
+
+    /**
+     * @return - the number of cards left in the deck.
+     */
+    public int deckSize() {
+        return deck.size();
+    }
+
+    /**
+     * @return - the watchdog of the dealer, player and scheduler threads.
+     */
+    public Watchdog watchdog() {
+        return watchdog;
+    }
+
+    /**
+     * @return - the player whose claim the dealer is checking (null if none). The watchdog reads it without a lock:
+     * a player waiting for a verdict who is not being checked is queued.
+     */
+    public Player checking() {
+        return checking;
+    }
+
     public synchronized BlockingQueue<Player> getPlayersQueue() {
         return playersQueue;
     }
@@ -267,5 +573,6 @@ public class Dealer implements Runnable {
         if (!playersQueue.contains(player)) {
             playersQueue.add(player);
         }
+        wakeUp();
     }
 }
@@ -0,0 +1,136 @@
+package bguspl.set.ex;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.SplittableRandom;
+
+/**
+ * The cards left in the dealer's deck, kept in a primitive array.
+ * The deck is never shuffled: each draw picks a uniformly random card among the ones left (a single step of the
+ * Fisher-Yates shuffle), so drawing and returning a card are both O(1).
+ *
+ * @inv 0 <= size <= cards.length
+ * @inv cards[0..size) are the distinct cards in the deck
+ */
+public class Deck {
+
+    /**
+     * The cards in the deck are cards[0..size); the rest of the array is unused.
+     */
+    private final int[] cards;
+
+    /**
+     * The number of cards in the deck (the draw cursor).
+     */
+    private int size;
+
+    private final SplittableRandom random;
+
+    /**
+     * Creates a deck with all the cards.
+     *
+     * @param deckSize - the number of cards in the game.
+     * @param random   - the random generator of the draws.
+     */
+    public Deck(int deckSize, SplittableRandom random) {
+        this.cards = new int[deckSize];
+        for (int card = 0; card < deckSize; card++)
+            cards[card] = card;
+        this.size = deckSize;
+        this.random = random;
+    }
+
+    /**
+     * Removes a random card from the deck.
+     *
+     * @return - the card drawn.
+     * @pre - the deck is not empty.
+     */
+    public int drawRandom() {
+        if (size == 0)
+            throw new IllegalStateException("the deck is empty");
+        int i = random.nextInt(size);
+        int card = cards[i];
+        cards[i] = cards[--size];
+        return card;
+    }
+
+    /**
+     * Returns a card to the deck.
+     *
+     * @param card - the card (must not be in the deck).
+     */
+    public void add(int card) {
+        cards[size++] = card;
+    }
+
+    /**
+     * @return - the number of cards in the deck.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param index - an index in the deck (less than size()).
+     * @return - the card at the index (in the deck's order).
+     */
+    public int card(int index) {
+        return cards[index];
+    }
+
+    /**
+     * Replaces the cards in the deck (to restore a checkpoint).
+     *
+     * @param cards - the cards (in the deck's order).
+     * @throws IllegalArgumentException - if there are more cards than in the game, or a card is not a card of the
+     *                                  game or is repeated (the deck is not changed).
+     */
+    public void restore(int[] cards) {
+        if (cards.length > this.cards.length)
+            throw new IllegalArgumentException(cards.length + " cards do not fit a deck of " + this.cards.length);
+        boolean[] seen = new boolean[this.cards.length];
+        for (int card : cards) {
+            if (card < 0 || card >= seen.length || seen[card])
+                throw new IllegalArgumentException("invalid or repeated card " + card);
+            seen[card] = true;
+        }
+        System.arraycopy(cards, 0, this.cards, 0, cards.length);
+        size = cards.length;
+    }
+
+    /**
+     * @return - a copy of the cards in the deck (in the deck's order).
+     */
+    public int[] toArray() {
+        return Arrays.copyOf(cards, size);
+    }
+
+    /**
+     * @return - a read only view of the cards in the deck (for Util.findSets), valid until the deck changes.
+     */
+    public List<Integer> asList() {
+        return new CardList();
+    }
+
+    private class CardList extends AbstractList<Integer> implements RandomAccess {
+
+        @Override
+        public Integer get(int index) {
+            if (index < 0 || index >= size)
+                throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+            return cards[index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
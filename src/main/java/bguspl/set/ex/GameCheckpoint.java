@@ -0,0 +1,363 @@
+package bguspl.set.ex;
+
+import bguspl.set.Config;
+import bguspl.set.ThreadLogger;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Checkpoints of the full game state (the cards on the table, the deck, the players' tokens, scores and freezes and
+ * the remaining turn time), so a game can be resumed after the process dies (see Main).
+ * <p>
+ * A checkpoint is captured by the dealer thread between its checks (see Dealer.recordCheckpoint), into a preallocated
+ * buffer while it holds the table monitor (a few microseconds, no allocation), and written to the file by the
+ * checkpoint's writer thread, which copies the snapshot to its own buffer first: the snapshot is written to a
+ * temporary file, forced to the disk and then renamed over the checkpoint file, so the file always holds a complete
+ * checkpoint. A snapshot captured before the writer got to the previous one replaces it.
+ * <p>
+ * File layout (big endian):
+ * <pre>
+ * header (HEADER_SIZE bytes):
+ *   0 int  MAGIC             4 int  VERSION          8 long time of the checkpoint (System.currentTimeMillis())
+ *  16 long seed             24 int  remaining turn time (in milliseconds)
+ *  28 short players         30 short table size     32 short deck size     34 short cards in the deck
+ * then:
+ *   the card of each slot (short, EMPTY for none)
+ *   the cards in the deck (short each, in the deck's order)
+ *   for each player: int score, int remaining freeze time (in milliseconds), the cards of its potential set (3 shorts,
+ *                    EMPTY for none)
+ *   int CRC32 of everything before it
+ * </pre>
+ */
+public class GameCheckpoint implements Runnable {
+
+    public static final int MAGIC = 0x53455443; // "SETC"
+    public static final int VERSION = 1;
+
+    public static final int HEADER_SIZE = 36;
+
+    public static final String TEMPORARY_SUFFIX = ".tmp";
+
+    /**
+     * The size of a player's state in a checkpoint.
+     */
+    private static final int PLAYER_SIZE = 14;
+
+    private final Logger logger;
+
+    private final Path file;
+    private final Path temporary;
+
+    /**
+     * The last snapshot captured.
+     */
+    private final ByteBuffer snapshot;
+
+    /**
+     * True iff the last snapshot was not handed to the writer thread yet.
+     */
+    private boolean dirty;
+
+    /**
+     * The snapshot being written by the writer thread.
+     */
+    private final ByteBuffer output;
+
+    private final CRC32 crc = new CRC32();
+
+    private long captured;
+    private long written;
+
+    private boolean closed;
+
+    private ThreadLogger writer;
+
+    /**
+     * @param logger    - the logger.
+     * @param filename  - the checkpoint file.
+     * @param tableSize - the number of slots on the table.
+     * @param deckSize  - the number of cards in the game.
+     * @param players   - the number of players.
+     */
+    public GameCheckpoint(Logger logger, String filename, int tableSize, int deckSize, int players) {
+        this.logger = logger;
+        this.file = Paths.get(filename);
+        this.temporary = Paths.get(filename + TEMPORARY_SUFFIX);
+        int size = HEADER_SIZE + 2 * tableSize + 2 * deckSize + PLAYER_SIZE * players + 4;
+        this.snapshot = ByteBuffer.allocate(size);
+        this.output = ByteBuffer.allocate(size);
+    }
+
+    /**
+     * Starts the writer thread.
+     */
+    public void start() {
+        writer = new ThreadLogger(this, "checkpoint", logger);
+        writer.setDaemon(true);
+        writer.startWithLog();
+    }
+
+    /**
+     * Captures a snapshot of the game and hands it to the writer thread.
+     * Must be called with the table monitor held, so the table and the deck do not change (the monitors of the
+     * players are taken for their state).
+     *
+     * @param seed            - the random seed of the game.
+     * @param table           - the table.
+     * @param deck            - the deck.
+     * @param remainingMillis - the remaining turn time (in milliseconds).
+     * @param players         - the players.
+     * @param config          - the game configuration.
+     * @return - false iff the checkpoint is closed.
+     */
+    synchronized boolean capture(long seed, Table table, Deck deck, long remainingMillis, Player[] players,
+                                 Config config) {
+        if (closed)
+            return false;
+        ByteBuffer buffer = snapshot;
+        buffer.clear();
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis()).putLong(seed);
+        buffer.putInt((int) Math.max(0, Math.min(Integer.MAX_VALUE, remainingMillis)));
+        buffer.putShort((short) players.length).putShort((short) table.slots());
+        buffer.putShort((short) config.deckSize).putShort((short) deck.size());
+        for (int slot = 0; slot < table.slots(); slot++)
+            buffer.putShort((short) table.cardAt(slot));
+        for (int i = 0; i < deck.size(); i++)
+            buffer.putShort((short) deck.card(i));
+        for (Player player : players) {
+            synchronized (player) {
+                // a verdict the player did not apply yet is applied in the checkpoint (see Player.point)
+                int score = player.score();
+                long freeze = player.freezeRemaining();
+                if (player.getFrozenState() == 1) {
+                    score++;
+                    freeze = config.pointFreezeMillis;
+                } else if (player.getFrozenState() == 3) {
+                    freeze = config.penaltyFreezeMillis;
+                }
+                buffer.putInt(score).putInt((int) freeze);
+                for (int card : player.getPotentialSet())
+                    buffer.putShort((short) card);
+            }
+        }
+        crc.reset();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+        dirty = true;
+        captured++;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * The writer thread starts here: writes the snapshots until the checkpoint is closed.
+     */
+    @Override
+    public void run() {
+        boolean failed = false;
+        while (true) {
+            synchronized (this) {
+                while (!dirty && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+                if (!dirty)
+                    break;
+                output.clear();
+                output.put(snapshot.duplicate());
+                output.flip();
+                dirty = false;
+            }
+            if (failed)
+                continue;
+            try {
+                write(output);
+                written++;
+            } catch (IOException e) {
+                logger.severe("error writing the checkpoint (the game is not checkpointed anymore): " + e.getMessage());
+                failed = true;
+            }
+        }
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            channel.force(false);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Writes the last snapshot and stops the writer thread. The snapshots captured after the checkpoint is closed are
+     * ignored.
+     *
+     * @param finished - true iff the game is over, in which case there is nothing to resume and the checkpoint file is
+     *                 deleted.
+     */
+    public void close(boolean finished) {
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            if (finished)
+                dirty = false;
+            notifyAll();
+        }
+        if (writer != null) try {
+            writer.joinWithLog();
+        } catch (InterruptedException ignored) {
+        }
+        if (finished) try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.severe("error deleting the checkpoint " + file + ": " + e.getMessage());
+        }
+        logger.info("checkpoint: " + captured + " snapshots captured, " + written + " written.");
+    }
+
+    /**
+     * A checkpoint read from a file.
+     */
+    public static class Snapshot {
+
+        /**
+         * The time of the checkpoint (System.currentTimeMillis()).
+         */
+        public final long savedMillis;
+
+        /**
+         * The random seed of the game (the resumed game runs with it, see Main).
+         */
+        public final long seed;
+
+        /**
+         * The remaining turn time (in milliseconds).
+         */
+        public final long remainingMillis;
+
+        /**
+         * The card of each slot (EMPTY for none).
+         */
+        public final int[] slotCards;
+
+        /**
+         * The cards in the deck (in the deck's order).
+         */
+        public final int[] deck;
+
+        public final int[] scores;
+
+        /**
+         * The remaining freeze time of each player (in milliseconds).
+         */
+        public final long[] freezeMillis;
+
+        /**
+         * The cards of each player's potential set (EMPTY for none).
+         */
+        public final int[][] potentialSets;
+
+        private Snapshot(long savedMillis, long seed, long remainingMillis, int[] slotCards, int[] deck, int[] scores,
+                         long[] freezeMillis, int[][] potentialSets) {
+            this.savedMillis = savedMillis;
+            this.seed = seed;
+            this.remainingMillis = remainingMillis;
+            this.slotCards = slotCards;
+            this.deck = deck;
+            this.scores = scores;
+            this.freezeMillis = freezeMillis;
+            this.potentialSets = potentialSets;
+        }
+    }
+
+    /**
+     * Reads a checkpoint and checks that it is complete and fits the configuration.
+     *
+     * @param filename - the checkpoint file.
+     * @param config   - the game configuration.
+     * @return - the checkpoint.
+     * @throws IOException - if the file cannot be read, is not a checkpoint, is corrupt or is of a game with another
+     *                     number of players, table size or deck size.
+     */
+    public static Snapshot read(String filename, Config config) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(Paths.get(filename)));
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+                throw new IOException(filename + " is not a game checkpoint (or was written by another version).");
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), 0, buffer.limit() - 4);
+            if (buffer.getInt(buffer.limit() - 4) != (int) crc.getValue())
+                throw new IOException(filename + " is corrupt (checksum mismatch).");
+            long savedMillis = buffer.getLong();
+            long seed = buffer.getLong();
+            long remainingMillis = buffer.getInt();
+            int players = buffer.getShort();
+            int tableSize = buffer.getShort();
+            int deckSize = buffer.getShort();
+            if (players != config.players || tableSize != config.tableSize || deckSize != config.deckSize)
+                throw new IOException(filename + " is a checkpoint of a game with " + players + " players, table size "
+                        + tableSize + " and deck size " + deckSize + ", which does not fit the configuration.");
+            int[] deck = new int[buffer.getShort()];
+            int[] slotCards = new int[tableSize];
+            boolean[] seen = new boolean[deckSize];
+            for (int slot = 0; slot < tableSize; slot++)
+                slotCards[slot] = card(buffer.getShort(), seen, filename, true);
+            for (int i = 0; i < deck.length; i++)
+                deck[i] = card(buffer.getShort(), seen, filename, false);
+            int[] scores = new int[players];
+            long[] freezeMillis = new long[players];
+            int[][] potentialSets = new int[players][3];
+            for (int player = 0; player < players; player++) {
+                scores[player] = buffer.getInt();
+                freezeMillis[player] = buffer.getInt();
+                for (int i = 0; i < 3; i++) {
+                    int card = buffer.getShort();
+                    if (card != Table.EMPTY && (card < 0 || card >= deckSize))
+                        throw new IOException(filename + " has an invalid card " + card + ".");
+                    potentialSets[player][i] = card;
+                }
+            }
+            if (buffer.remaining() != 4)
+                throw new IOException(filename + " has " + (buffer.remaining() - 4) + " unexpected bytes.");
+            return new Snapshot(savedMillis, seed, remainingMillis, slotCards, deck, scores, freezeMillis,
+                    potentialSets);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException(filename + " is truncated.");
+        }
+    }
+
+    /**
+     * Checks a card of a checkpoint.
+     *
+     * @param card     - the card.
+     * @param seen     - the cards seen so far (the card is added).
+     * @param filename - the checkpoint file.
+     * @param empty    - true iff the card may be EMPTY.
+     * @return - the card.
+     * @throws IOException - if the card is invalid, or was seen already.
+     */
+    private static int card(int card, boolean[] seen, String filename, boolean empty) throws IOException {
+        if (card == Table.EMPTY && empty)
+            return card;
+        if (card < 0 || card >= seen.length || seen[card])
+            throw new IOException(filename + " has an invalid card " + card + ".");
+        seen[card] = true;
+        return card;
+    }
+}
@@ -0,0 +1,96 @@
+package bguspl.set.ex;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events of the game's dealer, player and table operations.
+ * All the events are disabled by default, in which case creating and committing them is optimized away. To record
+ * them, enable them in a .jfc settings file (e.g. -XX:StartFlightRecording=filename=game.jfr,settings=game.jfc).
+ * The jdk.jfr API is part of Java 11 and later, which is why the project is built for Java 11.
+ */
+public final class GameEvents {
+
+    private GameEvents() {
+    }
+
+    @Name("bguspl.set.CheckSet")
+    @Label("Check Set")
+    @Description("The dealer checks a player's claim")
+    @Category({"Set Game", "Dealer"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static class CheckSet extends Event {
+        @Label("Player")
+        public int player;
+        @Label("First Card")
+        public int card1;
+        @Label("Second Card")
+        public int card2;
+        @Label("Third Card")
+        public int card3;
+        @Label("Valid Set")
+        public boolean valid;
+    }
+
+    @Name("bguspl.set.PlaceCards")
+    @Label("Place Cards")
+    @Description("The dealer places cards from the deck on the table")
+    @Category({"Set Game", "Dealer"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static class PlaceCards extends Event {
+        @Label("Cards Placed")
+        public int cardsPlaced;
+        @Label("Deck Remaining")
+        public int deckRemaining;
+    }
+
+    @Name("bguspl.set.RemoveAllCards")
+    @Label("Remove All Cards")
+    @Description("The dealer returns all the cards on the table to the deck")
+    @Category({"Set Game", "Dealer"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static class RemoveAllCards extends Event {
+        @Label("Cards Removed")
+        public int cardsRemoved;
+    }
+
+    @Name("bguspl.set.Verdict")
+    @Label("Player Verdict")
+    @Description("A player gets a point or a penalty")
+    @Category({"Set Game", "Player"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static class Verdict extends Event {
+        @Label("Player")
+        public int player;
+        @Label("Point")
+        public boolean point;
+        @Label("Score")
+        public int score;
+        @Label("Freeze Milliseconds")
+        public long freezeMillis;
+    }
+
+    @Name("bguspl.set.TableCard")
+    @Label("Table Card")
+    @Description("A card is placed on or removed from a table slot")
+    @Category({"Set Game", "Table"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static class TableCard extends Event {
+        @Label("Slot")
+        public int slot;
+        @Label("Card")
+        public int card;
+        @Label("Placed")
+        public boolean placed;
+    }
+}
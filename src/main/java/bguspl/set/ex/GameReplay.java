@@ -0,0 +1,397 @@
+package bguspl.set.ex;
+
+import bguspl.set.Config;
+import bguspl.set.Env;
+import bguspl.set.GameJournal;
+import bguspl.set.JournalIndex;
+import bguspl.set.JournalReader;
+import bguspl.set.JournalSegments;
+import bguspl.set.UserInterface;
+import bguspl.set.UserInterfaceDecorator;
+import bguspl.set.UserInterfaceSwing;
+import bguspl.set.Util;
+import bguspl.set.UtilImpl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Replays a game from its journal (see GameJournal) through the real Table and user interface, either at the pace
+ * it was played (scaled by a speed factor) or as fast as possible, and verifies the replayed game against the
+ * journal: the table checksums recorded by the dealer, the keyframes, the removed cards and tokens, and the winners.
+ * The replay can start from any point of the game: it restores the last keyframe before it (found with a binary
+ * search of the journal's index) and applies only the records after the keyframe.
+ * <p>
+ * Usage: GameReplay [journal segment file, or base name for the last game] [speed factor, or max] [config file]
+ * [start seconds]
+ */
+public class GameReplay {
+
+    /**
+     * The maximal number of mismatches that are printed.
+     */
+    private static final int MAX_PRINTED_MISMATCHES = 10;
+
+    /**
+     * The game environment object.
+     */
+    private final Env env;
+
+    private final Table table;
+
+    private final JournalReader reader;
+
+    /**
+     * The replay speed factor (0 for as fast as possible).
+     */
+    private final double speed;
+
+    /**
+     * The replayed scores of the players.
+     */
+    private final int[] scores;
+
+    private long records;
+    private long claims;
+    private long points;
+    private long penalties;
+    private long reshuffles;
+    private long checksums;
+    private long keyframes;
+    private long mismatches;
+
+    /**
+     * @param env    - the game environment objects (of a configuration that matches the journal).
+     * @param reader - the journal, positioned on its GAME_START record.
+     * @param speed  - the replay speed factor (0 for as fast as possible).
+     */
+    public GameReplay(Env env, JournalReader reader, double speed) {
+        this.env = env;
+        this.table = new Table(env);
+        this.reader = reader;
+        this.speed = speed;
+        this.scores = new int[env.config.players];
+    }
+
+    public static void main(String[] args) throws IOException {
+        String journalFile = args.length > 0 ? args[0] : "game.journal";
+        double speed = args.length > 1 ? args[1].equalsIgnoreCase("max") ? 0 : Double.parseDouble(args[1]) : 1;
+        String configFile = args.length > 2 ? args[2] : "config.properties";
+        long startMicros = (long) ((args.length > 3 ? Double.parseDouble(args[3]) : 0) * 1_000_000);
+
+        if (!Files.exists(Paths.get(journalFile)) && JournalSegments.lastGame(journalFile) != null)
+            journalFile = JournalSegments.lastGame(journalFile);
+        JournalReader reader = new JournalReader(journalFile);
+        if (!reader.next() || reader.type() != GameJournal.GAME_START) {
+            System.out.println(journalFile + " does not start with a game.");
+            return;
+        }
+        int players = reader.field(1);
+
+        Logger logger = Logger.getLogger("GameReplay");
+        logger.setUseParentHandlers(false);
+        Config config = new Config(logger, loadProperties(configFile, players, reader.longField(0)));
+        logger.setLevel(Level.OFF);
+        if (config.tableSize != reader.field(2) || config.deckSize != reader.field(3)) {
+            System.out.printf("the journal has a table of %d slots and %d cards, but %s has %d slots and %d cards.%n",
+                    reader.field(2), reader.field(3), configFile, config.tableSize, config.deckSize);
+            return;
+        }
+
+        Util util = new UtilImpl(config);
+        UserInterface ui = null;
+        try {
+            ui = new UserInterfaceSwing(logger, config, new Player[players]);
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            System.out.println("cannot create the swing user interface: " + e.getMessage());
+        }
+        Env env = new Env(logger, config, new UserInterfaceDecorator(logger, util, ui), util);
+
+        GameReplay replay = new GameReplay(env, reader, speed);
+        long start = System.nanoTime();
+        if (startMicros > 0) {
+            JournalIndex index = null;
+            try {
+                index = seekSegment(reader, startMicros);
+            } catch (IOException e) {
+                System.out.println("cannot read the index (" + e.getMessage() + "), seeking from the beginning.");
+            }
+            if (!replay.seek(index, startMicros)) {
+                System.out.println("the journal ends before " + startMicros / 1e6 + "s.");
+                return;
+            }
+            System.out.printf("skipped to %.3fs in %.3fs (%d records applied)%n", reader.micros() / 1e6,
+                    (System.nanoTime() - start) / 1e9, replay.records);
+        }
+        replay.replay();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.print(replay.summary(seconds));
+
+        try {
+            if (ui != null && config.endGamePauseMillies > 0) Thread.sleep(config.endGamePauseMillies);
+        } catch (InterruptedException ignored) {
+        }
+        env.scheduler.terminate();
+        env.ui.dispose();
+        System.exit(replay.mismatches == 0 ? 0 : 1);
+    }
+
+    /**
+     * Loads the configuration file, with the players of the journal and nothing that changes the replay: no human
+     * input, no table delays and no journal.
+     */
+    private static Properties loadProperties(String filename, int players, long seed) {
+        Properties properties = new Properties();
+        try (InputStream is = Files.newInputStream(Paths.get(filename))) {
+            properties.load(is);
+        } catch (IOException e) {
+            System.out.println("cannot read configuration file " + filename + ", using defaults.");
+        }
+        properties.setProperty("HumanPlayers", "0");
+        properties.setProperty("ComputerPlayers", Integer.toString(players));
+        for (int player = 0; player < players; player++)
+            properties.setProperty("PlayerKeys" + (player + 1), "");
+        properties.setProperty("Seed", Long.toString(seed));
+        properties.setProperty("TableDelaySeconds", "0");
+        properties.setProperty("Hints", "False");
+        properties.setProperty("JournalFile", ""); // the replay must not overwrite the journal it reads
+        return properties;
+    }
+
+    /**
+     * Replays the records from the current one to the end of the journal.
+     */
+    public void replay() {
+        long start = System.nanoTime();
+        long startMicros = reader.micros();
+        do {
+            if (speed > 0)
+                pace(start + (long) ((reader.micros() - startMicros) * 1000 / speed));
+            apply();
+            records++;
+        } while (reader.next());
+    }
+
+    /**
+     * Moves the reader to the segment of the game to seek a point of the game in: the last segment whose index has a
+     * keyframe before the point (the reader stays in its segment if no following segment has one).
+     *
+     * @param reader - the journal.
+     * @param micros - the point of the game (in microseconds since the journal was opened).
+     * @return - the keyframe index of the reader's segment.
+     * @throws IOException - if the index of the reader's segment cannot be read.
+     */
+    static JournalIndex seekSegment(JournalReader reader, long micros) throws IOException {
+        JournalIndex index = new JournalIndex(reader.filename());
+        String segment = null;
+        for (String following : reader.followingSegments()) {
+            JournalIndex next;
+            try {
+                next = new JournalIndex(following);
+            } catch (IOException e) {
+                continue;
+            }
+            if (next.entries() > 0 && next.micros(0) > micros)
+                break; // the keyframes of the following segments are later still
+            if (next.floorByTime(micros) >= 0) {
+                index = next;
+                segment = following;
+            }
+        }
+        if (segment != null)
+            reader.moveTo(segment);
+        return index;
+    }
+
+    /**
+     * Skips to a point of the game: restores the table and the scores from the last keyframe before the point, and
+     * applies the records from the keyframe to the point (without pacing).
+     *
+     * @param index  - the keyframe index of the journal (null to apply all the records up to the point).
+     * @param micros - the point of the game (in microseconds since the journal was opened).
+     * @return - false iff the journal ends before the point.
+     */
+    public boolean seek(JournalIndex index, long micros) {
+        int entry = index == null ? -1 : index.floorByTime(micros);
+        if (entry >= 0 && index.record(entry) > reader.record()) {
+            if (!reader.seek(index.offset(entry), index.record(entry), index.micros(entry)))
+                return false;
+            restoreKeyframe();
+            records++;
+            if (!reader.next())
+                return false;
+        }
+        while (reader.micros() < micros) {
+            apply();
+            records++;
+            if (!reader.next())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Sleeps until the given System.nanoTime().
+     */
+    private static void pace(long nanoTime) {
+        long delay = nanoTime - System.nanoTime();
+        if (delay <= 0)
+            return;
+        try {
+            Thread.sleep(delay / 1_000_000, (int) (delay % 1_000_000));
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    /**
+     * Re-executes the current record.
+     */
+    private void apply() {
+        switch (reader.type()) {
+            case GameJournal.CARD_PLACED:
+                table.placeCard(reader.field(1), reader.field(0));
+                break;
+            case GameJournal.CARD_REMOVED:
+                if (table.cardAt(reader.field(0)) != reader.field(1))
+                    mismatch("card " + reader.field(1) + " is not in slot " + reader.field(0));
+                table.removeCard(reader.field(0));
+                break;
+            case GameJournal.TOKEN_PLACED:
+                table.placeToken(reader.field(0), reader.field(1));
+                break;
+            case GameJournal.TOKEN_REMOVED:
+                if (!table.removeToken(reader.field(0), reader.field(1)))
+                    mismatch("player " + (reader.field(0) + 1) + " has no token on slot " + reader.field(1));
+                break;
+            case GameJournal.TOKENS_CLEARED:
+                table.removeTokens(reader.field(0), null);
+                break;
+            case GameJournal.CLAIM:
+                claims++;
+                break;
+            case GameJournal.VERDICT:
+                if (reader.field(1) == GameJournal.POINT)
+                    points++;
+                else if (reader.field(1) == GameJournal.PENALTY)
+                    penalties++;
+                break;
+            case GameJournal.SCORE:
+                scores[reader.field(0)] = reader.field(1);
+                env.ui.setScore(reader.field(0), reader.field(1));
+                break;
+            case GameJournal.RESHUFFLE:
+                reshuffles++;
+                break;
+            case GameJournal.CHECKSUM:
+                checksums++;
+                if (table.checksum() != reader.longField(0))
+                    mismatch("the table checksum is " + Long.toHexString(table.checksum()) + " instead of "
+                            + Long.toHexString(reader.longField(0)));
+                break;
+            case GameJournal.KEYFRAME:
+                verifyKeyframe();
+                break;
+            case GameJournal.GAME_END:
+                announceWinners();
+                break;
+            default: // GAME_START
+                break;
+        }
+    }
+
+    /**
+     * Sets the table and the scores to the current KEYFRAME record.
+     */
+    private void restoreKeyframe() {
+        int slots = reader.field(0);
+        int words = reader.field(1);
+        int tokensField = 4 + slots;
+        int scoresField = tokensField + slots * words;
+        for (int slot = 0; slot < slots; slot++)
+            if (table.cardAt(slot) != Table.EMPTY)
+                table.removeCard(slot);
+        for (int slot = 0; slot < slots; slot++) {
+            int card = reader.field(4 + slot);
+            if (card != Table.EMPTY)
+                table.placeCard(card, slot);
+            for (int word = 0; word < words; word++)
+                for (long bits = reader.longField(tokensField + slot * words + word); bits != 0; bits &= bits - 1)
+                    table.placeToken(word * 64 + Long.numberOfTrailingZeros(bits), slot);
+        }
+        for (int player = 0; player < scores.length; player++) {
+            scores[player] = reader.field(scoresField + player);
+            env.ui.setScore(player, scores[player]);
+        }
+    }
+
+    /**
+     * Checks the replayed table and scores against the current KEYFRAME record.
+     */
+    private void verifyKeyframe() {
+        keyframes++;
+        int slots = reader.field(0);
+        int words = reader.field(1);
+        int tokensField = 4 + slots;
+        int scoresField = tokensField + slots * words;
+        for (int slot = 0; slot < slots; slot++) {
+            if (table.cardAt(slot) != reader.field(4 + slot))
+                mismatch("the keyframe has card " + reader.field(4 + slot) + " in slot " + slot);
+            for (int player = 0; player < scores.length; player++) {
+                boolean token = (reader.longField(tokensField + slot * words + player / 64) & 1L << player) != 0;
+                if (table.hasToken(player, slot) != token)
+                    mismatch("the keyframe " + (token ? "has" : "does not have") + " a token of player "
+                            + (player + 1) + " on slot " + slot);
+            }
+        }
+        for (int player = 0; player < scores.length; player++)
+            if (scores[player] != reader.field(scoresField + player))
+                mismatch("the keyframe has score " + reader.field(scoresField + player) + " for player " + (player + 1));
+    }
+
+    /**
+     * Checks the winners of the current GAME_END record against the replayed scores, and displays them.
+     */
+    private void announceWinners() {
+        int maxScore = 0;
+        for (int score : scores)
+            maxScore = Math.max(maxScore, score);
+        int[] winners = new int[reader.fieldCount()];
+        int winnersWithMaxScore = 0;
+        for (int i = 0; i < winners.length; i++) {
+            winners[i] = reader.field(i);
+            if (scores[winners[i]] == maxScore)
+                winnersWithMaxScore++;
+        }
+        int playersWithMaxScore = 0;
+        for (int score : scores)
+            if (score == maxScore)
+                playersWithMaxScore++;
+        if (winnersWithMaxScore != winners.length || playersWithMaxScore != winners.length)
+            mismatch("the winners do not have the highest replayed score (" + maxScore + ")");
+        env.ui.announceWinner(winners);
+    }
+
+    private void mismatch(String what) {
+        if (++mismatches <= MAX_PRINTED_MISMATCHES)
+            System.out.printf("mismatch at offset %d (%.3fs): %s%n", reader.offset(), reader.micros() / 1e6, what);
+    }
+
+    /**
+     * @return - a text summary of the replay.
+     */
+    public String summary(double seconds) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("replayed %d records in %.2fs: %d claims (%d points, %d penalties), %d reshuffles%n",
+                records, seconds, claims, points, penalties, reshuffles));
+        sb.append(String.format("%d table checksums and %d keyframes verified, %d mismatches%n", checksums, keyframes,
+                mismatches));
+        if (reader.truncated())
+            sb.append("the journal ends with a partial record (the game did not close it).").append(System.lineSeparator());
+        return sb.toString();
+    }
+}
@@ -0,0 +1,424 @@
+package bguspl.set.ex;
+
+import bguspl.set.Config;
+import bguspl.set.Env;
+import bguspl.set.NoUserInterface;
+import bguspl.set.UtilImpl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A single-threaded discrete-event simulator of games between computer players, for analytics over many games.
+ * <p>
+ * A game runs on a virtual clock: an event queue of computer player moves, unfreezes and turn timeouts is advanced
+ * with no threads and no sleeps. The game uses the real Table, Deck, Util and computer strategies, and the Dealer's
+ * rules, except that a claim is checked as soon as it is made and the table delay takes no (virtual) time.
+ * Independent games are sharded over a fork-join pool. The random streams of each game are derived from the master
+ * seed and the game number, so the results do not depend on the sharding and the same seed gives the same games.
+ * <p>
+ * Usage: GameSimulator [games] [players] [config file] [parallelism]
+ */
+public class GameSimulator {
+
+    /**
+     * The maximal number of games a fork-join task simulates without splitting.
+     */
+    private static final int GAMES_PER_TASK = 32;
+
+    /**
+     * The virtual time after which an unfinished game is given up on (e.g. computer players that never find a set).
+     */
+    private static final long MAX_GAME_MILLIS = 24 * 60 * 60 * 1000L;
+
+    /**
+     * The event types.
+     */
+    private static final int MOVE = 0;
+    private static final int UNFREEZE = 1;
+    private static final int TIMEOUT = 2;
+
+    /**
+     * The game environment object (shared by all the games, it has no per game state).
+     */
+    private final Env env;
+
+    public GameSimulator(Env env) {
+        this.env = env;
+    }
+
+    public static void main(String[] args) {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int playerCount = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        String configFile = args.length > 2 ? args[2] : "config.properties";
+        int parallelism = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+        Logger logger = Logger.getLogger("GameSimulator");
+        logger.setUseParentHandlers(false);
+        Config config = new Config(logger, loadProperties(configFile, playerCount));
+        logger.setLevel(Level.OFF);
+        GameSimulator simulator = new GameSimulator(new Env(logger, config, new NoUserInterface(), new UtilImpl(config)));
+
+        long start = System.nanoTime();
+        Totals totals = simulator.simulate(games, new ForkJoinPool(parallelism));
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("seed %d: %d games of %d players in %.2fs (%.0f games/s on %d threads)%n",
+                config.seed, games, config.players, seconds, games / seconds, parallelism);
+        System.out.print(totals.summary());
+    }
+
+    /**
+     * Loads the configuration file and overrides it so all the players are computer players.
+     */
+    private static Properties loadProperties(String filename, int playerCount) {
+        Properties properties = new Properties();
+        try (InputStream is = Files.newInputStream(Paths.get(filename))) {
+            properties.load(is);
+        } catch (IOException e) {
+            System.out.println("cannot read configuration file " + filename + ", using defaults.");
+        }
+        properties.setProperty("HumanPlayers", "0");
+        properties.setProperty("ComputerPlayers", Integer.toString(playerCount));
+        properties.setProperty("TableDelaySeconds", "0");
+        properties.setProperty("Hints", "False");
+        properties.setProperty("JournalFile", ""); // the games share the environment, so they would share the journal
+        return properties;
+    }
+
+    /**
+     * Simulates games 0 to games - 1.
+     *
+     * @param games - the number of games.
+     * @param pool  - the pool the games are sharded over.
+     * @return - the totals of all the games.
+     */
+    public Totals simulate(int games, ForkJoinPool pool) {
+        return pool.invoke(new Shard(0, games));
+    }
+
+    /**
+     * Simulates a single game.
+     *
+     * @param game - the number of the game (its random streams are derived from it).
+     * @return - the totals of the game.
+     */
+    public Totals simulate(int game) {
+        Totals totals = new Totals(env.config.players);
+        new Game(Config.seed(env.config.seed, "game-" + game)).run(totals);
+        return totals;
+    }
+
+    /**
+     * A range of games, split in halves until it is small enough.
+     */
+    private class Shard extends RecursiveTask<Totals> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        Shard(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Totals compute() {
+            if (to - from > GAMES_PER_TASK) {
+                Shard left = new Shard(from, (from + to) >>> 1);
+                Shard right = new Shard((from + to) >>> 1, to);
+                left.fork();
+                Totals totals = right.compute();
+                totals.add(left.join());
+                return totals;
+            }
+            Totals totals = new Totals(env.config.players);
+            for (int game = from; game < to; game++)
+                new Game(Config.seed(env.config.seed, "game-" + game)).run(totals);
+            return totals;
+        }
+    }
+
+    /**
+     * An event of a game.
+     */
+    private static class Event {
+        final long time;
+        final long order; // breaks ties between events of the same time in the order they were scheduled
+        final int type;
+        final int player; // or the turn, for a timeout
+
+        Event(long time, long order, int type, int player) {
+            this.time = time;
+            this.order = order;
+            this.type = type;
+            this.player = player;
+        }
+    }
+
+    private static final Comparator<Event> EVENT_ORDER =
+            Comparator.comparingLong((Event event) -> event.time).thenComparingLong(event -> event.order);
+
+    /**
+     * The state of a single simulated game.
+     */
+    private class Game {
+
+        private final Config config = env.config;
+        private final Table table = new Table(env);
+        private final Deck deck;
+        private final Random[] randoms;
+        private final ComputerStrategy[] strategies;
+        private final PriorityQueue<Event> events = new PriorityQueue<>(EVENT_ORDER);
+
+        private final int[] scores;
+        private final int[] tokenCounts;
+        private final boolean[] frozen;
+        private final long[] owners = new long[table.tokenWords()];
+
+        /**
+         * The virtual time in milliseconds.
+         */
+        private long now;
+
+        private long scheduled;
+
+        /**
+         * The number of the current turn (a timeout of an earlier turn is ignored).
+         */
+        private int turn;
+
+        private boolean finished;
+
+        private int points;
+        private int penalties;
+        private int reshuffles;
+
+        Game(long seed) {
+            deck = new Deck(config.deckSize, new SplittableRandom(Config.seed(seed, "deck")));
+            randoms = new Random[config.players];
+            strategies = new ComputerStrategy[config.players];
+            for (int player = 0; player < config.players; player++) {
+                randoms[player] = new Random(Config.seed(seed, "computer-" + (player + 1)));
+                strategies[player] = ComputerStrategy.fromConfig(config);
+            }
+            scores = new int[config.players];
+            tokenCounts = new int[config.players];
+            frozen = new boolean[config.players];
+        }
+
+        void run(Totals totals) {
+            finished = env.util.findSets(deck.asList(), 1).isEmpty();
+            if (!finished)
+                startTurn();
+            for (int player = 0; player < config.players; player++)
+                schedule(Player.reactionTime(config, randoms[player]), MOVE, player);
+
+            while (!finished && !events.isEmpty()) {
+                Event event = events.poll();
+                now = event.time;
+                if (now > MAX_GAME_MILLIS)
+                    break;
+                switch (event.type) {
+                    case MOVE:
+                        move(event.player);
+                        schedule(Player.reactionTime(config, randoms[event.player]), MOVE, event.player);
+                        break;
+                    case UNFREEZE:
+                        frozen[event.player] = false;
+                        break;
+                    case TIMEOUT:
+                        if (event.player == turn)
+                            reshuffle();
+                        break;
+                }
+            }
+            totals.add(this);
+        }
+
+        private void schedule(long delay, int type, int player) {
+            events.add(new Event(now + delay, scheduled++, type, player));
+        }
+
+        /**
+         * Deals cards to the empty slots and starts a new turn.
+         */
+        private void startTurn() {
+            for (int slot = 0; slot < table.slots() && !deck.isEmpty(); slot++)
+                if (table.cardAt(slot) == Table.EMPTY)
+                    table.placeCard(deck.drawRandom(), slot);
+            schedule(config.turnTimeoutMillis, TIMEOUT, ++turn);
+        }
+
+        /**
+         * Returns all the cards to the deck, and ends the game if there are no sets left in it.
+         */
+        private void reshuffle() {
+            for (int slot = 0; slot < table.slots(); slot++) {
+                int card = table.cardAt(slot);
+                if (card != Table.EMPTY) {
+                    clearTokens(slot);
+                    table.removeCard(slot);
+                    deck.add(card);
+                }
+            }
+            reshuffles++;
+            finished = env.util.findSets(deck.asList(), 1).isEmpty();
+            if (!finished)
+                startTurn();
+        }
+
+        /**
+         * A move of a computer player, like Player.aiMove: the key presses take no time, so they all happen now.
+         */
+        private void move(int player) {
+            if (frozen[player])
+                return;
+            int[] chosen = strategies[player].chooseSlots(table.analysis().current(), randoms[player]);
+            boolean removed = false;
+            for (int slot = 0; slot < table.slots(); slot++)
+                if (table.cardAt(slot) != Table.EMPTY && !contains(chosen, slot) && table.removeToken(player, slot)) {
+                    tokenCounts[player]--;
+                    removed = true;
+                }
+            if (removed)
+                return;
+            for (int slot : chosen)
+                if (table.cardAt(slot) != Table.EMPTY && !table.hasToken(player, slot) && tokenCounts[player] < 3) {
+                    table.placeToken(player, slot);
+                    if (++tokenCounts[player] == 3) {
+                        claim(player);
+                        return;
+                    }
+                }
+        }
+
+        /**
+         * Checks the set of a player with 3 tokens, like Dealer.checkSet.
+         */
+        private void claim(int player) {
+            int[] cards = new int[3];
+            int[] slots = new int[3];
+            for (int slot = 0, found = 0; slot < table.slots() && found < 3; slot++)
+                if (table.hasToken(player, slot)) {
+                    slots[found] = slot;
+                    cards[found++] = table.cardAt(slot);
+                }
+            if (env.util.testSet(cards)) {
+                for (int slot : slots) {
+                    clearTokens(slot);
+                    table.removeCard(slot);
+                }
+                scores[player]++;
+                points++;
+                startTurn();
+                freeze(player, config.pointFreezeMillis);
+            } else {
+                penalties++;
+                freeze(player, config.penaltyFreezeMillis);
+            }
+        }
+
+        private void clearTokens(int slot) {
+            table.removeTokens(slot, owners);
+            for (int i = 0; i < owners.length; i++)
+                for (long word = owners[i]; word != 0; word &= word - 1)
+                    tokenCounts[i * 64 + Long.numberOfTrailingZeros(word)]--;
+        }
+
+        private void freeze(int player, long millis) {
+            frozen[player] = true;
+            schedule(millis, UNFREEZE, player);
+        }
+    }
+
+    private static boolean contains(int[] slots, int slot) {
+        for (int s : slots)
+            if (s == slot)
+                return true;
+        return false;
+    }
+
+    /**
+     * The totals of a number of games, in primitive accumulators.
+     */
+    public static class Totals {
+
+        public long games;
+        public long unfinished;
+        public long ties;
+        public long points;
+        public long penalties;
+        public long reshuffles;
+        public long virtualMillis;
+        public long maxVirtualMillis;
+
+        /**
+         * The number of games each player won (alone or in a tie).
+         */
+        public final long[] wins;
+
+        Totals(int players) {
+            wins = new long[players];
+        }
+
+        void add(Game game) {
+            games++;
+            if (!game.finished)
+                unfinished++;
+            points += game.points;
+            penalties += game.penalties;
+            reshuffles += game.reshuffles;
+            virtualMillis += game.now;
+            maxVirtualMillis = Math.max(maxVirtualMillis, game.now);
+            int best = 0;
+            for (int score : game.scores)
+                best = Math.max(best, score);
+            int winners = 0;
+            for (int player = 0; player < wins.length; player++)
+                if (game.scores[player] == best) {
+                    wins[player]++;
+                    winners++;
+                }
+            if (winners > 1)
+                ties++;
+        }
+
+        void add(Totals other) {
+            games += other.games;
+            unfinished += other.unfinished;
+            ties += other.ties;
+            points += other.points;
+            penalties += other.penalties;
+            reshuffles += other.reshuffles;
+            virtualMillis += other.virtualMillis;
+            maxVirtualMillis = Math.max(maxVirtualMillis, other.maxVirtualMillis);
+            for (int player = 0; player < wins.length; player++)
+                wins[player] += other.wins[player];
+        }
+
+        public String summary() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("game length: mean %.1fs, max %.1fs (virtual time); %d unfinished%n",
+                    virtualMillis / 1000.0 / games, maxVirtualMillis / 1000.0, unfinished));
+            sb.append(String.format("per game: %.2f points, %.2f penalties, %.2f reshuffles; %.1f%% ties%n",
+                    (double) points / games, (double) penalties / games, (double) reshuffles / games,
+                    100.0 * ties / games));
+            for (int player = 0; player < wins.length; player++)
+                sb.append(String.format("player %d won %.1f%%%n", player + 1, 100.0 * wins[player] / games));
+            return sb.toString();
+        }
+    }
+}
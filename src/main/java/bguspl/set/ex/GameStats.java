@@ -0,0 +1,276 @@
+package bguspl.set.ex;
+
+import bguspl.set.Env;
+import bguspl.set.UtilTimer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live statistics of a single game, exposed as a JMX MBean (bguspl.set:type=Game,name=game-N) and optionally
+ * exported to a memory mapped file (see StatsExporter).
+ * The dealer and player threads only update counters; everything else is computed when the MBean is read.
+ */
+public class GameStats implements GameStatsMBean {
+
+    /**
+     * The number of games created so far (used to name the MBeans).
+     */
+    private static final AtomicInteger games = new AtomicInteger();
+
+    /**
+     * The game environment object.
+     */
+    private final Env env;
+
+    private final Dealer dealer;
+    private final Player[] players;
+
+    private final LongAdder validClaims = new LongAdder();
+    private final LongAdder invalidClaims = new LongAdder();
+    private final LongAdder reshuffles = new LongAdder();
+
+    /**
+     * The number of claims and penalties per player (updated by the dealer thread only).
+     */
+    private final long[] playerClaims;
+    private final long[] playerPenalties;
+
+    /**
+     * The statistics file exporter (null if there is no export).
+     */
+    private volatile StatsExporter exporter;
+
+    /**
+     * The time the game started.
+     */
+    private final long startMillis = System.currentTimeMillis();
+
+    /**
+     * The name of the registered MBean (null if not registered).
+     */
+    private ObjectName name;
+
+    public GameStats(Env env, Dealer dealer, Player[] players) {
+        this.env = env;
+        this.dealer = dealer;
+        this.players = players;
+        this.playerClaims = new long[env.config.players];
+        this.playerPenalties = new long[env.config.players];
+    }
+
+    /**
+     * Starts publishing the statistics: registers the MBean and opens the statistics file (if configured).
+     */
+    public void start() {
+        register();
+        if (!env.config.statsFile.isEmpty()) try {
+            exporter = new StatsExporter(env.config.statsFile, env.config.players);
+            exporter.dealerState(StatsExporter.STATE_STARTING);
+            env.scheduler.schedule(this::exportLatencies, env.config.statsExportMillis);
+        } catch (IOException e) {
+            env.logger.warning("cannot export statistics to " + env.config.statsFile + ": " + e);
+        }
+    }
+
+    /**
+     * Stops publishing the statistics.
+     */
+    public void stop() {
+        unregister();
+        StatsExporter exporter = this.exporter;
+        if (exporter != null) {
+            this.exporter = null;
+            exporter.latencies(dealer.latencies());
+            exporter.dealerState(StatsExporter.STATE_FINISHED);
+            exporter.close();
+        }
+    }
+
+    /**
+     * Copies the latency histograms to the statistics file, and schedules the next copy (runs on the scheduler).
+     */
+    private void exportLatencies() {
+        StatsExporter exporter = this.exporter;
+        if (exporter != null) {
+            exporter.latencies(dealer.latencies());
+            env.scheduler.schedule(this::exportLatencies, env.config.statsExportMillis);
+        }
+    }
+
+    /**
+     * Registers the MBean in the platform MBean server.
+     */
+    private void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            name = new ObjectName("bguspl.set:type=Game,name=game-" + games.incrementAndGet());
+            server.registerMBean(this, name);
+        } catch (JMException e) {
+            env.logger.warning("cannot register game statistics MBean: " + e);
+            name = null;
+        }
+    }
+
+    /**
+     * Unregisters the MBean from the platform MBean server.
+     */
+    private void unregister() {
+        if (name == null)
+            return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            env.logger.warning("cannot unregister game statistics MBean: " + e);
+        }
+        name = null;
+    }
+
+    /**
+     * Counts a claim checked by the dealer (called by the dealer thread).
+     *
+     * @param player - the player who made the claim.
+     * @param valid  - true iff the claim was a legal set.
+     */
+    public void claimChecked(int player, boolean valid) {
+        if (valid)
+            validClaims.increment();
+        else
+            invalidClaims.increment();
+        playerClaims[player]++;
+        if (!valid)
+            playerPenalties[player]++;
+        StatsExporter exporter = this.exporter;
+        if (exporter != null) {
+            exporter.claims(validClaims.sum(), invalidClaims.sum());
+            exporter.playerClaims(player, playerClaims[player], playerPenalties[player]);
+        }
+    }
+
+    /**
+     * Counts a reshuffle of the deck (called by the dealer thread).
+     */
+    public void reshuffled() {
+        reshuffles.increment();
+        StatsExporter exporter = this.exporter;
+        if (exporter != null)
+            exporter.reshuffles(reshuffles.sum());
+    }
+
+    /**
+     * Publishes the state of the dealer (called by the dealer thread).
+     *
+     * @param state - one of the StatsExporter.STATE_* values.
+     */
+    public void dealerState(int state) {
+        StatsExporter exporter = this.exporter;
+        if (exporter != null) {
+            exporter.dealerState(state);
+            exporter.deckRemaining(dealer.deckSize());
+        }
+    }
+
+    /**
+     * Publishes the score of a player (called by the player's thread, or by the dealer thread before it starts).
+     */
+    public void scoreChanged(int player, int score) {
+        StatsExporter exporter = this.exporter;
+        if (exporter != null)
+            exporter.score(player, score);
+    }
+
+    /**
+     * Publishes the freeze state of a player (called by the player's thread and by the scheduler thread).
+     */
+    public void frozenChanged(int player, boolean frozen) {
+        StatsExporter exporter = this.exporter;
+        if (exporter != null)
+            exporter.frozen(player, frozen);
+    }
+
+    @Override
+    public long getClaims() {
+        return validClaims.sum() + invalidClaims.sum();
+    }
+
+    @Override
+    public long getValidClaims() {
+        return validClaims.sum();
+    }
+
+    @Override
+    public long getInvalidClaims() {
+        return invalidClaims.sum();
+    }
+
+    @Override
+    public double getClaimsPerSecond() {
+        long elapsed = System.currentTimeMillis() - startMillis;
+        return elapsed > 0 ? getClaims() * 1000.0 / elapsed : 0;
+    }
+
+    @Override
+    public long getReshuffles() {
+        return reshuffles.sum();
+    }
+
+    @Override
+    public int getDeckRemaining() {
+        return dealer.deckSize();
+    }
+
+    @Override
+    public int getPlayersQueueDepth() {
+        return dealer.getPlayersQueue().size();
+    }
+
+    @Override
+    public String[] getPlayerNames() {
+        return env.config.playerNames.clone();
+    }
+
+    @Override
+    public int[] getScores() {
+        int[] scores = new int[players.length];
+        for (int i = 0; i < players.length; i++)
+            scores[i] = players[i].score();
+        return scores;
+    }
+
+    @Override
+    public boolean[] getFrozen() {
+        boolean[] frozen = new boolean[players.length];
+        for (int i = 0; i < players.length; i++)
+            frozen[i] = players[i].isFrozen();
+        return frozen;
+    }
+
+    @Override
+    public long getTestSetCalls() {
+        return env.util instanceof UtilTimer ? ((UtilTimer) env.util).testSetCalls() : -1;
+    }
+
+    @Override
+    public double getTestSetAverageMicros() {
+        if (!(env.util instanceof UtilTimer)) return -1;
+        UtilTimer timer = (UtilTimer) env.util;
+        return timer.testSetCalls() > 0 ? timer.testSetNanos() / 1000.0 / timer.testSetCalls() : 0;
+    }
+
+    @Override
+    public long getFindSetsCalls() {
+        return env.util instanceof UtilTimer ? ((UtilTimer) env.util).findSetsCalls() : -1;
+    }
+
+    @Override
+    public double getFindSetsAverageMicros() {
+        if (!(env.util instanceof UtilTimer)) return -1;
+        UtilTimer timer = (UtilTimer) env.util;
+        return timer.findSetsCalls() > 0 ? timer.findSetsNanos() / 1000.0 / timer.findSetsCalls() : 0;
+    }
+}
@@ -0,0 +1,35 @@
+package bguspl.set.ex;
+
+/**
+ * The management interface of the live game statistics (see GameStats).
+ */
+public interface GameStatsMBean {
+
+    long getClaims();
+
+    long getValidClaims();
+
+    long getInvalidClaims();
+
+    double getClaimsPerSecond();
+
+    long getReshuffles();
+
+    int getDeckRemaining();
+
+    int getPlayersQueueDepth();
+
+    String[] getPlayerNames();
+
+    int[] getScores();
+
+    boolean[] getFrozen();
+
+    long getTestSetCalls();
+
+    double getTestSetAverageMicros();
+
+    long getFindSetsCalls();
+
+    double getFindSetsAverageMicros();
+}
@@ -0,0 +1,165 @@
+package bguspl.set.ex;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A fixed capacity single-producer/single-consumer ring of key presses (slot numbers).
+ * The producer is the thread delivering the player's input (the keyboard thread or the scheduler thread), and the
+ * consumer is the player thread. Neither side takes a lock or allocates memory.
+ *
+ * @inv 0 <= tail - head <= capacity
+ */
+public class KeyPressRing {
+
+    /**
+     * What to do with a key press when the ring is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Drop the new key press.
+         */
+        DROP_NEWEST,
+        /**
+         * Drop the oldest key press in the ring to make room for the new one.
+         */
+        DROP_OLDEST
+    }
+
+    /**
+     * The ring buffer (its length is a power of 2, at least capacity).
+     */
+    private final int[] slots;
+
+    /**
+     * The System.nanoTime() of each key press in the ring.
+     */
+    private final long[] times;
+
+    private final int mask;
+
+    /**
+     * The maximal number of key presses in the ring.
+     */
+    private final int capacity;
+
+    private final OverflowPolicy policy;
+
+    /**
+     * The index of the next key press to take (advanced by the consumer, and by the producer when dropping).
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * The index of the next key press to put (advanced by the producer only).
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * The number of key presses dropped because the ring was full (written by the producer only).
+     */
+    private volatile long dropped;
+
+    /**
+     * The consumer thread while it is parked waiting for a key press (null otherwise).
+     */
+    private volatile Thread waiting;
+
+    /**
+     * The time the last key press taken was put in the ring (accessed by the consumer only).
+     */
+    private long takenTime;
+
+    public KeyPressRing(int capacity, OverflowPolicy policy) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("key press ring capacity must be positive: " + capacity);
+        this.capacity = capacity;
+        this.policy = policy;
+        this.slots = new int[Integer.highestOneBit(Math.max(1, capacity - 1)) << 1];
+        this.times = new long[slots.length];
+        this.mask = slots.length - 1;
+    }
+
+    /**
+     * Puts a key press in the ring (called by the producer only).
+     *
+     * @param slot - the slot corresponding to the key pressed.
+     * @return - true iff the key press was put in the ring.
+     */
+    public boolean offer(int slot) {
+        long t = tail.get();
+        long h = head.get();
+        if (t - h >= capacity) {
+            if (policy == OverflowPolicy.DROP_NEWEST) {
+                dropped++;
+                return false;
+            }
+            // the consumer may take the oldest key press concurrently, in which case there is room already
+            if (head.compareAndSet(h, h + 1))
+                dropped++;
+        }
+        slots[(int) t & mask] = slot;
+        times[(int) t & mask] = System.nanoTime();
+        tail.set(t + 1);
+
+        Thread consumer = waiting;
+        if (consumer != null)
+            LockSupport.unpark(consumer);
+        return true;
+    }
+
+    /**
+     * Takes the oldest key press from the ring, waiting for one if the ring is empty (called by the consumer only).
+     *
+     * @return - the slot corresponding to the key pressed.
+     * @throws InterruptedException - if the consumer thread was interrupted while waiting.
+     */
+    public int take() throws InterruptedException {
+        while (true) {
+            long h = head.get();
+            if (h < tail.get()) {
+                int slot = slots[(int) h & mask];
+                long time = times[(int) h & mask];
+                if (head.compareAndSet(h, h + 1)) { // fails iff the producer dropped this key press meanwhile
+                    takenTime = time;
+                    return slot;
+                }
+                continue;
+            }
+            waiting = Thread.currentThread();
+            if (head.get() >= tail.get())
+                LockSupport.park(this);
+            waiting = null;
+            if (Thread.interrupted())
+                throw new InterruptedException();
+        }
+    }
+
+    /**
+     * @return - the System.nanoTime() when the last key press taken was put in the ring (called by the consumer only).
+     */
+    public long takenTime() {
+        return takenTime;
+    }
+
+    /**
+     * @return - true iff there are no key presses in the ring.
+     */
+    public boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+
+    /**
+     * @return - the number of key presses in the ring.
+     */
+    public int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    /**
+     * @return - the number of key presses dropped because the ring was full.
+     */
+    public long dropped() {
+        return dropped;
+    }
+}
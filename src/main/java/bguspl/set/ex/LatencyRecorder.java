@@ -0,0 +1,188 @@
+package bguspl.set.ex;
+
+import bguspl.set.Env;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class records the latencies of the stages a claim goes through, from the key press to the end of the freeze.
+ * Each stage has a lock-free log-linear histogram (about 12% precision), so recording costs a couple of atomic
+ * increments and can be done from any thread.
+ */
+public class LatencyRecorder {
+
+    /**
+     * The stages of a claim.
+     */
+    public enum Stage {
+        KEY_PRESS("key press -> taken by player"),
+        CLAIM("third key press -> claim enqueued"),
+        DEALER_DEQUEUE("claim enqueued -> taken by dealer"),
+        VERDICT("taken by dealer -> verdict"),
+        KEY_TO_VERDICT("third key press -> verdict"),
+        UNFREEZE("verdict -> unfreeze");
+
+        public final String description;
+
+        Stage(String description) {
+            this.description = description;
+        }
+    }
+
+    /**
+     * The number of sub-buckets per power of 2 (as a power of 2).
+     */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    /**
+     * The game environment object.
+     */
+    private final Env env;
+
+    /**
+     * The latency budget in nanoseconds (0 for no budget).
+     */
+    private final long budgetNanos;
+
+    /**
+     * The histogram buckets of all stages (stage * BUCKETS + bucket).
+     */
+    private final AtomicLongArray buckets = new AtomicLongArray(Stage.values().length * BUCKETS);
+
+    private final AtomicLongArray max = new AtomicLongArray(Stage.values().length);
+
+    /**
+     * The number of times each stage exceeded the latency budget.
+     */
+    private final AtomicLongArray exceeded = new AtomicLongArray(Stage.values().length);
+
+    private final AtomicLong records = new AtomicLong();
+
+    public LatencyRecorder(Env env) {
+        this.env = env;
+        this.budgetNanos = env.config.latencyBudgetMillis * 1_000_000L;
+    }
+
+    /**
+     * Records the latency of a stage that started at the given time.
+     *
+     * @param stage      - the stage.
+     * @param startNanos - the System.nanoTime() at the beginning of the stage (0 if unknown, nothing is recorded).
+     */
+    public void record(Stage stage, long startNanos) {
+        if (startNanos != 0)
+            recordNanos(stage, Math.max(0, System.nanoTime() - startNanos));
+    }
+
+    /**
+     * Records a latency of a stage.
+     *
+     * @param stage - the stage.
+     * @param nanos - the latency in nanoseconds.
+     */
+    void recordNanos(Stage stage, long nanos) {
+        buckets.incrementAndGet(stage.ordinal() * BUCKETS + bucket(nanos));
+        records.incrementAndGet();
+        long previous;
+        while (nanos > (previous = max.get(stage.ordinal())) && !max.compareAndSet(stage.ordinal(), previous, nanos)) {
+        }
+
+        if (budgetNanos > 0 && nanos > budgetNanos) {
+            long count = exceeded.incrementAndGet(stage.ordinal());
+            if (Long.bitCount(count) == 1) // warn on the 1st, 2nd, 4th, 8th... time only
+                env.logger.warning("latency budget exceeded (" + count + " times) at stage " + stage.description
+                        + ": " + nanos / 1_000_000.0 + "ms");
+        }
+    }
+
+    /**
+     * Maps a latency to its histogram bucket.
+     */
+    static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS)
+            return (int) nanos;
+        int magnitude = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BUCKET_BITS;
+        return (magnitude + 1) * SUB_BUCKETS + (int) ((nanos >>> magnitude) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * Maps a histogram bucket to the highest latency it holds.
+     */
+    static long bucketMax(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int magnitude = bucket / SUB_BUCKETS - 1;
+        return ((long) (SUB_BUCKETS + bucket % SUB_BUCKETS + 1) << magnitude) - 1;
+    }
+
+    /**
+     * @param stage - the stage.
+     * @return - the number of latencies recorded for the stage.
+     */
+    public long count(Stage stage) {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++)
+            count += buckets.get(stage.ordinal() * BUCKETS + i);
+        return count;
+    }
+
+    /**
+     * Returns a percentile of the latencies recorded for a stage.
+     *
+     * @param stage      - the stage.
+     * @param percentile - the percentile (between 0 and 100).
+     * @return - the latency in nanoseconds (an upper bound within the histogram precision).
+     */
+    public long percentile(Stage stage, double percentile) {
+        long count = count(stage);
+        long rank = (long) Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(stage.ordinal() * BUCKETS + i);
+            if (seen >= rank && seen > 0)
+                return Math.min(bucketMax(i), max.get(stage.ordinal()));
+        }
+        return 0;
+    }
+
+    /**
+     * Returns a coarse histogram of a stage in milliseconds: bucket b counts the latencies below 2^b milliseconds
+     * (and not below 2^(b-1)), and the last bucket also counts all the latencies above it.
+     *
+     * @param stage   - the stage.
+     * @param buckets - the number of buckets.
+     * @return - the histogram.
+     */
+    public long[] millisHistogram(Stage stage, int buckets) {
+        long[] histogram = new long[buckets];
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = this.buckets.get(stage.ordinal() * BUCKETS + i);
+            if (count == 0)
+                continue;
+            long millis = bucketMax(i) / 1_000_000L;
+            histogram[Math.min(buckets - 1, 64 - Long.numberOfLeadingZeros(millis))] += count;
+        }
+        return histogram;
+    }
+
+    /**
+     * Writes the latency summary of all stages to the log.
+     */
+    public void dump() {
+        env.logger.info("claim latencies (" + records.get() + " records):");
+        for (Stage stage : Stage.values()) {
+            long count = count(stage);
+            if (count == 0)
+                continue;
+            env.logger.info(String.format("  %-36s count: %d, p50: %.3fms, p99: %.3fms, p99.9: %.3fms, max: %.3fms%s",
+                    stage.description, count, percentile(stage, 50) / 1e6, percentile(stage, 99) / 1e6,
+                    percentile(stage, 99.9) / 1e6, max.get(stage.ordinal()) / 1e6,
+                    exceeded.get(stage.ordinal()) > 0 ? ", over budget: " + exceeded.get(stage.ordinal()) : ""));
+        }
+    }
+}
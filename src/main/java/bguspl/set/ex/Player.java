@@ -1,11 +1,11 @@
 package bguspl.set.ex;
 
 import java.util.*;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Level;
 
+import bguspl.set.Config;
 import bguspl.set.Env;
+import bguspl.set.TraceRecorder;
 
 /**
  * This class manages the players' threads and data
@@ -15,6 +15,12 @@ import bguspl.set.Env;
  */
 public class Player implements Runnable {
 
+    /**
+     * The call sites that acquire the table monitor (see TableLockProfiler).
+     */
+    private static final TableLockProfiler.Site REMOVE_TOKEN_SITE = new TableLockProfiler.Site("Player.removeToken");
+    private static final TableLockProfiler.Site PLACE_TOKEN_SITE = new TableLockProfiler.Site("Player.placeToken");
+
     /**
      * The game environment object.
      */
@@ -36,9 +42,14 @@ public class Player implements Runnable {
     private Thread playerThread;
 
     /**
-     * The thread of the AI (computer) player (an additional thread used to generate key presses).
+     * The random generator of the AI (computer) player.
+     */
+    private Random aiRandom;
+
+    /**
+     * The strategy of the AI (computer) player.
      */
-    private Thread aiThread;
+    private ComputerStrategy strategy;
     /**
      * True iff the player is human (not a computer player).
      */
@@ -51,12 +62,52 @@ public class Player implements Runnable {
     /**
      * The current score of the player.
      */
-    private int score;
+    private volatile int score;
     private Dealer dealer;
-    private BlockingQueue<Integer> keyPressesTokens;
+    private KeyPressRing keyPressesTokens;
     private int[] potentialSet;
 
-    private int frozenState;
+    private volatile int frozenState;
+
+    /**
+     * True while the player is frozen after a point or a penalty.
+     */
+    private volatile boolean frozen;
+
+    /**
+     * The time the current freeze ends (System.currentTimeMillis()).
+     */
+    private volatile long freezeEnd;
+
+    /**
+     * The freeze time (in milliseconds) of a player restored from a checkpoint, applied when the player thread starts.
+     */
+    private long restoredFreezeMillis;
+
+    /**
+     * The beginning of the current freeze span in the trace (0 if not tracing).
+     */
+    private volatile long freezeStart;
+
+    /**
+     * True while the player waits for the dealer to check its set.
+     */
+    private volatile boolean claimPending;
+
+    /**
+     * The System.nanoTime() of the key press that completed the pending claim.
+     */
+    volatile long claimKeyTime;
+
+    /**
+     * The System.nanoTime() when the pending claim was handed to the dealer.
+     */
+    volatile long claimEnqueueTime;
+
+    /**
+     * The System.nanoTime() of the dealer's last verdict on the player's claim.
+     */
+    volatile long verdictTime;
 
     private int potentialSetSize;
 
@@ -77,13 +128,16 @@ public class Player implements Runnable {
         this.table = table;
         this.id = id;
         this.human = human;
-        this.keyPressesTokens = new LinkedBlockingQueue<Integer>();
+        this.keyPressesTokens = new KeyPressRing(env.config.keyQueueCapacity,
+                KeyPressRing.OverflowPolicy.valueOf(env.config.keyQueueOverflowPolicy));
         this.potentialSet = new int[3];
         for (int i = 0; i < 3; i++) {
             potentialSet[i] = -1;
         }
         this.frozenState = 0;
         this.potentialSetSize = 0;
+        if (!human)
+            this.strategy = ComputerStrategy.fromConfig(env.config);
     }
 
     /**
@@ -92,88 +146,169 @@ public class Player implements Runnable {
     @Override
     public void run() {
         playerThread = Thread.currentThread();
+        dealer.watchdog().register(Watchdog.player(id), playerThread);
         env.logger.info("Thread " + Thread.currentThread().getName() + " starting.");
         if (!human) {
             createArtificialIntelligence();
         }
+        if (restoredFreezeMillis > 0)
+            freeze(restoredFreezeMillis);
+        if (getPotentialSetSize() == 3) {
+            // the claim of a player restored from a checkpoint is checked again
+            checkPlayer();
+            applyVerdict();
+        }
         while (!terminate) {
-            //TODO: check tokens list, add tokens to the table and check if we reached 3 tokens notify dealer and send him/her tokens
-            //check if player is frozen:
-            if (keyPressesTokens.size() > 0) {
-                int token = keyPressesTokens.remove();
-                if (table.getSlotToCard()[token] != null) {
-                    int card = table.slotToCard[token];
-                    if (potentialSetContains(card)) {
-                        removeFromPotentialSet(card);
-                        synchronized (table) {
-                            table.removeToken(id, token);
-                        }
-                    } else if (potentialSetSize < 3) {
-                        synchronized (table) {
+            int token;
+            dealer.watchdog().idle(Watchdog.player(id));
+            try {
+                token = keyPressesTokens.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            dealer.watchdog().heartbeat(Watchdog.player(id));
+            dealer.latencies().record(LatencyRecorder.Stage.KEY_PRESS, keyPressesTokens.takenTime());
+            int card = table.cardAt(token);
+            if (card != Table.EMPTY) {
+                if (potentialSetContains(card)) {
+                    removeFromPotentialSet(card);
+                    long wait = table.lockRequested();
+                    synchronized (table) {
+                        long held = table.lockAcquired(REMOVE_TOKEN_SITE, wait);
+                        table.removeToken(id, token);
+                        table.lockReleased(REMOVE_TOKEN_SITE, held);
+                    }
+                } else if (potentialSetSize < 3) {
+                    long wait = table.lockRequested();
+                    synchronized (table) {
+                        long held = table.lockAcquired(PLACE_TOKEN_SITE, wait);
+                        // the dealer may have taken the card away while the player waited for the table
+                        if (table.cardAt(token) == card) {
                             table.placeToken(id, token);
                             addToPotentialSet(card);
                         }
-                        if (potentialSetSize == 3) {
-                            checkPlayer();
-                        }
-                    }
-
-                    if (frozenState == 1) {
-                        point();
-                        frozenState = 0;
+                        table.lockReleased(PLACE_TOKEN_SITE, held);
                     }
-
-                    if (frozenState == 3) {
-                        penalty();
-                        frozenState = 0;
+                    if (potentialSetSize == 3) {
+                        claimKeyTime = keyPressesTokens.takenTime();
+                        checkPlayer();
                     }
                 }
+
+                applyVerdict();
             }
         }
 
-        if (!human) try {
-            aiThread.join();
-        } catch (InterruptedException ignored) {
-        }
+        dealer.watchdog().idle(Watchdog.player(id));
+        if (keyPressesTokens.dropped() > 0)
+            env.logger.info("player " + (id + 1) + " dropped " + keyPressesTokens.dropped() + " key presses.");
         env.logger.info("thread " + Thread.currentThread().getName() + " terminated.");
     }
 
     /**
-     * Creates an additional thread for an AI (computer) player. The main loop of this thread repeatedly generates
-     * key presses. If the queue of key presses is full, the thread waits until it is not full.
+     * Applies the dealer's verdict on the player's last claim (if any).
+     */
+    private void applyVerdict() {
+        if (frozenState == 1) {
+            point();
+            frozenState = 0;
+        }
+
+        if (frozenState == 3) {
+            penalty();
+            frozenState = 0;
+        }
+    }
+
+    /**
+     * Starts the AI (computer) player. The player's moves are scheduled on the game scheduler: each move happens
+     * after a reaction time, asks the strategy where to put the tokens given the shared table analysis, and presses
+     * those slots. Nothing is pressed while the player is frozen, waiting for the dealer or still has pending key
+     * presses.
      */
     private void createArtificialIntelligence() {
-        // note: this is a very very smart AI (!)
-        aiThread = new Thread(() -> {
-            env.logger.info("Thread " + Thread.currentThread().getName() + " starting.");
-            while (!terminate) {
-                // TODO implement player key press simulator
-                Random random = new Random();
-                int slot = random.nextInt(env.config.tableSize);
+        aiRandom = new Random(env.config.seed("computer-" + (id + 1)));
+        env.scheduler.schedule(this::aiMove, reactionTime(env.config, aiRandom));
+    }
+
+    /**
+     * A single move of the AI (computer) player (runs on the scheduler thread).
+     */
+    private void aiMove() {
+        if (terminate)
+            return;
+        if (!frozen && frozenState == 0 && !claimPending && keyPressesTokens.isEmpty())
+            pressSlots(strategy.chooseSlots(table.analysis().current(), aiRandom));
+        env.scheduler.schedule(this::aiMove, reactionTime(env.config, aiRandom));
+    }
+
+    /**
+     * Draws the time the computer player takes to react, according to the configured distribution.
+     *
+     * @param config - the game configuration.
+     * @param random - the random generator of the computer player.
+     * @return - the reaction time in milliseconds.
+     */
+    static long reactionTime(Config config, Random random) {
+        long mean = config.computerReactionMillis;
+        long jitter = config.computerReactionJitterMillis;
+        double millis;
+        switch (config.computerReactionDistribution) {
+            case "uniform":
+                millis = mean - jitter + random.nextDouble() * 2 * jitter;
+                break;
+            case "exponential":
+                millis = mean - jitter + jitter * -Math.log(1 - random.nextDouble());
+                break;
+            case "fixed":
+                millis = mean;
+                break;
+            default:
+                millis = mean + random.nextGaussian() * jitter;
+        }
+        return Math.max(1, (long) millis);
+    }
 
+    /**
+     * Presses the keys needed to get the player's tokens on the given slots. Tokens which are not on the chosen
+     * slots are removed first, so the chosen slots are pressed only once the stale tokens are gone.
+     *
+     * @param chosen - the slots the player wants its tokens on.
+     */
+    private void pressSlots(int[] chosen) {
+        boolean removed = false;
+        for (int slot = 0; slot < table.slots(); slot++) {
+            int card = table.cardAt(slot);
+            if (card != Table.EMPTY && potentialSetContains(card) && !contains(chosen, slot)) {
                 keyPressed(slot);
+                removed = true;
             }
-            env.logger.info("Thread " + Thread.currentThread().getName() + " terminated.");
-        }, "computer-" + id);
-        aiThread.start();
+        }
+        if (removed)
+            return;
+        for (int slot : chosen) {
+            int card = table.cardAt(slot);
+            if (card != Table.EMPTY && !potentialSetContains(card))
+                keyPressed(slot);
+        }
+    }
+
+    private static boolean contains(int[] slots, int slot) {
+        for (int s : slots)
+            if (s == slot)
+                return true;
+        return false;
     }
 
     /**
      * Called when the game should be terminated.
      */
     public void terminate() {
+        terminate = true;
         try {
-            playerThread.interrupt();
-            terminate = true;
+            if (playerThread != null) playerThread.interrupt();
         } catch (SecurityException e) {
         }
-        if (!human) {
-            try {
-                aiThread.interrupt();
-                terminate = true;
-            } catch (SecurityException e) {
-            }
-        }
     }
 
     /**
@@ -182,9 +317,9 @@ public class Player implements Runnable {
      * @param slot - the slot corresponding to the key pressed.
      */
     public void keyPressed(int slot) {
-        if (frozenState == 0) {
-            if (table.slotToCard[slot] != null && keyPressesTokens.size() < 3) {
-                keyPressesTokens.add(slot);
+        if (frozenState == 0 && !frozen) {
+            if (table.cardAt(slot) != Table.EMPTY) {
+                keyPressesTokens.offer(slot);
             }
         }
     }
@@ -196,13 +331,22 @@ public class Player implements Runnable {
      * @post - the player's score is updated in the ui.
      */
     public void point() {
-        // TODO implement
-        env.ui.setScore(id, ++score);
-        long timer = System.currentTimeMillis() + env.config.pointFreezeMillis + 1000;
-        while (System.currentTimeMillis() < timer - 1000) {
-            env.ui.setFreeze(id, timer - System.currentTimeMillis());
+        GameEvents.Verdict event = new GameEvents.Verdict();
+        event.begin();
+        synchronized (this) {
+            // the score and the verdict change together, for GameCheckpoint
+            score++;
+            frozenState = 0;
         }
-        env.ui.setFreeze(id, -1000);
+        env.ui.setScore(id, score);
+        dealer.stats().scoreChanged(id, score);
+        env.journal.score(id, score);
+        freeze(env.config.pointFreezeMillis);
+        event.player = id;
+        event.point = true;
+        event.score = score;
+        event.freezeMillis = env.config.pointFreezeMillis;
+        event.commit();
         int ignored = table.countCards(); // this part is just for demonstration in the unit tests
 
     }
@@ -211,18 +355,101 @@ public class Player implements Runnable {
      * Penalize a player and perform other related actions.
      */
     public void penalty() {
-        long timer = System.currentTimeMillis() + env.config.penaltyFreezeMillis + 1000;
-        while (System.currentTimeMillis() < timer - 1000) {
-            env.ui.setFreeze(id, timer - System.currentTimeMillis());
+        GameEvents.Verdict event = new GameEvents.Verdict();
+        event.begin();
+        freeze(env.config.penaltyFreezeMillis);
+        event.player = id;
+        event.score = score;
+        event.freezeMillis = env.config.penaltyFreezeMillis;
+        event.commit();
+    }
+
+    /**
+     * Freezes the player for the given time. The freeze display updates and the end of the freeze are scheduled on
+     * the game scheduler, so the player thread does not wait for them.
+     *
+     * @param millis - the freeze time in milliseconds.
+     */
+    private void freeze(long millis) {
+        frozen = true;
+        freezeStart = TraceRecorder.begin();
+        dealer.stats().frozenChanged(id, true);
+        freezeEnd = System.currentTimeMillis() + millis;
+        freezeTick(freezeEnd);
+    }
+
+    /**
+     * Updates the freeze display and schedules the next update, or unfreezes the player if the freeze is over.
+     *
+     * @param end - the time the freeze ends.
+     */
+    private void freezeTick(long end) {
+        long remaining = end - System.currentTimeMillis();
+        if (remaining <= 0 || terminate) {
+            env.ui.setFreeze(id, -1000);
+            frozen = false;
+            dealer.stats().frozenChanged(id, false);
+            TraceRecorder.end("frozen", playerThread, freezeStart);
+            dealer.latencies().record(LatencyRecorder.Stage.UNFREEZE, verdictTime);
+        } else {
+            env.ui.setFreeze(id, remaining + 1000);
+            env.scheduler.schedule(() -> freezeTick(end), Math.min(remaining, 1000));
         }
-        env.ui.setFreeze(id, -1000);
     }
 
     public int score() {
         return score;
     }
 
-    public Queue<Integer> getKeyPressesTokens() {
+    /**
+     * @return - true iff the player is frozen after a point or a penalty.
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * @return - the remaining freeze time (in milliseconds, 0 if the player is not frozen).
+     */
+    public long freezeRemaining() {
+        return frozen ? Math.max(0, freezeEnd - System.currentTimeMillis()) : 0;
+    }
+
+    /**
+     * Restores the score and the freeze of the player from a checkpoint (must be called before the player thread
+     * starts). The tokens are restored by the dealer.
+     *
+     * @param score        - the score.
+     * @param freezeMillis - the remaining freeze time (in milliseconds).
+     */
+    void restore(int score, long freezeMillis) {
+        this.score = score;
+        env.ui.setScore(id, score);
+        dealer.stats().scoreChanged(id, score);
+        if (score > 0)
+            env.journal.score(id, score);
+        restoredFreezeMillis = freezeMillis;
+    }
+
+    /**
+     * @return - true iff the player waits for the dealer to check its set.
+     */
+    public boolean claimPending() {
+        return claimPending;
+    }
+
+    /**
+     * Describes the state of the player for diagnostics, without taking any locks.
+     *
+     * @return - the description.
+     */
+    String diagnostics() {
+        return "player " + (id + 1) + ": score " + score + ", tokens on cards " + Arrays.toString(potentialSet)
+                + ", key presses " + keyPressesTokens.size() + (frozen ? ", frozen" : "")
+                + (claimPending ? ", waiting for a verdict" : "");
+    }
+
+    public KeyPressRing getKeyPressesTokens() {
         return keyPressesTokens;
     }
 
@@ -234,6 +461,10 @@ public class Player implements Runnable {
         return potentialSet;
     }
 
+    public int getFrozenState() {
+        return frozenState;
+    }
+
     public void setFrozenState(int i) {
         this.frozenState = i;
     }
@@ -280,11 +511,18 @@ public class Player implements Runnable {
 
     public void checkPlayer() {
         synchronized (this) {
+            long claim = TraceRecorder.begin();
+            claimPending = true;
+            claimEnqueueTime = System.nanoTime();
+            env.journal.claim(id, potentialSet);
+            dealer.latencies().record(LatencyRecorder.Stage.CLAIM, claimKeyTime);
             dealer.enqueuePlayer(this);
             try {
                 this.wait();
             } catch (InterruptedException e) {
             }
+            claimPending = false;
+            TraceRecorder.end("claim: waiting for the dealer", claim);
         }
     }
 
@@ -297,10 +535,19 @@ public class Player implements Runnable {
         return potentialSet[0] != -1 &&
                 potentialSet[1] != -1 &&
                 potentialSet[2] != -1 &&
-                table.getCardToSlot()[potentialSet[0]] != null &&
-                table.getCardToSlot()[potentialSet[1]] != null &&
-                table.getCardToSlot()[potentialSet[2]] != null;
+                table.slotOf(potentialSet[0]) != Table.EMPTY &&
+                table.slotOf(potentialSet[1]) != Table.EMPTY &&
+                table.slotOf(potentialSet[2]) != Table.EMPTY;
     }
+    /**
+     * Replaces the strategy of a computer player (must be called before the player thread starts).
+     *
+     * @param strategy - the new strategy.
+     */
+    public void setStrategy(ComputerStrategy strategy) {
+        this.strategy = strategy;
+    }
+
     public boolean isHuman()
     {
         return human;
@@ -0,0 +1,160 @@
+package bguspl.set.ex;
+
+import bguspl.set.Env;
+
+/**
+ * A table that profiles its monitor: how long each of its methods waits for it and holds it (see TableLockProfiler).
+ * The plain Table is used when lock profiling is off, so it costs nothing then.
+ */
+public class ProfiledTable extends Table {
+
+    private static final TableLockProfiler.Site COUNT_CARDS = new TableLockProfiler.Site("Table.countCards");
+    private static final TableLockProfiler.Site PLACE_CARD = new TableLockProfiler.Site("Table.placeCard");
+    private static final TableLockProfiler.Site REMOVE_CARD = new TableLockProfiler.Site("Table.removeCard");
+    private static final TableLockProfiler.Site PLACE_TOKEN = new TableLockProfiler.Site("Table.placeToken");
+    private static final TableLockProfiler.Site REMOVE_TOKEN = new TableLockProfiler.Site("Table.removeToken");
+    private static final TableLockProfiler.Site REMOVE_TOKENS = new TableLockProfiler.Site("Table.removeTokens");
+    private static final TableLockProfiler.Site HAS_TOKEN = new TableLockProfiler.Site("Table.hasToken");
+    private static final TableLockProfiler.Site CHECKSUM = new TableLockProfiler.Site("Table.checksum");
+    private static final TableLockProfiler.Site RECORD_CHECKSUM = new TableLockProfiler.Site("Table.recordChecksum");
+    private static final TableLockProfiler.Site RECORD_KEYFRAME = new TableLockProfiler.Site("Table.recordKeyframe");
+    private static final TableLockProfiler.Site GET_SLOT_TO_CARD = new TableLockProfiler.Site("Table.getSlotToCard");
+    private static final TableLockProfiler.Site GET_CARD_TO_SLOT = new TableLockProfiler.Site("Table.getCardToSlot");
+
+    /**
+     * Constructor for actual usage.
+     *
+     * @param env - the game environment objects.
+     */
+    public ProfiledTable(Env env) {
+
+        super(env, new TableLockProfiler(env));
+    }
+
+    @Override
+    public int countCards() {
+        long wait = lockRequested();
+        synchronized (this) {
+            long held = lockAcquired(COUNT_CARDS, wait);
+            int cards = super.countCards();
+            lockReleased(COUNT_CARDS, held);
+            return cards;
+        }
+    }
+
+    @Override
+    public void placeCard(int card, int slot) {
+        long wait = lockRequested();
+        synchronized (this) {
+            long held = lockAcquired(PLACE_CARD, wait);
+            super.placeCard(card, slot);
+            lockReleased(PLACE_CARD, held);
+        }
+    }
+
+    @Override
+    public void removeCard(int slot) {
+        long wait = lockRequested();
+        synchronized (this) {
+            long held = lockAcquired(REMOVE_CARD, wait);
+            super.removeCard(slot);
+            lockReleased(REMOVE_CARD, held);
+        }
+    }
+
+    @Override
+    public void placeToken(int player, int slot) {
+        long wait = lockRequested();
+        synchronized (this) {
+            long held = lockAcquired(PLACE_TOKEN, wait);
+            super.placeToken(player, slot);
+            lockReleased(PLACE_TOKEN, held);
+        }
+    }
+
+    @Override
+    public boolean removeToken(int player, int slot) {
+        long wait = lockRequested();
+        synchronized (this) {
+            long held = lockAcquired(REMOVE_TOKEN, wait);
+            boolean removed = super.removeToken(player, slot);
+            lockReleased(REMOVE_TOKEN, held);
+            return removed;
+        }
+    }
+
+    @Override
+    public int removeTokens(int slot, long[] owners) {
+        long wait = lockRequested();
+        synchronized (this) {
+            long held = lockAcquired(REMOVE_TOKENS, wait);
+            int removed = super.removeTokens(slot, owners);
+            lockReleased(REMOVE_TOKENS, held);
+            return removed;
+        }
+    }
+
+    @Override
+    public boolean hasToken(int player, int slot) {
+        long wait = lockRequested();
+        synchronized (this) {
+            long held = lockAcquired(HAS_TOKEN, wait);
+            boolean has = super.hasToken(player, slot);
+            lockReleased(HAS_TOKEN, held);
+            return has;
+        }
+    }
+
+    @Override
+    public long checksum() {
+        long wait = lockRequested();
+        synchronized (this) {
+            long held = lockAcquired(CHECKSUM, wait);
+            long checksum = super.checksum();
+            lockReleased(CHECKSUM, held);
+            return checksum;
+        }
+    }
+
+    @Override
+    public void recordChecksum() {
+        long wait = lockRequested();
+        synchronized (this) {
+            long held = lockAcquired(RECORD_CHECKSUM, wait);
+            super.recordChecksum();
+            lockReleased(RECORD_CHECKSUM, held);
+        }
+    }
+
+    @Override
+    public void recordKeyframe(int[] deck) {
+        long wait = lockRequested();
+        synchronized (this) {
+            long held = lockAcquired(RECORD_KEYFRAME, wait);
+            super.recordKeyframe(deck);
+            lockReleased(RECORD_KEYFRAME, held);
+        }
+    }
+
+    @Override
+    public Integer[] getSlotToCard() {
+        long wait = lockRequested();
+        synchronized (this) {
+            long held = lockAcquired(GET_SLOT_TO_CARD, wait);
+            Integer[] slotToCard = super.getSlotToCard();
+            lockReleased(GET_SLOT_TO_CARD, held);
+            return slotToCard;
+        }
+    }
+
+    @Override
+    public Integer[] getCardToSlot() {
+        long wait = lockRequested();
+        synchronized (this) {
+            long held = lockAcquired(GET_CARD_TO_SLOT, wait);
+            Integer[] cardToSlot = super.getCardToSlot();
+            lockReleased(GET_CARD_TO_SLOT, held);
+            return cardToSlot;
+        }
+    }
+}
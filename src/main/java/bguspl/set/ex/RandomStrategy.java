@@ -0,0 +1,14 @@
+package bguspl.set.ex;
+
+import java.util.Random;
+
+/**
+ * A computer player strategy that always guesses.
+ */
+public class RandomStrategy implements ComputerStrategy {
+
+    @Override
+    public int[] chooseSlots(TableAnalysis.Result analysis, Random random) {
+        return analysis.randomSlots(random);
+    }
+}
@@ -0,0 +1,25 @@
+package bguspl.set.ex;
+
+import java.util.Random;
+
+/**
+ * A computer player strategy that spots a legal set with a fixed probability and guesses otherwise.
+ */
+public class SkilledStrategy implements ComputerStrategy {
+
+    /**
+     * The probability (between 0 and 1) of spotting a legal set when there is one on the table.
+     */
+    private final double skill;
+
+    public SkilledStrategy(double skill) {
+        this.skill = skill;
+    }
+
+    @Override
+    public int[] chooseSlots(TableAnalysis.Result analysis, Random random) {
+        if (!analysis.sets.isEmpty() && random.nextDouble() < skill)
+            return analysis.sets.get(random.nextInt(analysis.sets.size()));
+        return analysis.randomSlots(random);
+    }
+}
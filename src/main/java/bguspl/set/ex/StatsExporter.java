@@ -0,0 +1,186 @@
+package bguspl.set.ex;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Exports the statistics of a game into a memory mapped file with a fixed layout, so external monitors (see
+ * StatsReader) can watch the game by polling the file. The fields are written with plain writes. The header fields
+ * and the players' claims and penalties are written by the dealer thread only. A player's score is written by the
+ * player's thread, and by the dealer thread before the player thread starts (see Player.restore). A player's frozen
+ * flag is written by the player's thread when a freeze starts and by the scheduler thread when it ends, which the
+ * start schedules, so the writes are in order. The latency histograms are copied by the scheduler thread, and a last
+ * time by the dealer thread when the game ends.
+ * <p>
+ * 64 bit fields are aligned, so readers never see them torn. The fields are not updated together though: a reader
+ * may see a field change before another field that changed first (such as a claim counted before the score it gave).
+ * <p>
+ * Layout (big endian):
+ * <pre>
+ * header (PLAYERS_OFFSET bytes):
+ *   0 int  MAGIC             4 int  VERSION          8 int  players       12 int  LATENCY_STAGES
+ *  16 int  LATENCY_BUCKETS  20 int  dealer state    24 long start time    32 long update time
+ *  40 long deck remaining   48 long reshuffles      56 long valid claims  64 long invalid claims
+ * players (PLAYER_SIZE bytes each, from PLAYERS_OFFSET):
+ *   0 long score             8 long claims          16 long penalties     24 long frozen (0 or 1)
+ * latencies (LATENCY_BUCKETS longs per stage, after the players):
+ *   bucket b counts the claim stage latencies below 2^b milliseconds (and above the previous bucket)
+ * </pre>
+ */
+public class StatsExporter {
+
+    public static final int MAGIC = 0x53455453; // "SETS"
+    public static final int VERSION = 1;
+
+    public static final int PLAYERS_OFFSET = 128;
+    public static final int PLAYER_SIZE = 32;
+    public static final int LATENCY_STAGES = LatencyRecorder.Stage.values().length;
+    public static final int LATENCY_BUCKETS = 16;
+
+    public static final int STATE_OFFSET = 20;
+    public static final int START_TIME_OFFSET = 24;
+    public static final int UPDATE_TIME_OFFSET = 32;
+    public static final int DECK_OFFSET = 40;
+    public static final int RESHUFFLES_OFFSET = 48;
+    public static final int VALID_CLAIMS_OFFSET = 56;
+    public static final int INVALID_CLAIMS_OFFSET = 64;
+
+    public static final int SCORE_OFFSET = 0;
+    public static final int CLAIMS_OFFSET = 8;
+    public static final int PENALTIES_OFFSET = 16;
+    public static final int FROZEN_OFFSET = 24;
+
+    /**
+     * The dealer states.
+     */
+    public static final int STATE_STARTING = 0;
+    public static final int STATE_DEALING = 1;
+    public static final int STATE_PLAYING = 2;
+    public static final int STATE_CHECKING = 3;
+    public static final int STATE_RESHUFFLING = 4;
+    public static final int STATE_FINISHED = 5;
+    public static final String[] STATE_NAMES = {"starting", "dealing", "playing", "checking", "reshuffling", "finished"};
+
+    private final MappedByteBuffer buffer;
+    private final int players;
+
+    /**
+     * Creates (or truncates) the statistics file and maps it.
+     *
+     * @param filename - the statistics file name.
+     * @param players  - the number of players in the game.
+     * @throws IOException - if the file cannot be created or mapped.
+     */
+    public StatsExporter(String filename, int players) throws IOException {
+        this.players = players;
+        int size = fileSize(players);
+        try (RandomAccessFile file = new RandomAccessFile(filename, "rw")) {
+            file.setLength(0);
+            file.setLength(size);
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, players);
+        buffer.putInt(12, LATENCY_STAGES);
+        buffer.putInt(16, LATENCY_BUCKETS);
+        buffer.putLong(START_TIME_OFFSET, System.currentTimeMillis());
+        buffer.putInt(0, MAGIC); // written last, so readers do not read a half initialized header
+    }
+
+    /**
+     * @param players - the number of players.
+     * @return - the size of the statistics file of a game with the given number of players.
+     */
+    public static int fileSize(int players) {
+        return PLAYERS_OFFSET + players * PLAYER_SIZE + LATENCY_STAGES * LATENCY_BUCKETS * 8;
+    }
+
+    /**
+     * @param player - the player id.
+     * @return - the offset of the player's statistics in the file.
+     */
+    public static int playerOffset(int player) {
+        return PLAYERS_OFFSET + player * PLAYER_SIZE;
+    }
+
+    /**
+     * @param players - the number of players.
+     * @param stage   - the claim stage.
+     * @return - the offset of the stage's latency buckets in the file.
+     */
+    public static int latencyOffset(int players, int stage) {
+        return PLAYERS_OFFSET + players * PLAYER_SIZE + stage * LATENCY_BUCKETS * 8;
+    }
+
+    /**
+     * Called by the dealer thread only.
+     */
+    void dealerState(int state) {
+        buffer.putInt(STATE_OFFSET, state);
+        buffer.putLong(UPDATE_TIME_OFFSET, System.currentTimeMillis());
+    }
+
+    /**
+     * Called by the dealer thread only.
+     */
+    void deckRemaining(int cards) {
+        buffer.putLong(DECK_OFFSET, cards);
+    }
+
+    /**
+     * Called by the dealer thread only.
+     */
+    void reshuffles(long reshuffles) {
+        buffer.putLong(RESHUFFLES_OFFSET, reshuffles);
+    }
+
+    /**
+     * Called by the dealer thread only.
+     */
+    void claims(long valid, long invalid) {
+        buffer.putLong(VALID_CLAIMS_OFFSET, valid);
+        buffer.putLong(INVALID_CLAIMS_OFFSET, invalid);
+    }
+
+    /**
+     * Called by the dealer thread only.
+     */
+    void playerClaims(int player, long claims, long penalties) {
+        buffer.putLong(playerOffset(player) + CLAIMS_OFFSET, claims);
+        buffer.putLong(playerOffset(player) + PENALTIES_OFFSET, penalties);
+    }
+
+    /**
+     * Called by the player's thread, or by the dealer thread before the player thread starts.
+     */
+    void score(int player, int score) {
+        buffer.putLong(playerOffset(player) + SCORE_OFFSET, score);
+    }
+
+    /**
+     * Called by the player's thread when a freeze starts and by the scheduler thread when it ends.
+     */
+    void frozen(int player, boolean frozen) {
+        buffer.putLong(playerOffset(player) + FROZEN_OFFSET, frozen ? 1 : 0);
+    }
+
+    /**
+     * Copies the latency histograms (called by a single thread at a time).
+     */
+    void latencies(LatencyRecorder latencies) {
+        for (LatencyRecorder.Stage stage : LatencyRecorder.Stage.values()) {
+            long[] buckets = latencies.millisHistogram(stage, LATENCY_BUCKETS);
+            for (int b = 0; b < LATENCY_BUCKETS; b++)
+                buffer.putLong(latencyOffset(players, stage.ordinal()) + b * 8, buckets[b]);
+        }
+    }
+
+    /**
+     * Flushes the file to the disk.
+     */
+    void close() {
+        buffer.force();
+    }
+}
@@ -0,0 +1,83 @@
+package bguspl.set.ex;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Prints a live view of a game by polling the statistics file written by StatsExporter.
+ * <p>
+ * Usage: StatsReader [statistics file] [refresh seconds]
+ */
+public class StatsReader {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String filename = args.length > 0 ? args[0] : "stats.bin";
+        long refreshMillis = (long) ((args.length > 1 ? Double.parseDouble(args[1]) : 1) * 1000);
+
+        MappedByteBuffer buffer;
+        try (RandomAccessFile file = new RandomAccessFile(filename, "r")) {
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        }
+        if (buffer.capacity() < StatsExporter.PLAYERS_OFFSET || buffer.getInt(0) != StatsExporter.MAGIC
+                || buffer.getInt(4) != StatsExporter.VERSION) {
+            System.out.println(filename + " is not a game statistics file (or was not initialized yet).");
+            return;
+        }
+
+        int state;
+        do {
+            state = buffer.getInt(StatsExporter.STATE_OFFSET);
+            System.out.print("\033[H\033[2J"); // clear the terminal
+            System.out.print(view(buffer));
+            System.out.flush();
+            Thread.sleep(refreshMillis);
+        } while (state != StatsExporter.STATE_FINISHED);
+    }
+
+    /**
+     * Renders the statistics file as a text table.
+     */
+    private static String view(MappedByteBuffer buffer) {
+        int players = buffer.getInt(8);
+        int stages = buffer.getInt(12);
+        int buckets = buffer.getInt(16);
+        int state = buffer.getInt(StatsExporter.STATE_OFFSET);
+        SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss");
+        StringBuilder sb = new StringBuilder();
+
+        sb.append(String.format("game started %s, last dealer update %s, dealer %s%n",
+                format.format(new Date(buffer.getLong(StatsExporter.START_TIME_OFFSET))),
+                format.format(new Date(buffer.getLong(StatsExporter.UPDATE_TIME_OFFSET))),
+                state >= 0 && state < StatsExporter.STATE_NAMES.length ? StatsExporter.STATE_NAMES[state] : "?"));
+        sb.append(String.format("deck: %d  reshuffles: %d  claims: %d valid, %d invalid%n%n",
+                buffer.getLong(StatsExporter.DECK_OFFSET), buffer.getLong(StatsExporter.RESHUFFLES_OFFSET),
+                buffer.getLong(StatsExporter.VALID_CLAIMS_OFFSET), buffer.getLong(StatsExporter.INVALID_CLAIMS_OFFSET)));
+
+        sb.append(String.format("%-8s %8s %8s %10s %8s%n", "player", "score", "claims", "penalties", "frozen"));
+        for (int player = 0; player < players; player++) {
+            int offset = StatsExporter.playerOffset(player);
+            sb.append(String.format("%-8d %8d %8d %10d %8s%n", player + 1,
+                    buffer.getLong(offset + StatsExporter.SCORE_OFFSET),
+                    buffer.getLong(offset + StatsExporter.CLAIMS_OFFSET),
+                    buffer.getLong(offset + StatsExporter.PENALTIES_OFFSET),
+                    buffer.getLong(offset + StatsExporter.FROZEN_OFFSET) != 0 ? "yes" : ""));
+        }
+
+        sb.append(String.format("%nclaim latencies (count per millisecond bucket)%n%-36s", "stage"));
+        for (int b = 0; b < buckets; b++)
+            sb.append(String.format(" %6s", (b == buckets - 1 ? ">" : "<") + (1L << (b == buckets - 1 ? b - 1 : b))));
+        sb.append(String.format("%n"));
+        LatencyRecorder.Stage[] names = LatencyRecorder.Stage.values();
+        for (int stage = 0; stage < stages; stage++) {
+            sb.append(String.format("%-36s", stage < names.length ? names[stage].description : "stage " + stage));
+            for (int b = 0; b < buckets; b++)
+                sb.append(String.format(" %6d", buffer.getLong(StatsExporter.latencyOffset(players, stage) + b * 8)));
+            sb.append(String.format("%n"));
+        }
+        return sb.toString();
+    }
+}
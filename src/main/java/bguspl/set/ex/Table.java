@@ -1,36 +1,88 @@
 package bguspl.set.ex;
 
 import bguspl.set.Env;
+import bguspl.set.TraceRecorder;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Objects;
-import java.util.stream.Collectors;
 
 /**
  * This class contains the data that is visible to the player.
+ * The cards are kept in primitive arrays (EMPTY for none), read with the allocation free cardAt and slotOf. A table
+ * created with the constructor for testing is mirrored: the caller's boxed slotToCard and cardToSlot arrays hold its
+ * cards, so the table sees the caller's writes to them, and the table's reads go through them.
  *
- * @inv slotToCard[x] == y iff cardToSlot[y] == x
+ * @inv slotCards[x] == y iff cardSlots[y] == x
+ * @inv slotToCard == null iff cardToSlot == null
  */
 public class Table {
 
+    /**
+     * The value of an empty slot (in slotCards) and of a card which is not on the table (in cardSlots).
+     */
+    public static final int EMPTY = -1;
+
     /**
      * The game environment object.
      */
     private final Env env;
 
     /**
-     * Mapping between a slot and the card placed in it (null if none).
+     * Mapping between a slot and the card placed in it (EMPTY if none), not read if the table is mirrored.
+     */
+    protected final int[] slotCards; // card per slot (if any)
+
+    /**
+     * Mapping between a card and the slot it is in (EMPTY if none), not read if the table is mirrored.
+     */
+    protected final int[] cardSlots; // slot per card (if any)
+
+    /**
+     * Mapping between a slot and the card placed in it (null if none), or null if the table is not mirrored.
      */
     protected final Integer[] slotToCard; // card per slot (if any)
 
     /**
-     * Mapping between a card and the slot it is in (null if none).
+     * Mapping between a card and the slot it is in (null if none), or null if the table is not mirrored.
      */
     protected final Integer[] cardToSlot; // slot per card (if any)
 
     /**
-     * Constructor for testing.
+     * The number of words of token bits per slot (one bit per player).
+     */
+    private final int tokenWords;
+
+    /**
+     * The players that have tokens on each slot: bit (player % 64) of word (slot * tokenWords + player / 64) is set
+     * iff the player has a token on the slot.
+     */
+    protected final long[] tokens;
+
+    /**
+     * The number of changes made to the cards on the table so far.
+     */
+    private volatile int version;
+
+    /**
+     * The cards after the latest change, published for the readers that must not wait for the table monitor (it is
+     * held across the slow card changes).
+     */
+    private volatile Snapshot snapshot;
+
+    /**
+     * The analysis of the table shared by the computer players.
+     */
+    private final TableAnalysis analysis;
+
+    /**
+     * The profiler of the table monitor (null if lock profiling is off).
+     */
+    protected final TableLockProfiler profiler;
+
+    /**
+     * Constructor for testing. The table is mirrored: it reads its cards from the arrays and writes its changes to them,
+     * so the caller may also place cards by writing to the arrays (which does not change the table's version).
      *
      * @param env        - the game environment objects.
      * @param slotToCard - mapping between a slot and the card placed in it (null if none).
@@ -38,9 +90,29 @@ public class Table {
      */
     public Table(Env env, Integer[] slotToCard, Integer[] cardToSlot) {
 
+        this(env, slotToCard, cardToSlot, null);
+    }
+
+    /**
+     * Constructor for a table with a profiled monitor.
+     *
+     * @param env        - the game environment objects.
+     * @param slotToCard - mapping between a slot and the card placed in it (null if none).
+     * @param cardToSlot - mapping between a card and the slot it is in (null if none).
+     * @param profiler   - the profiler of the table monitor (null for none).
+     */
+    protected Table(Env env, Integer[] slotToCard, Integer[] cardToSlot, TableLockProfiler profiler) {
+
         this.env = env;
+        this.slotCards = unbox(slotToCard);
+        this.cardSlots = unbox(cardToSlot);
         this.slotToCard = slotToCard;
         this.cardToSlot = cardToSlot;
+        this.tokenWords = (env.config.players + 63) / 64;
+        this.tokens = new long[slotToCard.length * tokenWords];
+        this.profiler = profiler;
+        this.snapshot = new Snapshot(0, slotCards.clone());
+        this.analysis = new TableAnalysis(env, this);
     }
 
     /**
@@ -50,19 +122,58 @@ public class Table {
      */
     public Table(Env env) {
 
-        this(env, new Integer[env.config.tableSize], new Integer[env.config.deckSize]);
+        this(env, (TableLockProfiler) null);
+    }
+
+    /**
+     * Constructor for actual usage, with a profiled monitor.
+     *
+     * @param env      - the game environment objects.
+     * @param profiler - the profiler of the table monitor (null for none).
+     */
+    protected Table(Env env, TableLockProfiler profiler) {
+
+        this.env = env;
+        this.slotCards = new int[env.config.tableSize];
+        this.cardSlots = new int[env.config.deckSize];
+        Arrays.fill(slotCards, EMPTY);
+        Arrays.fill(cardSlots, EMPTY);
+        this.slotToCard = null;
+        this.cardToSlot = null;
+        this.tokenWords = (env.config.players + 63) / 64;
+        this.tokens = new long[slotCards.length * tokenWords];
+        this.profiler = profiler;
+        this.snapshot = new Snapshot(0, slotCards.clone());
+        this.analysis = new TableAnalysis(env, this);
+    }
+
+    private static int[] unbox(Integer[] boxed) {
+        int[] values = new int[boxed.length];
+        for (int i = 0; i < boxed.length; i++)
+            values[i] = boxed[i] == null ? EMPTY : boxed[i];
+        return values;
+    }
+
+    private static Integer[] box(int[] values) {
+        Integer[] boxed = new Integer[values.length];
+        for (int i = 0; i < values.length; i++)
+            boxed[i] = values[i] == EMPTY ? null : values[i];
+        return boxed;
     }
 
     /**
      * This method prints all possible legal sets of cards that are currently on the table.
      */
     public void hints() {
-        List<Integer> deck = Arrays.stream(slotToCard).filter(Objects::nonNull).collect(Collectors.toList());
+        List<Integer> deck = new ArrayList<>();
+        for (int slot = 0; slot < slotCards.length; slot++)
+            if (cardAt(slot) != EMPTY)
+                deck.add(cardAt(slot));
         env.util.findSets(deck, Integer.MAX_VALUE).forEach(set -> {
             StringBuilder sb = new StringBuilder().append("Hint: Set found: ");
-            List<Integer> slots = Arrays.stream(set).mapToObj(card -> cardToSlot[card]).sorted().collect(Collectors.toList());
+            int[] slots = Arrays.stream(set).map(this::slotOf).sorted().toArray();
             int[][] features = env.util.cardsToFeatures(set);
-            System.out.println(sb.append("slots: ").append(slots).append(" features: ").append(Arrays.deepToString(features)));
+            System.out.println(sb.append("slots: ").append(Arrays.toString(slots)).append(" features: ").append(Arrays.deepToString(features)));
         });
     }
 
@@ -73,8 +184,8 @@ public class Table {
      */
     public synchronized int countCards() {
         int cards = 0;
-        for (Integer card : slotToCard)
-            if (card != null)
+        for (int slot = 0; slot < slotCards.length; slot++)
+            if (cardAt(slot) != EMPTY)
                 ++cards;
         return cards;
     }
@@ -87,15 +198,30 @@ public class Table {
      * @post - the card placed is on the table, in the assigned slot.
      */
     public synchronized void placeCard(int card, int slot) {
-        try {
-            Thread.sleep(env.config.tableDelayMillis);
-        } catch (InterruptedException ignored) {
+        GameEvents.TableCard event = new GameEvents.TableCard();
+        event.begin();
+        if (env.config.tableDelayMillis > 0) {
+            try {
+                Thread.sleep(env.config.tableDelayMillis);
+            } catch (InterruptedException ignored) {
+            }
         }
 
-        cardToSlot[card] = slot;
-        slotToCard[slot] = card;
+        cardSlots[card] = slot;
+        slotCards[slot] = card;
+        if (slotToCard != null) {
+            cardToSlot[card] = slot;
+            slotToCard[slot] = card;
+        }
+        version++;
+        snapshot = new Snapshot(version, slotCards.clone());
 
+        env.journal.cardPlaced(slot, card);
         env.ui.placeCard(card, slot);
+        event.slot = slot;
+        event.card = card;
+        event.placed = true;
+        event.commit();
     }
 
     /**
@@ -104,16 +230,30 @@ public class Table {
      * @param slot - the slot from which to remove the card.
      */
     public synchronized void removeCard(int slot) {
-        try {
-            Thread.sleep(env.config.tableDelayMillis);
-        } catch (InterruptedException ignored) {
+        GameEvents.TableCard event = new GameEvents.TableCard();
+        event.begin();
+        if (env.config.tableDelayMillis > 0) {
+            try {
+                Thread.sleep(env.config.tableDelayMillis);
+            } catch (InterruptedException ignored) {
+            }
         }
-        if (slotToCard[slot] != null) {
-            int card = slotToCard[slot];
-            slotToCard[slot] = null;
-            cardToSlot[card] = null;
+        int card = cardAt(slot);
+        if (card != EMPTY) {
+            slotCards[slot] = EMPTY;
+            cardSlots[card] = EMPTY;
+            if (slotToCard != null) {
+                slotToCard[slot] = null;
+                cardToSlot[card] = null;
+            }
+            version++;
+            snapshot = new Snapshot(version, slotCards.clone());
+            removeTokens(slot, null);
+            env.journal.cardRemoved(slot, card);
             env.ui.removeCard(slot);
-
+            event.slot = slot;
+            event.card = card;
+            event.commit();
         }
     }
 
@@ -124,6 +264,8 @@ public class Table {
      * @param slot   - the slot on which to place the token.
      */
     public synchronized void placeToken(int player, int slot) {
+        tokens[slot * tokenWords + player / 64] |= 1L << player;
+        env.journal.tokenPlaced(player, slot);
         env.ui.placeToken(player, slot);
     }
 
@@ -135,16 +277,244 @@ public class Table {
      * @return - true iff a token was successfully removed.
      */
     public synchronized boolean removeToken(int player, int slot) {
-        // TODO implement
+        int word = slot * tokenWords + player / 64;
+        if ((tokens[word] & 1L << player) == 0)
+            return false;
+        tokens[word] &= ~(1L << player);
+        env.journal.tokenRemoved(player, slot);
         env.ui.removeToken(player, slot);
         return true;
     }
 
+    /**
+     * Removes the tokens of all the players from a grid slot.
+     *
+     * @param slot   - the slot from which to remove the tokens.
+     * @param owners - filled with the players that had tokens on the slot, as bits like in tokens (at least
+     *               tokenWords() long), or null.
+     * @return - the number of tokens removed.
+     */
+    public synchronized int removeTokens(int slot, long[] owners) {
+        int removed = 0;
+        for (int i = 0; i < tokenWords; i++) {
+            long word = tokens[slot * tokenWords + i];
+            tokens[slot * tokenWords + i] = 0;
+            removed += Long.bitCount(word);
+            if (owners != null)
+                owners[i] = word;
+        }
+        if (removed > 0) {
+            env.journal.tokensCleared(slot);
+            env.ui.removeTokens(slot);
+        }
+        return removed;
+    }
+
+    /**
+     * @param player - the player.
+     * @param slot   - the slot.
+     * @return - true iff the player has a token on the slot.
+     */
+    public synchronized boolean hasToken(int player, int slot) {
+        return (tokens[slot * tokenWords + player / 64] & 1L << player) != 0;
+    }
+
+    /**
+     * @return - a checksum (64 bit FNV-1a) of the cards and the tokens on the table, to verify replayed journals.
+     */
+    public synchronized long checksum() {
+        long hash = 0xcbf29ce484222325L;
+        for (int slot = 0; slot < slotCards.length; slot++)
+            hash = (hash ^ cardAt(slot)) * 0x100000001b3L;
+        for (long word : tokens)
+            hash = (hash ^ word) * 0x100000001b3L;
+        return hash;
+    }
+
+    /**
+     * Records the checksum of the table in the journal (if journaling is on), in order with the table's records.
+     */
+    public synchronized void recordChecksum() {
+        if (env.journal.enabled())
+            env.journal.checksum(checksum());
+    }
+
+    /**
+     * Records a keyframe of the game in the journal (if journaling is on), in order with the table's records.
+     *
+     * @param deck - the cards in the deck.
+     */
+    public synchronized void recordKeyframe(int[] deck) {
+        if (env.journal.enabled())
+            env.journal.keyframe(cards(), tokens, tokenWords, deck);
+    }
+
+    /**
+     * @return - the number of words needed for the token owners of a slot (see removeTokens).
+     */
+    public int tokenWords() {
+        return tokenWords;
+    }
+
+    /**
+     * @return - the number of changes made to the cards on the table so far.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Reads the cards without waiting for the table monitor. For a mirrored table the snapshot is taken on every call,
+     * so it also has the cards written to the arrays.
+     *
+     * @return - the cards after the latest change.
+     */
+    public Snapshot snapshot() {
+        return slotToCard != null ? new Snapshot(version, unbox(slotToCard)) : snapshot;
+    }
+
+    /**
+     * @return - the analysis of the table shared by the computer players.
+     */
+    public TableAnalysis analysis() {
+        return analysis;
+    }
+
+    /**
+     * Marks the beginning of an attempt to acquire the table monitor. Usage:
+     * <pre>
+     *     long wait = table.lockRequested();
+     *     synchronized (table) {
+     *         long held = table.lockAcquired(SITE, wait);
+     *         ...
+     *         table.lockReleased(SITE, held);
+     *     }
+     * </pre>
+     *
+     * @return - the time of the attempt (0 if neither tracing nor lock profiling is on, or the monitor is already held
+     *           by the current thread).
+     */
+    public long lockRequested() {
+        if (profiler == null && !TraceRecorder.enabled())
+            return 0;
+        return Thread.holdsLock(this) ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Records the time it took to acquire the table monitor.
+     *
+     * @param site      - the call site that acquired the monitor.
+     * @param requested - the value returned by lockRequested (nothing is recorded if 0).
+     * @return - the time the monitor was acquired (0 if nothing was recorded).
+     */
+    public long lockAcquired(TableLockProfiler.Site site, long requested) {
+        if (requested == 0)
+            return 0;
+        long acquired = TraceRecorder.enabled() ? TraceRecorder.end(site.waitSpan, requested) : System.nanoTime();
+        if (profiler != null)
+            profiler.waited(site, acquired - requested);
+        return acquired;
+    }
+
+    /**
+     * Records the time the table monitor was held (call it just before releasing the monitor).
+     *
+     * @param site     - the call site that acquired the monitor.
+     * @param acquired - the value returned by lockAcquired (nothing is recorded if 0).
+     */
+    public void lockReleased(TableLockProfiler.Site site, long acquired) {
+        if (acquired == 0)
+            return;
+        long released = TraceRecorder.enabled() ? TraceRecorder.end(site.holdSpan, acquired) : System.nanoTime();
+        if (profiler != null)
+            profiler.held(site, released - acquired);
+    }
+
+    /**
+     * Writes the table monitor profile to the log (if lock profiling is on).
+     */
+    public void reportLockProfile() {
+        if (profiler != null)
+            profiler.report();
+    }
+
+    /**
+     * @param slot - a slot.
+     * @return - the card in the slot (EMPTY if none).
+     */
+    public int cardAt(int slot) {
+        if (slotToCard != null) {
+            Integer card = slotToCard[slot];
+            return card == null ? EMPTY : card;
+        }
+        return slotCards[slot];
+    }
+
+    /**
+     * @param card - a card.
+     * @return - the slot the card is in (EMPTY if it is not on the table).
+     */
+    public int slotOf(int card) {
+        if (cardToSlot != null) {
+            Integer slot = cardToSlot[card];
+            return slot == null ? EMPTY : slot;
+        }
+        return cardSlots[card];
+    }
+
+    /**
+     * @return - the card in each slot (EMPTY if none), not to be changed: the table's own array, or a copy of the
+     *           mirrored cards.
+     */
+    int[] cards() {
+        return slotToCard != null ? unbox(slotToCard) : slotCards;
+    }
+
+    /**
+     * @return - the number of slots on the table.
+     */
+    public int slots() {
+        return slotCards.length;
+    }
+
+    /**
+     * A boxed view of the cards, for compatibility (use cardAt instead). For a mirrored table (created with the
+     * constructor for testing) this is the caller's array, which holds the table's cards; otherwise it is a copy,
+     * allocated on every call and not updated afterwards.
+     *
+     * @return - the mapping between a slot and its card (null if none).
+     */
     public synchronized Integer[] getSlotToCard() {
-        return slotToCard;
+        return slotToCard != null ? slotToCard : box(slotCards);
     }
 
+    /**
+     * A boxed view of the cards, for compatibility (use slotOf instead). Mirrored or copied as in getSlotToCard.
+     *
+     * @return - the mapping between a card and its slot (null if none).
+     */
     public synchronized Integer[] getCardToSlot() {
-        return cardToSlot;
+        return cardToSlot != null ? cardToSlot : box(cardSlots);
+    }
+
+    /**
+     * An immutable copy of the cards on the table.
+     */
+    public static class Snapshot {
+
+        /**
+         * The table version the cards are of.
+         */
+        public final int version;
+
+        /**
+         * The card in each slot (EMPTY if none).
+         */
+        public final int[] cards;
+
+        Snapshot(int version, int[] cards) {
+            this.version = version;
+            this.cards = cards;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,139 @@
+package bguspl.set.ex;
+
+import bguspl.set.Env;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class analyses the cards on a table and shares the result between all the computer players of the table.
+ * The legal sets are computed at most once per table version, no matter how many players ask for them. The cards are
+ * read from the table's published snapshot, without the table monitor, so the scheduler thread the computer players
+ * move on never waits for the dealer's card changes.
+ */
+public class TableAnalysis {
+
+    /**
+     * The game environment object.
+     */
+    private final Env env;
+
+    /**
+     * The analysed table.
+     */
+    private final Table table;
+
+    /**
+     * The most recent analysis result.
+     */
+    private volatile Result latest = new Result(-1, new int[0], Collections.emptyList());
+
+    /**
+     * The number of times the table was actually analysed (for statistics).
+     */
+    private volatile long analyses;
+
+    public TableAnalysis(Env env, Table table) {
+        this.env = env;
+        this.table = table;
+    }
+
+    /**
+     * Returns the analysis of the current table version, computing it if no player asked for it yet.
+     *
+     * @return - the analysis result.
+     */
+    public Result current() {
+        Result result = latest;
+        if (result.version == table.getVersion())
+            return result;
+        synchronized (this) {
+            result = latest;
+            Table.Snapshot snapshot = table.snapshot();
+            if (result.version != snapshot.version) {
+                result = analyse(snapshot);
+                latest = result;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return - the number of times the table was analysed.
+     */
+    public long analyses() {
+        return analyses;
+    }
+
+    /**
+     * Finds all the legal sets in a snapshot of the table.
+     *
+     * @param snapshot - the cards on the table.
+     * @return - the analysis result.
+     */
+    private Result analyse(Table.Snapshot snapshot) {
+        int[] slotToCard = snapshot.cards;
+        List<Integer> cards = new ArrayList<>();
+        for (int card : slotToCard)
+            if (card != Table.EMPTY)
+                cards.add(card);
+
+        List<int[]> sets = new ArrayList<>();
+        for (int[] set : env.util.findSets(cards, Integer.MAX_VALUE)) {
+            int[] slots = new int[set.length];
+            for (int i = 0; i < set.length; i++)
+                for (int slot = 0; slot < slotToCard.length; slot++)
+                    if (slotToCard[slot] == set[i])
+                        slots[i] = slot;
+            sets.add(slots);
+        }
+        analyses++;
+        return new Result(snapshot.version, slotToCard, Collections.unmodifiableList(sets));
+    }
+
+    /**
+     * An immutable analysis of one table version.
+     */
+    public static class Result {
+
+        /**
+         * The table version that was analysed.
+         */
+        public final int version;
+
+        /**
+         * The card in each slot (Table.EMPTY if none).
+         */
+        public final int[] slotToCard;
+
+        /**
+         * The legal sets on the table, as slot triplets.
+         */
+        public final List<int[]> sets;
+
+        Result(int version, int[] slotToCard, List<int[]> sets) {
+            this.version = version;
+            this.slotToCard = slotToCard;
+            this.sets = sets;
+        }
+
+        /**
+         * Picks three random distinct slots that have cards in them.
+         *
+         * @param random - the random generator to use.
+         * @return - the chosen slots (empty if there are less than three cards on the table).
+         */
+        public int[] randomSlots(Random random) {
+            List<Integer> slots = new ArrayList<>();
+            for (int slot = 0; slot < slotToCard.length; slot++)
+                if (slotToCard[slot] != Table.EMPTY)
+                    slots.add(slot);
+            if (slots.size() < 3)
+                return new int[0];
+            Collections.shuffle(slots, random);
+            return new int[]{slots.get(0), slots.get(1), slots.get(2)};
+        }
+    }
+}
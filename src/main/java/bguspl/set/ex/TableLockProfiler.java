@@ -0,0 +1,160 @@
+package bguspl.set.ex;
+
+import bguspl.set.Env;
+import bguspl.set.ThreadAccounting;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class records how long the table monitor is waited for and held, per call site and per thread role, and
+ * reports the worst offenders at the end of the game.
+ * Only outermost acquisitions are recorded: a table method called while its caller already holds the monitor does
+ * not wait for it, and its hold time is already part of the caller's.
+ */
+public class TableLockProfiler {
+
+    /**
+     * The number of call sites (and roles) listed in the report.
+     */
+    private static final int WORST_OFFENDERS = 10;
+
+    /**
+     * A place in the code that acquires the table monitor.
+     */
+    public static class Site {
+
+        public final String name;
+
+        /**
+         * The names of the trace spans of the site (computed once, so tracing does not allocate).
+         */
+        final String waitSpan;
+        final String holdSpan;
+
+        /**
+         * The statistics of the site per thread role.
+         */
+        private final Map<String, Counters> roles = new ConcurrentHashMap<>();
+
+        public Site(String name) {
+            this.name = name;
+            this.waitSpan = "wait table: " + name;
+            this.holdSpan = "hold table: " + name;
+        }
+    }
+
+    /**
+     * The statistics of a site in a single role.
+     */
+    private static class Counters {
+        final LongAdder acquisitions = new LongAdder();
+        final LongAdder waitNanos = new LongAdder();
+        final LongAdder holdNanos = new LongAdder();
+        final AtomicLong maxWaitNanos = new AtomicLong();
+        final AtomicLong maxHoldNanos = new AtomicLong();
+    }
+
+    /**
+     * The game environment object.
+     */
+    private final Env env;
+
+    /**
+     * All the sites that acquired the monitor at least once.
+     */
+    private final Map<Site, Boolean> sites = new ConcurrentHashMap<>();
+
+    public TableLockProfiler(Env env) {
+        this.env = env;
+    }
+
+    /**
+     * Records an acquisition of the table monitor by the current thread.
+     *
+     * @param site      - the call site.
+     * @param waitNanos - the time it took to acquire the monitor.
+     */
+    public void waited(Site site, long waitNanos) {
+        Counters counters = counters(site);
+        counters.acquisitions.increment();
+        counters.waitNanos.add(waitNanos);
+        max(counters.maxWaitNanos, waitNanos);
+    }
+
+    /**
+     * Records a release of the table monitor by the current thread.
+     *
+     * @param site      - the call site.
+     * @param holdNanos - the time the monitor was held.
+     */
+    public void held(Site site, long holdNanos) {
+        Counters counters = counters(site);
+        counters.holdNanos.add(holdNanos);
+        max(counters.maxHoldNanos, holdNanos);
+    }
+
+    /**
+     * @return - the statistics of a site in the role of the current thread.
+     */
+    private Counters counters(Site site) {
+        String role = ThreadAccounting.role(Thread.currentThread().getName());
+        Counters counters = site.roles.get(role);
+        if (counters == null) {
+            counters = site.roles.computeIfAbsent(role, key -> new Counters());
+            sites.putIfAbsent(site, Boolean.TRUE);
+        }
+        return counters;
+    }
+
+    private static void max(AtomicLong max, long value) {
+        long previous;
+        while (value > (previous = max.get()) && !max.compareAndSet(previous, value)) {
+        }
+    }
+
+    /**
+     * Writes the sites (and roles) that waited for the table the longest, and those that held it the longest, to
+     * the log.
+     */
+    public void report() {
+        List<String[]> keys = new ArrayList<>(); // site name, role
+        List<Counters> values = new ArrayList<>();
+        long acquisitions = 0;
+        for (Site site : sites.keySet())
+            for (Map.Entry<String, Counters> entry : site.roles.entrySet()) {
+                keys.add(new String[]{site.name, entry.getKey()});
+                values.add(entry.getValue());
+                acquisitions += entry.getValue().acquisitions.sum();
+            }
+        env.logger.info("table lock profile (" + acquisitions + " acquisitions at " + sites.size() + " sites):");
+        report("longest waits", keys, values, true);
+        report("longest holds", keys, values, false);
+    }
+
+    private void report(String title, List<String[]> keys, List<Counters> values, boolean byWait) {
+        Integer[] order = new Integer[values.size()];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(total(values.get(b), byWait), total(values.get(a), byWait)));
+
+        env.logger.info("  " + title + ":");
+        for (int i = 0; i < Math.min(WORST_OFFENDERS, order.length); i++) {
+            Counters counters = values.get(order[i]);
+            long count = counters.acquisitions.sum();
+            env.logger.info(String.format("    %-36s %-10s count: %7d, wait: %9.3fms (max %7.3fms), hold: %9.3fms (max %7.3fms)",
+                    keys.get(order[i])[0], keys.get(order[i])[1], count,
+                    counters.waitNanos.sum() / 1e6, counters.maxWaitNanos.get() / 1e6,
+                    counters.holdNanos.sum() / 1e6, counters.maxHoldNanos.get() / 1e6));
+        }
+    }
+
+    private static long total(Counters counters, boolean wait) {
+        return wait ? counters.waitNanos.sum() : counters.holdNanos.sum();
+    }
+}
@@ -0,0 +1,257 @@
+package bguspl.set.ex;
+
+import bguspl.set.Env;
+import bguspl.set.ThreadLogger;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class watches the dealer, the players and the scheduler for stalls and deadlocks from its own thread.
+ * <p>
+ * Every watched party has a deadline: the dealer renews it on every iteration of its loop, a player sets it when it
+ * takes a key press and clears it when it goes back to wait for the next one (an idle player is not stalled), and
+ * the watchdog itself sets it for the scheduler before scheduling a probe task on it. A party that misses its
+ * deadline is reported once, with the stacks of the game threads and the state of the table, and a player that is
+ * still waiting for a verdict the dealer already gave can optionally be re-notified.
+ * The watchdog reads the game state without taking any locks, since the stalled thread may be holding them.
+ */
+public class Watchdog implements Runnable {
+
+    /**
+     * The watched parties (the players follow the scheduler, see player(id)).
+     */
+    public static final int DEALER = 0;
+    public static final int SCHEDULER = 1;
+
+    /**
+     * The game environment object.
+     */
+    private final Env env;
+
+    private final Dealer dealer;
+    private final Table table;
+    private final Player[] players;
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    /**
+     * The threads of the watched parties (null if not registered).
+     */
+    private final Thread[] partyThreads;
+
+    /**
+     * The System.nanoTime() each party must check in before (0 for no deadline).
+     */
+    private final AtomicLongArray deadlines;
+
+    /**
+     * The deadline each party was last reported stalled for (only accessed by the watchdog thread).
+     */
+    private final long[] reported;
+
+    /**
+     * The deadlocked threads that were last reported (only accessed by the watchdog thread).
+     */
+    private long[] reportedDeadlock;
+
+    private final long stallNanos;
+
+    private volatile boolean terminate;
+
+    private ThreadLogger watchdogThread;
+
+    private int stalls;
+    private int recoveries;
+    private int deadlocks;
+
+    public Watchdog(Env env, Dealer dealer, Table table, Player[] players) {
+        this.env = env;
+        this.dealer = dealer;
+        this.table = table;
+        this.players = players;
+        this.partyThreads = new Thread[env.config.players + 2];
+        this.deadlines = new AtomicLongArray(env.config.players + 2);
+        this.reported = new long[env.config.players + 2];
+        this.stallNanos = env.config.watchdogStallMillis * 1_000_000L;
+    }
+
+    /**
+     * @param id - the id of a player.
+     * @return - the watched party of the player.
+     */
+    public static int player(int id) {
+        return id + 2;
+    }
+
+    /**
+     * Starts the watchdog thread (does nothing if the watchdog is off).
+     */
+    public void start() {
+        if (env.config.watchdogMillis <= 0)
+            return;
+        watchdogThread = new ThreadLogger(this, "watchdog", env.logger);
+        watchdogThread.setDaemon(true);
+        watchdogThread.startWithLog();
+    }
+
+    /**
+     * Stops the watchdog thread and logs what it found.
+     */
+    public void terminate() {
+        if (watchdogThread == null)
+            return;
+        terminate = true;
+        watchdogThread.interrupt();
+        try {
+            watchdogThread.joinWithLog();
+        } catch (InterruptedException ignored) {
+        }
+        env.logger.info("watchdog: " + stalls + " stalls, " + recoveries + " recoveries, " + deadlocks + " deadlocks.");
+    }
+
+    /**
+     * Registers the thread of a party, so its stack is dumped when a stall is reported.
+     *
+     * @param party  - the party.
+     * @param thread - the thread of the party.
+     */
+    public void register(int party, Thread thread) {
+        partyThreads[party] = thread;
+    }
+
+    /**
+     * Tells the watchdog the party is alive, and must check in again within the stall time.
+     *
+     * @param party - the party.
+     */
+    public void heartbeat(int party) {
+        deadlines.set(party, System.nanoTime() + stallNanos);
+    }
+
+    /**
+     * Tells the watchdog the party is idle, so it has no deadline until its next heartbeat.
+     *
+     * @param party - the party.
+     */
+    public void idle(int party) {
+        deadlines.set(party, 0);
+    }
+
+    /**
+     * The watchdog thread starts here.
+     */
+    @Override
+    public void run() {
+        while (!terminate) {
+            try {
+                Thread.sleep(env.config.watchdogMillis);
+            } catch (InterruptedException e) {
+                continue;
+            }
+            probeScheduler();
+            checkDeadlines();
+            checkDeadlocks();
+        }
+    }
+
+    /**
+     * Schedules a task that clears the scheduler deadline, unless the previous one did not run yet.
+     */
+    private void probeScheduler() {
+        if (deadlines.get(SCHEDULER) != 0)
+            return;
+        heartbeat(SCHEDULER);
+        env.scheduler.schedule(() -> {
+            register(SCHEDULER, Thread.currentThread());
+            idle(SCHEDULER);
+        }, 0);
+    }
+
+    private void checkDeadlines() {
+        long now = System.nanoTime();
+        for (int party = 0; party < partyThreads.length; party++) {
+            long deadline = deadlines.get(party);
+            if (deadline == 0 || now - deadline < 0 || reported[party] == deadline)
+                continue;
+            reported[party] = deadline;
+            stalls++;
+            env.logger.severe("watchdog: " + name(party) + " has not checked in for "
+                    + (now - deadline + stallNanos) / 1_000_000 + "ms.");
+            dumpThreads();
+            dumpTable();
+            if (party >= player(0))
+                recover(players[party - player(0)]);
+        }
+    }
+
+    /**
+     * Re-notifies a player that still waits for a verdict the dealer already gave (a missed notification).
+     */
+    private void recover(Player player) {
+        if (!env.config.watchdogRecover || !player.claimPending() || player.verdictTime - player.claimEnqueueTime <= 0)
+            return;
+        env.logger.severe("watchdog: re-notifying player " + (player.id + 1) + ".");
+        recoveries++;
+        player.notifyPlayer();
+    }
+
+    private void checkDeadlocks() {
+        long[] deadlocked = threads.findDeadlockedThreads();
+        if (deadlocked == null || Arrays.equals(deadlocked, reportedDeadlock))
+            return;
+        reportedDeadlock = deadlocked;
+        deadlocks++;
+        env.logger.severe("watchdog: " + deadlocked.length + " threads are deadlocked:");
+        for (ThreadInfo info : threads.getThreadInfo(deadlocked, threads.isObjectMonitorUsageSupported(),
+                threads.isSynchronizerUsageSupported()))
+            dump(info);
+        dumpTable();
+    }
+
+    private String name(int party) {
+        return party == DEALER ? "the dealer" : party == SCHEDULER ? "the scheduler" : "player " + (party - 1);
+    }
+
+    /**
+     * Writes the stacks of all the registered threads to the log.
+     */
+    private void dumpThreads() {
+        for (Thread thread : partyThreads) {
+            if (thread == null)
+                continue;
+            ThreadInfo[] infos = threads.getThreadInfo(new long[]{thread.getId()},
+                    threads.isObjectMonitorUsageSupported(), threads.isSynchronizerUsageSupported());
+            dump(infos[0]);
+        }
+    }
+
+    private void dump(ThreadInfo info) {
+        if (info == null) // the thread is not alive
+            return;
+        StringBuilder sb = new StringBuilder().append('"').append(info.getThreadName()).append("\" ")
+                .append(info.getThreadState());
+        if (info.getLockName() != null)
+            sb.append(" on ").append(info.getLockName());
+        if (info.getLockOwnerName() != null)
+            sb.append(" owned by \"").append(info.getLockOwnerName()).append('"');
+        for (StackTraceElement frame : info.getStackTrace())
+            sb.append(System.lineSeparator()).append("\tat ").append(frame);
+        env.logger.severe(sb.toString());
+    }
+
+    /**
+     * Writes the cards on the table and the state of the players to the log.
+     */
+    private void dumpTable() {
+        env.logger.severe("table (version " + table.getVersion() + "): " + Arrays.toString(table.cards())
+                + ", deck: " + dealer.deckSize());
+        Player checking = dealer.checking();
+        for (Player player : players)
+            env.logger.severe(player.diagnostics() + (player == checking ? ", being checked by the dealer"
+                    : player.claimPending() ? ", queued for a check" : ""));
+    }
+}
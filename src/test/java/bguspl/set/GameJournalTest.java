@@ -0,0 +1,180 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GameJournalTest {
+
+    GameJournal journal;
+    private Path directory;
+    private String base;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("journal");
+        base = directory.resolve("game.journal").toString();
+        Properties properties = new Properties();
+        properties.put("JournalFile", base);
+        properties.put("JournalCompaction", "false");
+        properties.put("JournalFsync", "never");
+        TimingWheelTest.MockLogger logger = new TimingWheelTest.MockLogger();
+        journal = GameJournal.open(logger, new Config(logger, properties));
+        assertTrue(journal.enabled());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        journal.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * Records a short game with fields that take one and several varint bytes.
+     */
+    private void recordGame() {
+        journal.gameStart(-5L, 2, 12, 81);
+        journal.cardPlaced(11, 80);
+        journal.cardPlaced(0, 300);
+        journal.tokenPlaced(1, 11);
+        journal.tokenRemoved(1, 11);
+        journal.tokensCleared(0);
+        journal.claim(0, new int[]{3, 127, 128});
+        journal.verdict(0, GameJournal.POINT);
+        journal.score(0, 1);
+        journal.reshuffle(69);
+        journal.checksum(Long.MIN_VALUE);
+        journal.gameEnd(new int[]{0, 1});
+        journal.close();
+    }
+
+    private String segment() {
+        long[] sequences = JournalSegments.list(base);
+        assertEquals(1, sequences.length);
+        return JournalSegments.find(base, sequences[0]);
+    }
+
+    private void assertRecord(JournalReader reader, byte type, long... fields) {
+        assertTrue(reader.next());
+        assertEquals(type, reader.type());
+        assertEquals(fields.length, reader.fieldCount() + (type == GameJournal.GAME_END ? 1 : 0));
+        int first = type == GameJournal.GAME_END ? 1 : 0; // the count is not a field of its own
+        if (first == 1)
+            assertEquals(fields[0], reader.fieldCount());
+        for (int i = first; i < fields.length; i++)
+            assertEquals(fields[i], reader.longField(i - first), "field " + i + " of record " + reader.record());
+    }
+
+    /**
+     * Reads the records of recordGame, up to a given number of them.
+     */
+    private void assertGame(JournalReader reader, int records) {
+        byte[] types = {GameJournal.GAME_START, GameJournal.CARD_PLACED, GameJournal.CARD_PLACED,
+                GameJournal.TOKEN_PLACED, GameJournal.TOKEN_REMOVED, GameJournal.TOKENS_CLEARED, GameJournal.CLAIM,
+                GameJournal.VERDICT, GameJournal.SCORE, GameJournal.RESHUFFLE, GameJournal.CHECKSUM,
+                GameJournal.GAME_END};
+        long[][] fields = {{-5L, 2, 12, 81}, {11, 80}, {0, 300}, {1, 11}, {1, 11}, {0}, {0, 3, 127, 128},
+                {0, GameJournal.POINT}, {0, 1}, {69}, {Long.MIN_VALUE}, {2, 0, 1}};
+        long micros = -1;
+        for (int i = 0; i < records; i++) {
+            assertRecord(reader, types[i], fields[i]);
+            assertEquals(i, reader.record());
+            assertTrue(reader.micros() >= micros);
+            micros = reader.micros();
+        }
+    }
+
+    @Test
+    void roundTrip_AllRecordTypes() throws IOException {
+        long before = System.currentTimeMillis();
+        recordGame();
+
+        JournalReader reader = new JournalReader(segment());
+        assertTrue(reader.startMillis <= before + 1000 && reader.startMillis >= before - 1000);
+        assertGame(reader, 12);
+        assertFalse(reader.next());
+        assertFalse(reader.truncated());
+    }
+
+    @Test
+    void roundTrip_PartialRecordAtTheEnd() throws IOException {
+        recordGame();
+        String segment = segment();
+        long length = Files.size(Paths.get(segment));
+
+        // the last record (GAME_END, 2 winners) is cut after its type and time
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(length - 3);
+        }
+        JournalReader reader = new JournalReader(segment);
+        assertGame(reader, 11);
+        assertFalse(reader.next());
+        assertTrue(reader.truncated());
+        assertFalse(reader.next());
+        assertEquals(10, reader.record());
+    }
+
+    @Test
+    void roundTrip_KeyframeAndIndex() throws IOException {
+        journal.gameStart(1, 2, 3, 81);
+        journal.score(1, 4);
+        journal.keyframe(new int[]{5, -1, 200}, new long[]{0b10, 0, -1L}, 1, new int[]{7, 8});
+        journal.cardRemoved(0, 5);
+        journal.close();
+
+        String segment = segment();
+        JournalReader reader = new JournalReader(segment);
+        assertRecord(reader, GameJournal.GAME_START, 1, 2, 3, 81);
+        assertRecord(reader, GameJournal.SCORE, 1, 4);
+        assertTrue(reader.next());
+        assertEquals(GameJournal.KEYFRAME, reader.type());
+        int offset = reader.offset();
+        long micros = reader.micros();
+        // table size, token words, players, deck size, slots, token words, scores, deck
+        long[] fields = {3, 1, 2, 2, 5, 0xffffffffL, 200, 0b10, 0, -1L, 0, 4, 7, 8};
+        assertEquals(fields.length, reader.fieldCount());
+        for (int i = 0; i < fields.length; i++)
+            assertEquals(fields[i], reader.longField(i), "keyframe field " + i);
+        assertEquals(-1, reader.field(5));
+        assertRecord(reader, GameJournal.CARD_REMOVED, 0, 5);
+        assertFalse(reader.next());
+
+        JournalIndex index = new JournalIndex(segment);
+        assertEquals(1, index.entries());
+        assertEquals(2, index.record(0));
+        assertEquals(offset, index.offset(0));
+        assertEquals(micros, index.micros(0));
+
+        // a reader seeks to the keyframe and goes on from there
+        JournalReader seeking = new JournalReader(segment);
+        assertTrue(seeking.seek(index.offset(0), index.record(0), index.micros(0)));
+        assertEquals(GameJournal.KEYFRAME, seeking.type());
+        assertEquals(2, seeking.record());
+        assertRecord(seeking, GameJournal.CARD_REMOVED, 0, 5);
+        assertEquals(3, seeking.record());
+    }
+
+    @Test
+    void close_IgnoresLaterRecords() throws IOException {
+        journal.gameStart(1, 2, 12, 81);
+        journal.close();
+        journal.cardPlaced(0, 1);
+
+        JournalReader reader = new JournalReader(segment());
+        assertRecord(reader, GameJournal.GAME_START, 1, 2, 12, 81);
+        assertFalse(reader.next());
+    }
+}
@@ -0,0 +1,180 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JournalSegmentsTest {
+
+    /**
+     * The segment size of the tests (in bytes), a few commits of recordBatches.
+     */
+    private static final int SEGMENT_BYTES = 128;
+
+    private Path directory;
+    private String base;
+    private TimingWheelTest.MockLogger logger;
+    private final List<GameJournal> journals = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("segments");
+        base = directory.resolve("game.journal").toString();
+        logger = new TimingWheelTest.MockLogger();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (GameJournal journal : journals)
+            journal.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private GameJournal open(boolean compaction, int retainSegments) {
+        Properties properties = new Properties();
+        properties.put("JournalFile", base);
+        properties.put("JournalCompaction", Boolean.toString(compaction));
+        properties.put("JournalRetainSegments", Integer.toString(retainSegments));
+        properties.put("JournalSegmentKilobytes", Double.toString(SEGMENT_BYTES / 1024.0));
+        properties.put("JournalCommitSeconds", "0.001");
+        properties.put("JournalFsync", "never");
+        GameJournal journal = GameJournal.open(logger, new Config(logger, properties));
+        assertTrue(journal.enabled());
+        journals.add(journal);
+        return journal;
+    }
+
+    /**
+     * Records a game start and the given number of token batches (a placed and a removed token each), waiting for a
+     * commit after every batch so the segment rolls between commits.
+     */
+    private static void recordBatches(GameJournal journal, int batches) throws InterruptedException {
+        journal.gameStart(7, 2, 12, 81);
+        for (int batch = 0; batch < batches; batch++) {
+            journal.tokenPlaced(batch % 2, batch % 12);
+            journal.tokenRemoved(batch % 2, batch % 12);
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Reads the records recordBatches wrote, from the given reader on.
+     */
+    private static void assertBatches(JournalReader reader, int batches) {
+        assertTrue(reader.next());
+        assertEquals(GameJournal.GAME_START, reader.type());
+        for (int batch = 0; batch < batches; batch++) {
+            assertTrue(reader.next(), "batch " + batch);
+            assertEquals(GameJournal.TOKEN_PLACED, reader.type());
+            assertEquals(1 + 2 * batch, reader.record());
+            assertEquals(batch % 12, reader.longField(1));
+            assertTrue(reader.next());
+            assertEquals(GameJournal.TOKEN_REMOVED, reader.type());
+        }
+        assertFalse(reader.next());
+        assertFalse(reader.truncated());
+    }
+
+    private List<String> segments() {
+        List<String> segments = new ArrayList<>();
+        for (long sequence : JournalSegments.list(base))
+            segments.add(JournalSegments.find(base, sequence));
+        return segments;
+    }
+
+    @Test
+    void write_RollsAtTheSegmentSize() throws IOException, InterruptedException {
+        GameJournal journal = open(false, 0);
+        recordBatches(journal, 40);
+        journal.close();
+
+        List<String> segments = segments();
+        assertTrue(segments.size() > 2, segments.toString());
+        for (String segment : segments)
+            assertTrue(Files.size(Paths.get(segment)) <= SEGMENT_BYTES, segment);
+
+        // a reader of the first segment goes on through the others
+        JournalReader reader = new JournalReader(segments.get(0));
+        assertBatches(reader, 40);
+        assertEquals(segments.get(segments.size() - 1), reader.filename());
+    }
+
+    @Test
+    void followingSegments_UpToTheNextGame() throws IOException, InterruptedException {
+        GameJournal journal = open(false, 0);
+        recordBatches(journal, 40);
+        journal.close();
+        List<String> game = segments();
+        Thread.sleep(2); // the next game has another start time
+        GameJournal next = open(false, 0);
+        recordBatches(next, 1);
+        next.close();
+
+        JournalReader reader = new JournalReader(game.get(0));
+        assertEquals(game.subList(1, game.size()), reader.followingSegments());
+        // the records are numbered on from the header of the segment moved to
+        String last = game.get(game.size() - 1);
+        long baseRecord = new JournalReader(last).record() + 1;
+        reader.moveTo(last);
+        assertTrue(reader.next());
+        assertEquals(baseRecord, reader.record());
+        assertTrue(reader.followingSegments().isEmpty());
+
+        assertThrows(IOException.class, () -> reader.moveTo(game.get(1))); // back
+        assertThrows(IOException.class, () -> reader.moveTo(segments().get(game.size()))); // the next game
+    }
+
+    @Test
+    void compact_ReadsBackTheSame() throws IOException, InterruptedException {
+        GameJournal journal = open(false, 0);
+        recordBatches(journal, 40);
+        journal.close();
+        List<String> segments = segments();
+        assertFalse(segments.get(0).endsWith(JournalSegments.COMPRESSED_SUFFIX));
+
+        // the next game compacts the segments of this one
+        open(true, 0).close();
+        List<String> compacted = segments();
+        for (int i = 0; i < segments.size(); i++)
+            assertEquals(segments.get(i) + JournalSegments.COMPRESSED_SUFFIX, compacted.get(i));
+        assertFalse(Files.exists(Paths.get(segments.get(0))));
+        assertBatches(new JournalReader(compacted.get(0)), 40);
+    }
+
+    @Test
+    void retain_DeletesOnlyFinishedSegments() throws IOException, InterruptedException {
+        GameJournal other = open(false, 0);
+        other.gameStart(1, 2, 12, 81);
+        Thread.sleep(20); // committed, so the segment has records
+        String otherSegment = segments().get(0);
+        assertTrue(Files.size(Paths.get(otherSegment)) > GameJournal.HEADER_SIZE);
+        GameJournal journal = open(false, 1);
+        recordBatches(journal, 40);
+        journal.close();
+
+        // the segment of the other game is older, but it is still being written
+        assertEquals(2, segments().size(), segments().toString());
+        assertEquals(otherSegment, segments().get(0));
+        other.cardPlaced(0, 1);
+        other.close();
+        JournalReader reader = new JournalReader(otherSegment);
+        assertTrue(reader.next());
+        assertEquals(GameJournal.GAME_START, reader.type());
+        assertTrue(reader.next());
+        assertEquals(GameJournal.CARD_PLACED, reader.type());
+    }
+}
@@ -0,0 +1,247 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LeaderboardTest {
+
+    Leaderboard leaderboard;
+    private Path directory;
+    private String filename;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("leaderboard");
+        filename = directory.resolve("leaderboard").toString();
+        leaderboard = Leaderboard.open(filename);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        leaderboard.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private void reopen() throws IOException {
+        leaderboard.close();
+        leaderboard = Leaderboard.open(filename);
+    }
+
+    private Path index() {
+        return Paths.get(filename + Leaderboard.INDEX_SUFFIX);
+    }
+
+    /**
+     * Records the games from (inclusive) to (exclusive) of the 4 games of recordGames().
+     */
+    private void recordGames(int from, int to) throws IOException {
+        String[][] names = {{"A", "B", "C", "D"}, {"A", "B", "C", "D"}, {"A", "C", "D"}, {"E"}};
+        int[][] scores = {{5, 5, 3, 1}, {6, 7, 7, 2}, {4, 2, 4}, {12}};
+        int[][] winners = {{0, 1}, {1, 2}, {0, 2}, {0}};
+        for (int game = from; game < to; game++)
+            leaderboard.record(1000L * (game + 1), names[game], scores[game], winners[game]);
+    }
+
+    /**
+     * Records 4 games, after which the totals (games, wins, total score, best score) are:
+     * A 3, 2, 15, 6 - B 2, 2, 12, 7 - C 3, 1, 12, 7 - D 3, 1, 7, 4 - E 1, 1, 12, 12.
+     */
+    private void recordGames() throws IOException {
+        recordGames(0, 4);
+    }
+
+    private static List<String> names(List<Leaderboard.Standing> standings) {
+        List<String> names = new ArrayList<>();
+        for (Leaderboard.Standing standing : standings)
+            names.add(standing.name);
+        return names;
+    }
+
+    private void assertGames() throws IOException {
+        assertEquals(4, leaderboard.games());
+        assertEquals(5, leaderboard.players());
+        Leaderboard.Standing a = leaderboard.top(1, Leaderboard.Order.WINS).get(0);
+        assertEquals("A", a.name);
+        assertEquals(3, a.games);
+        assertEquals(2, a.wins);
+        assertEquals(15, a.totalScore);
+        assertEquals(6, a.bestScore);
+        assertEquals(Arrays.asList("A", "B", "E", "C", "D"), names(leaderboard.top(5, Leaderboard.Order.WINS)));
+
+        List<Leaderboard.Result> history = leaderboard.history("D", 10);
+        assertEquals(3, history.size());
+        assertEquals(3, history.get(0).game);
+        assertEquals(4, history.get(0).score);
+        assertEquals(3, history.get(0).players);
+        assertTrue(history.get(0).winner);
+        assertEquals(3000, history.get(0).endMillis);
+        assertEquals(2, history.get(1).game);
+        assertFalse(history.get(1).winner);
+        assertEquals(1, history.get(2).game);
+    }
+
+    @Test
+    void record_TotalsAndHistory() throws IOException {
+        recordGames();
+
+        assertGames();
+        assertEquals(1, leaderboard.history("D", 1).size());
+        assertTrue(leaderboard.history("F", 10).isEmpty());
+    }
+
+    @Test
+    void record_SameNameTwiceInAGame() throws IOException {
+        leaderboard.record(1000, new String[]{"X", "X"}, new int[]{1, 2}, new int[]{1});
+
+        assertEquals(1, leaderboard.players());
+        Leaderboard.Standing x = leaderboard.top(1, Leaderboard.Order.SCORE).get(0);
+        assertEquals(2, x.games);
+        assertEquals(1, x.wins);
+        assertEquals(3, x.totalScore);
+        List<Leaderboard.Result> history = leaderboard.history("X", 10);
+        assertEquals(2, history.size());
+        assertEquals(2, history.get(0).score);
+        assertEquals(1, history.get(1).score);
+    }
+
+    @Test
+    void record_LongNamesAreTruncated() throws IOException {
+        char[] name = new char[Leaderboard.NAME_SIZE];
+        Arrays.fill(name, '\u00e9'); // 2 bytes in UTF-8
+        leaderboard.record(1000, new String[]{new String(name)}, new int[]{3}, new int[]{0});
+
+        String truncated = new String(name, 0, Leaderboard.NAME_SIZE / 2);
+        assertEquals(truncated, leaderboard.top(1, Leaderboard.Order.WINS).get(0).name);
+        assertEquals(1, leaderboard.history(new String(name), 10).size());
+        assertEquals(1, leaderboard.history(truncated, 10).size());
+    }
+
+    @Test
+    void top_OrdersAndTies() throws IOException {
+        recordGames();
+
+        // ties are broken by the total score, then by the fewest games
+        assertEquals(Arrays.asList("A", "B", "E", "C", "D"), names(leaderboard.top(10, Leaderboard.Order.WINS)));
+        assertEquals(Arrays.asList("A", "E", "B", "C", "D"), names(leaderboard.top(5, Leaderboard.Order.SCORE)));
+        assertEquals(Arrays.asList("E", "B", "C", "A", "D"), names(leaderboard.top(5, Leaderboard.Order.BEST)));
+        assertEquals(Arrays.asList("A", "E"), names(leaderboard.top(2, Leaderboard.Order.SCORE)));
+        assertEquals(Arrays.asList("E", "B", "C"), names(leaderboard.top(3, Leaderboard.Order.BEST)));
+        assertTrue(leaderboard.top(0, Leaderboard.Order.WINS).isEmpty());
+    }
+
+    @Test
+    void open_KeepsTheResults() throws IOException {
+        recordGames();
+        reopen();
+
+        assertGames();
+    }
+
+    @Test
+    void open_CatchesUpAnIndexBehindTheLog() throws IOException {
+        // the index of the first 2 games is put back, as if the process died after the log of the last 2 was written
+        recordGames(0, 2);
+        leaderboard.close();
+        Path saved = directory.resolve("saved.idx");
+        Files.copy(index(), saved);
+        leaderboard = Leaderboard.open(filename);
+        recordGames(2, 4);
+        leaderboard.close();
+        Files.copy(saved, index(), StandardCopyOption.REPLACE_EXISTING);
+
+        leaderboard = Leaderboard.open(filename);
+        assertGames();
+    }
+
+    @Test
+    void open_RebuildsAMissingIndex() throws IOException {
+        recordGames();
+        leaderboard.close();
+        Files.delete(index());
+
+        leaderboard = Leaderboard.open(filename);
+        assertGames();
+        assertTrue(Files.exists(index()));
+    }
+
+    @Test
+    void open_RebuildsAnInvalidIndex() throws IOException {
+        recordGames();
+        leaderboard.close();
+        try (RandomAccessFile file = new RandomAccessFile(index().toFile(), "rw")) {
+            file.writeInt(0);
+        }
+
+        leaderboard = Leaderboard.open(filename);
+        assertGames();
+    }
+
+    @Test
+    void open_IgnoresACutOffEntry() throws IOException {
+        recordGames(0, 3);
+        leaderboard.close();
+        try (RandomAccessFile file = new RandomAccessFile(filename, "rw")) {
+            file.setLength(file.length() + Leaderboard.ENTRY_SIZE / 2);
+        }
+
+        leaderboard = Leaderboard.open(filename);
+        assertEquals(3, leaderboard.games());
+        // the next game is written over the cut off entry
+        recordGames(3, 4);
+        reopen();
+        assertGames();
+    }
+
+    @Test
+    void open_RejectsAnotherFile() throws IOException {
+        Path other = directory.resolve("other");
+        Files.write(other, new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9});
+
+        assertThrows(IOException.class, () -> Leaderboard.open(other.toString()));
+    }
+
+    @Test
+    void record_ResizesTheIndex() throws IOException {
+        // more than 3/4 of the initial 1024 index entries
+        int players = 1000;
+        String[] names = new String[players];
+        int[] scores = new int[players];
+        for (int player = 0; player < players; player++) {
+            names[player] = "player " + player;
+            scores[player] = player;
+        }
+        leaderboard.record(1000, names, scores, new int[]{players - 1});
+        leaderboard.record(2000, names, scores, new int[]{players - 1});
+
+        assertEquals(players, leaderboard.players());
+        assertEquals(Leaderboard.INDEX_HEADER_SIZE + 2048L * Leaderboard.INDEX_ENTRY_SIZE, Files.size(index()));
+        assertEquals(Arrays.asList("player 999", "player 998"),
+                names(leaderboard.top(2, Leaderboard.Order.SCORE)));
+        reopen();
+        assertEquals(players, leaderboard.players());
+        for (int player = 0; player < players; player += 111) {
+            List<Leaderboard.Result> history = leaderboard.history(names[player], 10);
+            assertEquals(2, history.size());
+            assertEquals(player, history.get(0).score);
+            assertEquals(2, history.get(0).game);
+            assertEquals(1, history.get(1).game);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimingWheelTest {
+
+    TimingWheel wheel;
+    private List<Integer> ran;
+
+    @BeforeEach
+    void setUp() {
+        // a small wheel, so a delay of more than 40ms takes more than one rotation
+        wheel = new TimingWheel(new MockLogger(), 10, 4);
+        ran = new CopyOnWriteArrayList<>();
+    }
+
+    @AfterEach
+    void tearDown() {
+        wheel.terminate();
+    }
+
+    private Runnable record(int task, CountDownLatch done) {
+        return () -> {
+            ran.add(task);
+            done.countDown();
+        };
+    }
+
+    @Test
+    void schedule_RunsAfterTheDelay() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        long start = System.currentTimeMillis();
+        wheel.schedule(record(1, done), 30);
+        assertEquals(1, wheel.size());
+
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - start >= 30);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void schedule_RunsInTheOrderOfTheDelays() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(3);
+        wheel.schedule(record(3, done), 60);
+        wheel.schedule(record(1, done), 10);
+        wheel.schedule(record(2, done), 30);
+
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(1, 2, 3), ran);
+    }
+
+    @Test
+    void schedule_SameTickRunsInTheOrderScheduled() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(5);
+        for (int task = 0; task < 5; task++)
+            wheel.schedule(record(task, done), 50);
+
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), ran);
+    }
+
+    @Test
+    void schedule_LongDelayWaitsForItsRounds() throws InterruptedException {
+        // 150ms is several rotations of the 4 buckets of 10ms, and hashes to the same bucket as the 30ms task
+        CountDownLatch first = new CountDownLatch(1);
+        CountDownLatch second = new CountDownLatch(1);
+        long start = System.currentTimeMillis();
+        wheel.schedule(record(2, second), 150);
+        wheel.schedule(record(1, first), 30);
+
+        assertTrue(first.await(1, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList(1), ran);
+        assertEquals(1, wheel.size());
+        assertTrue(second.await(1, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - start >= 150);
+        assertEquals(Arrays.asList(1, 2), ran);
+    }
+
+    @Test
+    void cancel_BeforeExpiry() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        TimingWheel.Timeout cancelled = wheel.schedule(record(1, new CountDownLatch(1)), 30);
+        wheel.schedule(record(2, done), 60);
+
+        assertTrue(cancelled.cancel());
+        assertFalse(cancelled.cancel());
+        assertEquals(1, wheel.size());
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList(2), ran);
+    }
+
+    @Test
+    void cancel_AfterExpiry() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        TimingWheel.Timeout timeout = wheel.schedule(record(1, done), 10);
+
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertFalse(timeout.cancel());
+        assertEquals(0, wheel.size());
+    }
+
+    static class MockLogger extends Logger {
+        protected MockLogger() {
+            super("", null);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package bguspl.set.ex;
+
+import bguspl.set.Config;
+import bguspl.set.Env;
+import bguspl.set.UtilImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ComputerStrategyTest {
+
+    private TableTest.MockLogger logger;
+    private Env env;
+    private Table table;
+
+    @BeforeEach
+    void setUp() {
+        logger = new TableTest.MockLogger();
+        Config config = new Config(logger, properties("normal"));
+        env = new Env(logger, config, new TableTest.MockUserInterface(), new UtilImpl(config));
+        table = new Table(env);
+    }
+
+    private static Properties properties(String distribution) {
+        Properties properties = new Properties();
+        properties.put("Rows", "3");
+        properties.put("Columns", "4");
+        properties.put("FeatureSize", "3");
+        properties.put("FeatureCount", "4");
+        properties.put("TableDelaySeconds", "0");
+        properties.put("ComputerReactionSeconds", "0.1");
+        properties.put("ComputerReactionJitterSeconds", "0.02");
+        properties.put("ComputerReactionDistribution", distribution);
+        return properties;
+    }
+
+    /**
+     * Places the given cards in the first slots of the table.
+     */
+    private void placeCards(int... cards) {
+        for (int slot = 0; slot < cards.length; slot++)
+            table.placeCard(cards[slot], slot);
+    }
+
+    private int[] cardsAt(int[] slots) {
+        int[] cards = new int[slots.length];
+        for (int i = 0; i < slots.length; i++)
+            cards[i] = table.cardAt(slots[i]);
+        return cards;
+    }
+
+    /**
+     * Draws reaction times and returns their minimum, maximum and mean.
+     */
+    private double[] reactionTimes(String distribution, int draws) {
+        Config config = new Config(logger, properties(distribution));
+        Random random = new Random(1);
+        double min = Double.MAX_VALUE, max = 0, sum = 0;
+        for (int i = 0; i < draws; i++) {
+            long millis = Player.reactionTime(config, random);
+            min = Math.min(min, millis);
+            max = Math.max(max, millis);
+            sum += millis;
+        }
+        return new double[]{min, max, sum / draws};
+    }
+
+    @Test
+    void reactionTime_Fixed() {
+        double[] times = reactionTimes("fixed", 100);
+        assertEquals(100.0, times[0]);
+        assertEquals(100.0, times[1]);
+    }
+
+    @Test
+    void reactionTime_UniformWithinTheJitter() {
+        double[] times = reactionTimes("uniform", 10000);
+        assertTrue(times[0] >= 80, "min " + times[0]);
+        assertTrue(times[1] <= 120, "max " + times[1]);
+        assertEquals(100, times[2], 1);
+    }
+
+    @Test
+    void reactionTime_ExponentialAboveTheMinimum() {
+        double[] times = reactionTimes("exponential", 10000);
+        assertTrue(times[0] >= 80, "min " + times[0]);
+        assertTrue(times[1] > 140, "max " + times[1]); // the tail goes beyond the jitter
+        assertEquals(100, times[2], 1.5);
+    }
+
+    @Test
+    void reactionTime_NormalAroundTheMean() {
+        double[] times = reactionTimes("normal", 10000);
+        assertTrue(times[0] < 80 && times[1] > 120, "min " + times[0] + " max " + times[1]);
+        assertEquals(100, times[2], 1);
+    }
+
+    @Test
+    void reactionTime_AtLeastOneMillisecond() {
+        Properties properties = properties("normal");
+        properties.put("ComputerReactionSeconds", "0.001");
+        properties.put("ComputerReactionJitterSeconds", "1");
+        Config config = new Config(logger, properties);
+        Random random = new Random(1);
+        for (int i = 0; i < 1000; i++)
+            assertTrue(Player.reactionTime(config, random) >= 1);
+    }
+
+    @Test
+    void chooseSlots_SkilledPressesARealSet() {
+        // 0, 1, 2 and 0, 4, 8 are sets (the features are the base 3 digits of the card)
+        placeCards(0, 1, 2, 4, 8, 80);
+        ComputerStrategy strategy = new SkilledStrategy(1);
+        Random random = new Random(1);
+
+        for (int i = 0; i < 100; i++) {
+            int[] slots = strategy.chooseSlots(table.analysis().current(), random);
+            assertEquals(3, slots.length);
+            assertTrue(env.util.testSet(cardsAt(slots)), "slots " + slots[0] + ", " + slots[1] + ", " + slots[2]);
+        }
+    }
+
+    @Test
+    void chooseSlots_SkillIsTheChanceOfSpottingASet() {
+        placeCards(0, 1, 2, 4, 8, 80);
+        TableAnalysis.Result analysis = table.analysis().current();
+        ComputerStrategy strategy = new SkilledStrategy(0.3);
+        Random random = new Random(1);
+
+        int spotted = 0;
+        for (int i = 0; i < 10000; i++)
+            if (analysis.sets.contains(strategy.chooseSlots(analysis, random))) // the analysis' own set object
+                spotted++;
+        assertEquals(3000, spotted, 150);
+    }
+
+    @Test
+    void chooseSlots_GuessesWithoutASet() {
+        placeCards(0, 1, 3, 4);
+        TableAnalysis.Result analysis = table.analysis().current();
+        assertTrue(analysis.sets.isEmpty());
+
+        int[] slots = new SkilledStrategy(1).chooseSlots(analysis, new Random(1));
+        assertEquals(3, slots.length);
+        for (int slot : slots)
+            assertTrue(slot >= 0 && slot < 4, "slot " + slot);
+        assertEquals(3, Arrays.stream(slots).distinct().count());
+    }
+
+    @Test
+    void chooseSlots_NothingToGuessOnAnAlmostEmptyTable() {
+        placeCards(0, 1);
+
+        assertEquals(0, new RandomStrategy().chooseSlots(table.analysis().current(), new Random(1)).length);
+    }
+
+    @Test
+    void fromConfig_ByName() {
+        Properties properties = properties("normal");
+        properties.put("ComputerStrategy", "Random");
+        assertTrue(ComputerStrategy.fromConfig(new Config(logger, properties)) instanceof RandomStrategy);
+        properties.put("ComputerStrategy", "skilled");
+        assertTrue(ComputerStrategy.fromConfig(new Config(logger, properties)) instanceof SkilledStrategy);
+        properties.put("ComputerStrategy", "psychic");
+        Config config = new Config(logger, properties);
+        assertThrows(IllegalArgumentException.class, () -> ComputerStrategy.fromConfig(config));
+    }
+}
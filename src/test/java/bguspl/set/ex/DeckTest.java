@@ -0,0 +1,108 @@
+package bguspl.set.ex;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeckTest {
+
+    private static final int DECK_SIZE = 81;
+
+    Deck deck;
+
+    void assertInvariants() {
+        assertTrue(deck.size() >= 0 && deck.size() <= DECK_SIZE);
+        int[] cards = deck.toArray();
+        assertEquals(deck.size(), cards.length);
+        assertEquals(cards.length, Arrays.stream(cards).distinct().count());
+    }
+
+    @BeforeEach
+    void setUp() {
+        deck = new Deck(DECK_SIZE, new SplittableRandom(42));
+        assertInvariants();
+    }
+
+    @AfterEach
+    void tearDown() {
+        assertInvariants();
+    }
+
+    @Test
+    void constructor_AllTheCards() {
+        assertEquals(DECK_SIZE, deck.size());
+        for (int i = 0; i < DECK_SIZE; i++)
+            assertEquals(i, deck.card(i));
+    }
+
+    @Test
+    void drawRandom_EachCardOnce() {
+        boolean[] drawn = new boolean[DECK_SIZE];
+        for (int i = 0; i < DECK_SIZE; i++) {
+            int card = deck.drawRandom();
+            assertFalse(drawn[card]);
+            drawn[card] = true;
+            assertEquals(DECK_SIZE - 1 - i, deck.size());
+        }
+        assertTrue(deck.isEmpty());
+        assertThrows(IllegalStateException.class, deck::drawRandom);
+    }
+
+    @Test
+    void drawRandom_SameSeedSameDraws() {
+        Deck other = new Deck(DECK_SIZE, new SplittableRandom(42));
+        for (int i = 0; i < DECK_SIZE; i++)
+            assertEquals(other.drawRandom(), deck.drawRandom());
+    }
+
+    @Test
+    void add_ReturnsTheCard() {
+        int card = deck.drawRandom();
+        assertEquals(-1, Arrays.stream(deck.toArray()).filter(c -> c == card).findAny().orElse(-1));
+
+        deck.add(card);
+        assertEquals(DECK_SIZE, deck.size());
+        assertEquals(card, deck.card(DECK_SIZE - 1));
+    }
+
+    @Test
+    void asList_ViewOfTheDeck() {
+        List<Integer> list = deck.asList();
+        int card = deck.drawRandom();
+
+        // the view follows the deck
+        assertEquals(DECK_SIZE - 1, list.size());
+        assertFalse(list.contains(card));
+        for (int i = 0; i < list.size(); i++)
+            assertEquals(deck.card(i), (int) list.get(i));
+        assertThrows(IndexOutOfBoundsException.class, () -> list.get(DECK_SIZE - 1));
+        assertThrows(UnsupportedOperationException.class, () -> list.add(card));
+    }
+
+    @Test
+    void restore_ReplacesTheCards() {
+        deck.restore(new int[]{5, 3, 80});
+
+        assertArrayEquals(new int[]{5, 3, 80}, deck.toArray());
+        assertEquals(3, deck.asList().size());
+        deck.restore(new int[0]);
+        assertTrue(deck.isEmpty());
+    }
+
+    @Test
+    void restore_RejectsInvalidCards() {
+        assertThrows(IllegalArgumentException.class, () -> deck.restore(new int[]{1, 2, 1}));
+        assertThrows(IllegalArgumentException.class, () -> deck.restore(new int[]{DECK_SIZE}));
+        assertThrows(IllegalArgumentException.class, () -> deck.restore(new int[]{-1}));
+        assertThrows(IllegalArgumentException.class, () -> deck.restore(new int[DECK_SIZE + 1]));
+
+        // the deck is not changed
+        assertEquals(DECK_SIZE, deck.size());
+    }
+}
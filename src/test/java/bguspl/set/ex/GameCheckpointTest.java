@@ -0,0 +1,179 @@
+package bguspl.set.ex;
+
+import bguspl.set.Config;
+import bguspl.set.Env;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GameCheckpointTest {
+
+    GameCheckpoint checkpoint;
+    private Path directory;
+    private String filename;
+    private TableTest.MockLogger logger;
+    private Config config;
+    private Table table;
+    private Deck deck;
+    private Player[] players;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("checkpoint");
+        filename = directory.resolve("game.checkpoint").toString();
+        logger = new TableTest.MockLogger();
+        config = new Config(logger, properties(2));
+        Env env = new Env(logger, config, new TableTest.MockUserInterface(), new TableTest.MockUtil());
+        table = new Table(env);
+        deck = new Deck(config.deckSize, new SplittableRandom(1));
+        players = new Player[config.players];
+        for (int i = 0; i < players.length; i++)
+            players[i] = new Player(env, null, table, i, true);
+        checkpoint = new GameCheckpoint(logger, filename, table.slots(), config.deckSize, players.length);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        checkpoint.close(false);
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private static Properties properties(int players) {
+        Properties properties = new Properties();
+        properties.put("Rows", "2");
+        properties.put("Columns", "2");
+        properties.put("FeatureSize", "3");
+        properties.put("FeatureCount", "4");
+        properties.put("TableDelaySeconds", "0");
+        properties.put("HumanPlayers", Integer.toString(players));
+        properties.put("ComputerPlayers", "0");
+        properties.put("PlayerKeys1", "81,87,69,82");
+        properties.put("PlayerKeys2", "85,73,79,80");
+        properties.put("PlayerKeys3", "65,83,68,70");
+        properties.put("PointFreezeSeconds", "1");
+        properties.put("PenaltyFreezeSeconds", "3");
+        return properties;
+    }
+
+    /**
+     * Deals 3 cards to the first 3 slots (the last slot stays empty) and gives player 1 a token on the first one.
+     */
+    private void dealCards() {
+        for (int slot = 0; slot < 3; slot++)
+            table.placeCard(deck.drawRandom(), slot);
+        players[0].addToPotentialSet(table.cardAt(0));
+    }
+
+    /**
+     * Captures a snapshot and writes it to the checkpoint file.
+     */
+    private GameCheckpoint.Snapshot captureAndRead() throws IOException {
+        checkpoint.start();
+        assertTrue(checkpoint.capture(42, table, deck, 5000, players, config));
+        checkpoint.close(false);
+        return GameCheckpoint.read(filename, config);
+    }
+
+    @Test
+    void capture_RoundTrip() throws IOException {
+        dealCards();
+
+        GameCheckpoint.Snapshot snapshot = captureAndRead();
+        assertEquals(42, snapshot.seed);
+        assertEquals(5000, snapshot.remainingMillis);
+        for (int slot = 0; slot < table.slots(); slot++)
+            assertEquals(table.cardAt(slot), snapshot.slotCards[slot]);
+        assertEquals(Table.EMPTY, snapshot.slotCards[3]);
+        assertArrayEquals(deck.toArray(), snapshot.deck);
+        assertArrayEquals(new int[]{0, 0}, snapshot.scores);
+        assertEquals(0, snapshot.freezeMillis[0]);
+        assertArrayEquals(new int[]{table.cardAt(0), Table.EMPTY, Table.EMPTY}, snapshot.potentialSets[0]);
+        assertArrayEquals(new int[]{Table.EMPTY, Table.EMPTY, Table.EMPTY}, snapshot.potentialSets[1]);
+        assertFalse(Files.exists(directory.resolve("game.checkpoint" + GameCheckpoint.TEMPORARY_SUFFIX)));
+    }
+
+    @Test
+    void capture_PendingVerdictIsApplied() throws IOException {
+        dealCards();
+        // the dealer gave player 1 the point and player 2 a penalty, which the player threads did not apply yet
+        players[0].setFrozenState(1);
+        players[1].setFrozenState(3);
+
+        GameCheckpoint.Snapshot snapshot = captureAndRead();
+        assertArrayEquals(new int[]{1, 0}, snapshot.scores);
+        assertEquals(config.pointFreezeMillis, snapshot.freezeMillis[0]);
+        assertEquals(config.penaltyFreezeMillis, snapshot.freezeMillis[1]);
+    }
+
+    @Test
+    void capture_IgnoredAfterClose() throws IOException {
+        dealCards();
+        checkpoint.close(false);
+
+        assertFalse(checkpoint.capture(42, table, deck, 5000, players, config));
+        assertFalse(Files.exists(directory.resolve("game.checkpoint")));
+    }
+
+    @Test
+    void close_FinishedGameDeletesTheFile() throws IOException {
+        dealCards();
+        captureAndRead();
+
+        GameCheckpoint next = new GameCheckpoint(logger, filename, table.slots(), config.deckSize, players.length);
+        next.start();
+        next.capture(42, table, deck, 5000, players, config);
+        next.close(true);
+        assertFalse(Files.exists(directory.resolve("game.checkpoint")));
+    }
+
+    @Test
+    void read_RejectsATruncatedFile() throws IOException {
+        dealCards();
+        captureAndRead();
+        Path file = directory.resolve("game.checkpoint");
+        byte[] bytes = Files.readAllBytes(file);
+
+        Files.write(file, Arrays.copyOf(bytes, bytes.length / 2));
+        assertThrows(IOException.class, () -> GameCheckpoint.read(filename, config));
+        Files.write(file, Arrays.copyOf(bytes, 6));
+        assertThrows(IOException.class, () -> GameCheckpoint.read(filename, config));
+    }
+
+    @Test
+    void read_RejectsACorruptFile() throws IOException {
+        dealCards();
+        captureAndRead();
+        Path file = directory.resolve("game.checkpoint");
+        byte[] bytes = Files.readAllBytes(file);
+
+        bytes[GameCheckpoint.HEADER_SIZE] ^= 1;
+        Files.write(file, bytes);
+        IOException e = assertThrows(IOException.class, () -> GameCheckpoint.read(filename, config));
+        assertTrue(e.getMessage().contains("checksum"), e.getMessage());
+        Files.write(file, new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9});
+        assertThrows(IOException.class, () -> GameCheckpoint.read(filename, config));
+    }
+
+    @Test
+    void read_RejectsAnotherConfiguration() throws IOException {
+        dealCards();
+        captureAndRead();
+
+        Config other = new Config(logger, properties(3));
+        IOException e = assertThrows(IOException.class, () -> GameCheckpoint.read(filename, other));
+        assertTrue(e.getMessage().contains("does not fit"), e.getMessage());
+    }
+}
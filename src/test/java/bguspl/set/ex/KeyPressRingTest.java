@@ -0,0 +1,140 @@
+package bguspl.set.ex;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeyPressRingTest {
+
+    KeyPressRing ring;
+
+    private void fill(int from, int to) {
+        for (int slot = from; slot < to; slot++)
+            assertTrue(ring.offer(slot));
+    }
+
+    @Test
+    void take_InTheOrderOffered() throws InterruptedException {
+        ring = new KeyPressRing(4, KeyPressRing.OverflowPolicy.DROP_NEWEST);
+        fill(0, 4);
+
+        assertEquals(4, ring.size());
+        for (int slot = 0; slot < 4; slot++)
+            assertEquals(slot, ring.take());
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    void offer_WrapsAround() throws InterruptedException {
+        // a capacity that is not a power of 2 (the ring has 4 entries, but holds at most 3 key presses)
+        ring = new KeyPressRing(3, KeyPressRing.OverflowPolicy.DROP_NEWEST);
+        for (int round = 0; round < 10; round++) {
+            fill(round * 3, round * 3 + 3);
+            assertFalse(ring.offer(-1));
+            for (int slot = round * 3; slot < round * 3 + 3; slot++)
+                assertEquals(slot, ring.take());
+        }
+        assertEquals(10, ring.dropped());
+    }
+
+    @Test
+    void offer_DropNewestWhenFull() throws InterruptedException {
+        ring = new KeyPressRing(2, KeyPressRing.OverflowPolicy.DROP_NEWEST);
+        fill(0, 2);
+
+        assertFalse(ring.offer(2));
+        assertEquals(1, ring.dropped());
+        assertEquals(2, ring.size());
+        assertEquals(0, ring.take());
+        assertEquals(1, ring.take());
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    void offer_DropOldestWhenFull() throws InterruptedException {
+        ring = new KeyPressRing(3, KeyPressRing.OverflowPolicy.DROP_OLDEST);
+        fill(0, 5);
+
+        assertEquals(2, ring.dropped());
+        assertEquals(3, ring.size());
+        assertEquals(2, ring.take());
+        assertEquals(3, ring.take());
+        assertEquals(4, ring.take());
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    void take_ParksUntilOffered() throws InterruptedException {
+        ring = new KeyPressRing(2, KeyPressRing.OverflowPolicy.DROP_NEWEST);
+        AtomicInteger taken = new AtomicInteger(-1);
+        CountDownLatch done = new CountDownLatch(1);
+        Thread consumer = new Thread(() -> {
+            try {
+                taken.set(ring.take());
+            } catch (InterruptedException ignored) {
+            }
+            done.countDown();
+        });
+        consumer.start();
+
+        assertFalse(done.await(50, TimeUnit.MILLISECONDS));
+        ring.offer(7);
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals(7, taken.get());
+    }
+
+    @Test
+    void take_InterruptedWhileParked() throws InterruptedException {
+        ring = new KeyPressRing(2, KeyPressRing.OverflowPolicy.DROP_OLDEST);
+        AtomicReference<Throwable> thrown = new AtomicReference<>();
+        Thread consumer = new Thread(() -> {
+            try {
+                ring.take();
+            } catch (InterruptedException e) {
+                thrown.set(e);
+            }
+        });
+        consumer.start();
+        Thread.sleep(50);
+        consumer.interrupt();
+        consumer.join(1000);
+
+        assertFalse(consumer.isAlive());
+        assertTrue(thrown.get() instanceof InterruptedException);
+    }
+
+    @Test
+    void dropOldest_ConcurrentProducerAndConsumer() throws InterruptedException {
+        // every key press is either taken or dropped, and the ones taken are in order
+        ring = new KeyPressRing(4, KeyPressRing.OverflowPolicy.DROP_OLDEST);
+        int presses = 200_000;
+        Thread producer = new Thread(() -> {
+            for (int slot = 0; slot < presses; slot++)
+                ring.offer(slot);
+            ring.offer(presses);
+        });
+        producer.start();
+        int taken = 0;
+        int last = -1;
+        while (last < presses) {
+            int slot = ring.take();
+            assertTrue(slot > last);
+            last = slot;
+            taken++;
+        }
+        producer.join();
+
+        assertEquals(presses + 1, taken + ring.dropped());
+    }
+
+    @Test
+    void constructor_RejectsNonPositiveCapacity() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new KeyPressRing(0, KeyPressRing.OverflowPolicy.DROP_NEWEST));
+    }
+}
@@ -0,0 +1,130 @@
+package bguspl.set.ex;
+
+import bguspl.set.Config;
+import bguspl.set.Env;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyRecorderTest {
+
+    LatencyRecorder recorder;
+    private WarningLogger logger;
+
+    @BeforeEach
+    void setUp() {
+        Properties properties = new Properties();
+        properties.put("LatencyBudgetSeconds", "0.001");
+        logger = new WarningLogger();
+        Config config = new Config(logger, properties);
+        Env env = new Env(logger, config, new TableTest.MockUserInterface(), new TableTest.MockUtil());
+        recorder = new LatencyRecorder(env);
+    }
+
+    @Test
+    void bucket_SmallLatenciesAreExact() {
+        for (int nanos = 0; nanos < 16; nanos++)
+            assertEquals(nanos, LatencyRecorder.bucketMax(LatencyRecorder.bucket(nanos)));
+    }
+
+    @Test
+    void bucket_HoldsTheLatencyWithinPrecision() {
+        for (long nanos = 1; nanos > 0 && nanos < Long.MAX_VALUE / 3; nanos = nanos * 3 + 1) {
+            int bucket = LatencyRecorder.bucket(nanos);
+            long max = LatencyRecorder.bucketMax(bucket);
+            assertTrue(max >= nanos, nanos + " is above the maximum of its bucket " + max);
+            assertTrue(bucket == 0 || LatencyRecorder.bucketMax(bucket - 1) < nanos,
+                    nanos + " belongs to a lower bucket");
+            assertTrue(max - nanos <= nanos / 8, nanos + " is not within 12.5% of its bucket maximum " + max);
+        }
+    }
+
+    @Test
+    void bucket_MaximaAreIncreasing() {
+        long previous = -1;
+        for (int bucket = 0; bucket <= LatencyRecorder.bucket(Long.MAX_VALUE); bucket++) {
+            long max = LatencyRecorder.bucketMax(bucket);
+            assertTrue(max > previous, "bucket " + bucket);
+            assertEquals(bucket, LatencyRecorder.bucket(max));
+            previous = max;
+        }
+        assertEquals(Long.MAX_VALUE, previous);
+    }
+
+    @Test
+    void percentile_NothingRecorded() {
+        assertEquals(0, recorder.count(LatencyRecorder.Stage.VERDICT));
+        assertEquals(0, recorder.percentile(LatencyRecorder.Stage.VERDICT, 50));
+    }
+
+    @Test
+    void percentile_UniformLatencies() {
+        // 1 to 1000 microseconds
+        for (long micros = 1000; micros >= 1; micros--)
+            recorder.recordNanos(LatencyRecorder.Stage.VERDICT, micros * 1000);
+
+        assertEquals(1000, recorder.count(LatencyRecorder.Stage.VERDICT));
+        assertEquals(0, recorder.count(LatencyRecorder.Stage.CLAIM));
+        long p50 = recorder.percentile(LatencyRecorder.Stage.VERDICT, 50);
+        assertTrue(p50 >= 500_000 && p50 <= 500_000 * 9 / 8, "p50 " + p50);
+        long p99 = recorder.percentile(LatencyRecorder.Stage.VERDICT, 99);
+        assertTrue(p99 >= 990_000 && p99 <= 1_000_000, "p99 " + p99);
+        // the highest percentile is capped by the exact maximum
+        assertEquals(1_000_000, recorder.percentile(LatencyRecorder.Stage.VERDICT, 100));
+        long p0 = recorder.percentile(LatencyRecorder.Stage.VERDICT, 0);
+        assertTrue(p0 >= 1000 && p0 <= 1000 * 9 / 8, "p0 " + p0);
+    }
+
+    @Test
+    void percentile_SingleLatency() {
+        recorder.recordNanos(LatencyRecorder.Stage.KEY_PRESS, 123_456);
+
+        assertEquals(123_456, recorder.percentile(LatencyRecorder.Stage.KEY_PRESS, 50));
+        assertEquals(123_456, recorder.percentile(LatencyRecorder.Stage.KEY_PRESS, 99.9));
+    }
+
+    @Test
+    void millisHistogram_PowersOf2() {
+        recorder.recordNanos(LatencyRecorder.Stage.UNFREEZE, 100_000); // below 1ms
+        recorder.recordNanos(LatencyRecorder.Stage.UNFREEZE, 1_500_000); // below 2ms
+        recorder.recordNanos(LatencyRecorder.Stage.UNFREEZE, 3_000_000); // below 4ms
+        recorder.recordNanos(LatencyRecorder.Stage.UNFREEZE, 5_000_000_000L); // the last bucket
+
+        assertArrayEquals(new long[]{1, 1, 1, 1}, recorder.millisHistogram(LatencyRecorder.Stage.UNFREEZE, 4));
+    }
+
+    @Test
+    void record_WarnsWhenOverBudget() {
+        for (int i = 0; i < 8; i++)
+            recorder.recordNanos(LatencyRecorder.Stage.CLAIM, 2_000_000);
+        recorder.recordNanos(LatencyRecorder.Stage.CLAIM, 500_000);
+
+        // the 1st, 2nd, 4th and 8th time over the budget of 1ms
+        assertEquals(4, logger.warnings.size());
+    }
+
+    @Test
+    void record_UnknownStartIsIgnored() {
+        recorder.record(LatencyRecorder.Stage.KEY_PRESS, 0);
+
+        assertEquals(0, recorder.count(LatencyRecorder.Stage.KEY_PRESS));
+    }
+
+    static class WarningLogger extends TableTest.MockLogger {
+
+        final List<String> warnings = new ArrayList<>();
+
+        @Override
+        public void log(LogRecord record) {
+            if (record.getLevel() == Level.WARNING)
+                warnings.add(record.getMessage());
+        }
+    }
+}
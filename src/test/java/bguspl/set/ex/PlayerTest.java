@@ -2,6 +2,7 @@ package bguspl.set.ex;
 
 import bguspl.set.Config;
 import bguspl.set.Env;
+import bguspl.set.TimingWheel;
 import bguspl.set.UserInterface;
 import bguspl.set.Util;
 import org.junit.jupiter.api.AfterEach;
@@ -14,6 +15,8 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import java.util.logging.Logger;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -31,7 +34,11 @@ class PlayerTest {
     @Mock
     private Dealer dealer;
     @Mock
+    private GameStats stats;
+    @Mock
     private Logger logger;
+    @Mock
+    private TimingWheel scheduler;
 
     void assertInvariants() {
         assertTrue(player.id >= 0);
@@ -41,7 +48,8 @@ class PlayerTest {
     @BeforeEach
     void setUp() {
         // purposely do not find the configuration files (use defaults here).
-        Env env = new Env(logger, new Config(logger, (String) null), ui, util);
+        // the freeze updates go to the mocked scheduler, so they do not run after the test
+        Env env = new Env(logger, new Config(logger, (String) null), ui, util, scheduler);
         player = new Player(env, dealer, table, 0, false);
         assertInvariants();
     }
@@ -56,6 +64,7 @@ class PlayerTest {
 
         // force table.countCards to return 3
         when(table.countCards()).thenReturn(3); // this part is just for demonstration
+        when(dealer.stats()).thenReturn(stats);
 
         // calculate the expected score for later
         int expectedScore = player.score() + 1;
@@ -68,6 +77,14 @@ class PlayerTest {
 
         // check that ui.setScore was called with the player's id and the correct score
         verify(ui).setScore(eq(player.id), eq(expectedScore));
+
+        // check that the statistics of the game got the new score too
+        verify(stats).scoreChanged(eq(player.id), eq(expectedScore));
+
+        // check that the player is frozen until the scheduler ends the freeze
+        assertTrue(player.isFrozen());
+        verify(stats).frozenChanged(eq(player.id), eq(true));
+        verify(scheduler).schedule(any(Runnable.class), anyLong());
     }
     @Test
     void addToPotentialSet()
@@ -0,0 +1,89 @@
+package bguspl.set.ex;
+
+import bguspl.set.Config;
+import bguspl.set.Env;
+import bguspl.set.UtilImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TableAnalysisTest {
+
+    TableAnalysis analysis;
+    private Env env;
+    private Table table;
+
+    @BeforeEach
+    void setUp() {
+        Properties properties = new Properties();
+        properties.put("Rows", "3");
+        properties.put("Columns", "4");
+        properties.put("FeatureSize", "3");
+        properties.put("FeatureCount", "4");
+        properties.put("TableDelaySeconds", "0");
+        TableTest.MockLogger logger = new TableTest.MockLogger();
+        Config config = new Config(logger, properties);
+        env = new Env(logger, config, new TableTest.MockUserInterface(), new UtilImpl(config));
+        table = new Table(env);
+        analysis = table.analysis();
+        // 0, 1, 2 and 0, 4, 8 are sets (the features are the base 3 digits of the card)
+        int[] cards = {0, 1, 2, 4, 8, 80};
+        for (int slot = 0; slot < cards.length; slot++)
+            table.placeCard(cards[slot], slot);
+    }
+
+    @Test
+    void current_FindsTheLegalSets() {
+        TableAnalysis.Result result = analysis.current();
+
+        assertEquals(table.getVersion(), result.version);
+        assertEquals(2, result.sets.size());
+        for (int[] slots : result.sets) {
+            int[] cards = new int[slots.length];
+            for (int i = 0; i < slots.length; i++)
+                cards[i] = table.cardAt(slots[i]);
+            assertTrue(env.util.testSet(cards));
+        }
+    }
+
+    @Test
+    void current_OncePerVersionForAllThePlayers() throws InterruptedException {
+        List<Thread> players = new ArrayList<>();
+        TableAnalysis.Result[] results = new TableAnalysis.Result[8];
+        for (int player = 0; player < results.length; player++) {
+            int id = player;
+            players.add(new Thread(() -> {
+                for (int i = 0; i < 100; i++)
+                    results[id] = analysis.current();
+            }));
+        }
+        for (Thread player : players)
+            player.start();
+        for (Thread player : players)
+            player.join();
+
+        assertEquals(1, analysis.analyses());
+        for (TableAnalysis.Result result : results)
+            assertSame(results[0], result);
+    }
+
+    @Test
+    void current_AgainAfterTheTableChanges() {
+        TableAnalysis.Result before = analysis.current();
+        table.removeCard(1); // the set of 0, 1, 2
+
+        TableAnalysis.Result after = analysis.current();
+        assertNotSame(before, after);
+        assertEquals(2, analysis.analyses());
+        assertEquals(1, after.sets.size());
+        assertEquals(Table.EMPTY, after.slotToCard[1]);
+        assertEquals(1, before.slotToCard[1]); // the old result does not change
+        assertSame(after, analysis.current());
+        assertEquals(2, analysis.analyses());
+    }
+}
@@ -110,6 +110,95 @@ class TableTest {
         assertNull(table.getSlotToCard()[0]);
     }
 
+    @Test
+    void placeToken_OnlyOnTheSlot() {
+        table.placeToken(1, 2);
+
+        assertTrue(table.hasToken(1, 2));
+        assertFalse(table.hasToken(0, 2));
+        assertFalse(table.hasToken(1, 3));
+    }
+
+    @Test
+    void removeToken_PlacedAndNotPlaced() {
+        table.placeToken(0, 1);
+        table.placeToken(1, 1);
+
+        assertTrue(table.removeToken(0, 1));
+        assertFalse(table.hasToken(0, 1));
+        assertTrue(table.hasToken(1, 1));
+        // the token was removed already
+        assertFalse(table.removeToken(0, 1));
+        assertFalse(table.removeToken(0, 3));
+    }
+
+    @Test
+    void removeTokens_ReturnsTheOwners() {
+        table.placeToken(0, 2);
+        table.placeToken(1, 2);
+        table.placeToken(1, 3);
+        long[] owners = new long[table.tokenWords()];
+
+        assertEquals(2, table.removeTokens(2, owners));
+        assertArrayEquals(new long[]{0b11}, owners);
+        assertFalse(table.hasToken(0, 2));
+        assertFalse(table.hasToken(1, 2));
+        assertTrue(table.hasToken(1, 3));
+        assertEquals(0, table.removeTokens(2, owners));
+        assertArrayEquals(new long[]{0}, owners);
+    }
+
+    @Test
+    void removeCard_RemovesTheTokens() {
+        table.placeCard(4, 0);
+        table.placeToken(0, 0);
+        table.placeToken(1, 0);
+
+        table.removeCard(0);
+        assertFalse(table.hasToken(0, 0));
+        assertFalse(table.hasToken(1, 0));
+    }
+
+    @Test
+    void tokens_PlayersAbove64() {
+        // 130 players take 3 words of token bits per slot
+        Properties properties = new Properties();
+        properties.put("Rows", "2");
+        properties.put("Columns", "2");
+        properties.put("FeatureSize", "3");
+        properties.put("FeatureCount", "4");
+        properties.put("TableDelaySeconds", "0");
+        properties.put("HumanPlayers", "0");
+        properties.put("ComputerPlayers", "130");
+        MockLogger logger = new MockLogger();
+        Config config = new Config(logger, properties);
+        table = new Table(new Env(logger, config, new MockUserInterface(), new MockUtil()));
+        assertEquals(3, table.tokenWords());
+
+        // players 0, 64 and 128 share a bit position in different words
+        table.placeToken(64, 1);
+        table.placeToken(129, 1);
+        assertTrue(table.hasToken(64, 1));
+        assertTrue(table.hasToken(129, 1));
+        assertFalse(table.hasToken(0, 1));
+        assertFalse(table.hasToken(128, 1));
+        assertFalse(table.hasToken(1, 1));
+        assertFalse(table.hasToken(65, 1));
+        assertFalse(table.hasToken(64, 0));
+        assertFalse(table.hasToken(64, 2));
+
+        table.placeToken(0, 1);
+        assertTrue(table.removeToken(0, 1));
+        assertTrue(table.hasToken(64, 1));
+        assertFalse(table.removeToken(128, 1));
+
+        long[] owners = new long[table.tokenWords()];
+        assertEquals(2, table.removeTokens(1, owners));
+        assertArrayEquals(new long[]{0, 1, 2}, owners);
+        assertFalse(table.hasToken(64, 1));
+        assertFalse(table.hasToken(129, 1));
+    }
+
     static class MockUserInterface implements UserInterface {
         @Override
         public void dispose() {}